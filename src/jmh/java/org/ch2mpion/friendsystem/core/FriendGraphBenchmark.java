@@ -0,0 +1,84 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the friend graph queries behind {@code /friend suggest} and {@code /friend mutual}, and the
+ * incremental update done by every accept and removal, on a graph of fully loaded random friend lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FriendGraphBenchmark {
+
+    @Param({"10000"})
+    public int players;
+
+    @Param({"20", "200"})
+    public int friendsPerPlayer;
+
+    private FriendGraph graph;
+    private UUID[] uuids;
+    private SplittableRandom random;
+
+    @Setup
+    public void setUp() {
+        random = new SplittableRandom(42);
+        uuids = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        graph = new FriendGraph();
+        for (int i = 0; i < players; i++) {
+            Set<UUID> friends = new HashSet<>();
+            while (friends.size() < friendsPerPlayer) {
+                int friend = random.nextInt(players);
+                if (friend != i) {
+                    friends.add(uuids[friend]);
+                }
+            }
+            graph.load(uuids[i], friends);
+        }
+    }
+
+    private UUID randomPlayer() {
+        return uuids[random.nextInt(players)];
+    }
+
+    @Benchmark
+    public List<FriendGraph.Suggestion> suggest() {
+        return graph.suggest(randomPlayer(), 5, 2000, Set.of());
+    }
+
+    @Benchmark
+    public List<UUID> mutualFriends() {
+        return graph.mutualFriends(randomPlayer(), randomPlayer());
+    }
+
+    /**
+     * A friendship with a new player added and removed again, so the graph keeps its shape across iterations.
+     * Includes handing out and freeing the new player's id.
+     */
+    @Benchmark
+    public long addAndRemoveEdge() {
+        UUID x = randomPlayer();
+        UUID y = new UUID(random.nextLong(), random.nextLong());
+        graph.addEdge(x, y);
+        graph.removeEdge(x, y);
+        return graph.getEdgeCount();
+    }
+}
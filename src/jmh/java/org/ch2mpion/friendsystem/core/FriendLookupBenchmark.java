@@ -0,0 +1,115 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code PlayersManager.areFriendsInCache} (used by {@code /friend add} and {@code /msg}) under contention.
+ * Readers check random pairs, half of which are friends, while in the mixed group a writer keeps
+ * adding and removing friendships on the same PlayerData instances, as accepts and removals do.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FriendLookupBenchmark {
+
+    private static final int PAIRS = 1 << 14; // Power of two
+
+    @Param({"1000"})
+    public int players;
+
+    @Param({"10", "200"})
+    public int friendsPerPlayer;
+
+    private final Map<UUID, PlayerData> online = new ConcurrentHashMap<>();
+    private UUID[] first;
+    private UUID[] second;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        UUID[] uuids = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+            online.put(uuids[i], new PlayerData("Player" + i));
+        }
+        for (int i = 0; i < players; i++) {
+            PlayerData playerData = online.get(uuids[i]);
+            while (playerData.getFriendCount() < Math.min(friendsPerPlayer, players - 1)) {
+                int friend = random.nextInt(players);
+                if (friend != i) {
+                    playerData.addFriend(uuids[friend]);
+                    online.get(uuids[friend]).addFriend(uuids[i]);
+                }
+            }
+        }
+
+        first = new UUID[PAIRS];
+        second = new UUID[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            first[i] = uuids[random.nextInt(players)];
+            if (i % 2 == 0) {
+                List<UUID> friends = online.get(first[i]).getFriends();
+                second[i] = friends.isEmpty() ? uuids[random.nextInt(players)] : friends.get(random.nextInt(friends.size()));
+            } else {
+                second[i] = uuids[random.nextInt(players)];
+            }
+        }
+    }
+
+    // Mirrors PlayersManager.areFriendsInCache
+    private boolean areFriendsInCache(UUID player1Id, UUID player2Id) {
+        PlayerData data1 = online.get(player1Id);
+        return data1 != null && data1.isFriend(player2Id);
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(4)
+    public boolean readOnly(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return areFriendsInCache(first[i], second[i]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public boolean reader(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return areFriendsInCache(first[i], second[i]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        PlayerData playerData = online.get(first[i]);
+        // Toggle the friendship so the friend count stays stable over the run
+        if (playerData.isFriend(second[i])) {
+            playerData.removeFriend(second[i]);
+        } else {
+            playerData.addFriend(second[i]);
+        }
+    }
+}
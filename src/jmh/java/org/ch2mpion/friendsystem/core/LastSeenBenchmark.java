@@ -0,0 +1,40 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PlayerData#getLastSeen()}, which is formatted once per friend in {@code /friend list}.
+ * Each branch of the formatter is covered: relative durations and the absolute date for old timestamps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LastSeenBenchmark {
+
+    @Param({"PT30S", "PT30M", "PT5H", "P3D", "P30D"})
+    public String ago;
+
+    private PlayerData playerData;
+
+    @Setup
+    public void setUp() {
+        playerData = new PlayerData("Benchmark");
+        playerData.setLastSeen(Instant.now().minus(Duration.parse(ago)));
+    }
+
+    @Benchmark
+    public String getLastSeen() {
+        return playerData.getLastSeen();
+    }
+}
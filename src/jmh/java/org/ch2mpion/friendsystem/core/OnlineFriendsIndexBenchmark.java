@@ -0,0 +1,93 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the online friends index updates done by every join and quit, the presence change of a
+ * player on another server, and the page slice behind {@code /friend list}, with a full server of players
+ * who all have random friend lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OnlineFriendsIndexBenchmark {
+
+    @Param({"2000"})
+    public int online;
+
+    @Param({"20", "200"})
+    public int friendsPerPlayer;
+
+    private OnlineFriendsIndex index;
+    private UUID[] uuids;
+    private List<Set<UUID>> friends;
+    private final Set<UUID> remote = new HashSet<>();
+    private SplittableRandom random;
+
+    @Setup
+    public void setUp() {
+        random = new SplittableRandom(42);
+        // Half of every friend list is on this server, the other half elsewhere in the network
+        int players = online * 2;
+        uuids = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        friends = new ArrayList<>();
+        index = new OnlineFriendsIndex(remote::contains);
+        for (int i = 0; i < online; i++) {
+            Set<UUID> list = new HashSet<>();
+            while (list.size() < friendsPerPlayer) {
+                int friend = random.nextInt(players);
+                if (friend != i) {
+                    list.add(uuids[friend]);
+                }
+            }
+            friends.add(list);
+            index.join(uuids[i], list);
+        }
+    }
+
+    /**
+     * A player on this server quits and joins again, so the index keeps its shape across iterations.
+     */
+    @Benchmark
+    public int quitAndJoin() {
+        int i = random.nextInt(online);
+        index.leave(uuids[i]);
+        index.join(uuids[i], friends.get(i));
+        return index.getOnlineFriendCount(uuids[i]);
+    }
+
+    /**
+     * A player on another server comes online and goes offline again.
+     */
+    @Benchmark
+    public boolean remotePresenceChange() {
+        UUID player = uuids[online + random.nextInt(online)];
+        remote.add(player);
+        boolean changed = index.refresh(player);
+        remote.remove(player);
+        return index.refresh(player) && changed;
+    }
+
+    @Benchmark
+    public FriendPage listPage() {
+        return index.page(uuids[random.nextInt(online)], random.nextInt(4), 10);
+    }
+}
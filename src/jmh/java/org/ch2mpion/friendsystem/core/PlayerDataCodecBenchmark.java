@@ -0,0 +1,70 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion between PlayerData and its MongoDB document, which runs on every load and full save.
+ * Covers the current binary-UUID schema as well as legacy string documents that are still being migrated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerDataCodecBenchmark {
+
+    @Param({"0", "10", "100", "1000", "5000"})
+    public int friendCount;
+
+    private UUID playerUuid;
+    private PlayerData playerData;
+    private Document document;
+    private Document legacyDocument;
+
+    @Setup
+    public void setUp() {
+        playerUuid = UUID.randomUUID();
+        playerData = new PlayerData("Benchmark");
+        for (int i = 0; i < friendCount; i++) {
+            playerData.addFriend(UUID.randomUUID());
+        }
+        playerData.drainDelta(playerUuid); // Loaded data starts without pending changes
+        document = playerData.toDocument(playerUuid);
+
+        List<String> legacyFriends = new ArrayList<>(friendCount);
+        for (UUID friend : playerData.getFriends()) {
+            legacyFriends.add(friend.toString());
+        }
+        legacyDocument = new Document("_id", playerUuid.toString())
+                .append("player_uuid", playerUuid.toString())
+                .append("name", "Benchmark")
+                .append("last_seen_millis", System.currentTimeMillis())
+                .append("friends", legacyFriends);
+    }
+
+    @Benchmark
+    public Document toDocument() {
+        return playerData.toDocument(playerUuid);
+    }
+
+    @Benchmark
+    public PlayerData fromDocument() {
+        return new PlayerData(document);
+    }
+
+    @Benchmark
+    public PlayerData fromLegacyDocument() {
+        return new PlayerData(legacyDocument);
+    }
+}
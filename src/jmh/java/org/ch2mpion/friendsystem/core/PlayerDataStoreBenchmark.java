@@ -0,0 +1,117 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures the embedded player data stores without a database: loading players, bulk loading a friend list's
+ * worth of players, and writing the friend change deltas the write-behind queue produces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerDataStoreBenchmark {
+
+    private static final int PLAYERS = 10_000;
+    private static final int FRIENDS = 50;
+    private static final int BULK_SIZE = 100;
+
+    @Param({"memory", "file"})
+    public String storeType;
+
+    private PlayerDataStore store;
+    private File directory;
+    private UUID[] players;
+    private List<UUID> bulk;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (storeType.equals("file")) {
+            directory = Files.createTempDirectory("friendsystem-bench").toFile();
+            FilePlayerDataStore fileStore = new FilePlayerDataStore(new File(directory, "player-data.dat"), Logger.getAnonymousLogger());
+            fileStore.open(16 * 1024 * 1024);
+            store = fileStore;
+        } else {
+            store = new MemoryPlayerDataStore();
+        }
+
+        players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        for (int i = 0; i < PLAYERS; i++) {
+            PlayerData playerData = new PlayerData("Player" + i);
+            for (int j = 1; j <= FRIENDS; j++) {
+                playerData.addFriend(players[(i + j) % PLAYERS]);
+            }
+            playerData.drainDelta(players[i]);
+            store.save(playerData.toDocument(players[i]));
+        }
+        bulk = new ArrayList<>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            bulk.add(players[i * (PLAYERS / BULK_SIZE)]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    private UUID nextPlayer() {
+        cursor = (cursor + 1) % PLAYERS;
+        return players[cursor];
+    }
+
+    @Benchmark
+    public PlayerData load() {
+        return new PlayerData(store.load(nextPlayer()));
+    }
+
+    @Benchmark
+    public Map<UUID, Document> loadAll() {
+        return store.loadAll(bulk, null);
+    }
+
+    /**
+     * One friend added and one removed, written against the stored version like a flush does.
+     */
+    @Benchmark
+    public PlayerDataStore.WriteResult applyDelta() {
+        UUID playerUuid = nextPlayer();
+        UUID friend = UUID.randomUUID();
+        long version = PlayerData.versionOf(store.load(playerUuid));
+        PlayerDelta delta = new PlayerDelta(playerUuid, Set.of(friend), Set.of(players[(cursor + 1) % PLAYERS]), null, null, version);
+        return store.applyDeltas(List.of(delta), null);
+    }
+}
@@ -0,0 +1,163 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the friend request paths of PlayersManager at realistic numbers of pending requests.
+ * PlayersManager needs a running server, so the benchmarks drive its RequestStore and RequestExpiryWheel
+ * exactly the way {@code addRequest}, {@code hasIncomingRequest}, {@code removeRequest} and
+ * {@code cleanUpExpiredRequests} do, minus the main-thread notifications. Time is simulated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestStoreBenchmark {
+
+    private static final long TIMEOUT_MILLIS = 60_000L;
+    private static final long TICK_MILLIS = 1_000L;
+    private static final int POOL_SIZE = 4096; // Power of two
+
+    @State(Scope.Thread)
+    public static class Requests {
+
+        @Param({"100", "10000", "100000"})
+        public int pendingRequests;
+
+        RequestStore store;
+        RequestExpiryWheel wheel;
+        long now;
+
+        UUID[] requesters;
+        UUID[] requested;
+        UUID[] senders = new UUID[POOL_SIZE];
+        UUID[] targets = new UUID[POOL_SIZE];
+        int cursor;
+
+        @Setup
+        public void setUp() {
+            store = new RequestStore(0);
+            wheel = new RequestExpiryWheel(TIMEOUT_MILLIS, TICK_MILLIS, now);
+            requesters = new UUID[pendingRequests];
+            requested = new UUID[pendingRequests];
+            for (int i = 0; i < pendingRequests; i++) {
+                requesters[i] = UUID.randomUUID();
+                requested[i] = UUID.randomUUID();
+                // Spread creation times over one timeout, as in a server that has been running for a while
+                now = i * TIMEOUT_MILLIS / pendingRequests;
+                addRequest(this, requesters[i], requested[i]);
+            }
+            for (int i = 0; i < POOL_SIZE; i++) {
+                senders[i] = UUID.randomUUID();
+                targets[i] = UUID.randomUUID();
+            }
+        }
+    }
+
+    /**
+     * Steady expiry load: every invocation is one expiry tick, in which as many requests are sent
+     * as expire, so the number of pending requests stays at {@code pendingRequests}.
+     */
+    @State(Scope.Thread)
+    public static class Expiry {
+
+        @Param({"100", "10000", "100000"})
+        public int pendingRequests;
+
+        RequestStore store;
+        RequestExpiryWheel wheel;
+        long now;
+        int requestsPerTick;
+        UUID[] players;
+        int cursor;
+
+        @Setup
+        public void setUp() {
+            store = new RequestStore(0);
+            wheel = new RequestExpiryWheel(TIMEOUT_MILLIS, TICK_MILLIS, now);
+            requestsPerTick = (int) Math.max(1, pendingRequests * TICK_MILLIS / TIMEOUT_MILLIS);
+            players = new UUID[2 * pendingRequests + 2 * requestsPerTick];
+            for (int i = 0; i < players.length; i++) {
+                players[i] = UUID.randomUUID();
+            }
+            for (long tick = 0; tick < TIMEOUT_MILLIS / TICK_MILLIS; tick++) {
+                now += TICK_MILLIS;
+                sendTick();
+            }
+        }
+
+        void sendTick() {
+            for (int i = 0; i < requestsPerTick; i++) {
+                UUID requester = players[cursor];
+                UUID target = players[cursor + 1];
+                cursor = (cursor + 2) % players.length;
+                if (store.add(requester, target, now) == RequestStore.AddResult.ADDED) {
+                    wheel.schedule(store.get(requester, target));
+                }
+            }
+        }
+    }
+
+    // Mirrors PlayersManager.addRequest
+    private static RequestStore.AddResult addRequest(Requests state, UUID requesterId, UUID requestedId) {
+        RequestStore.AddResult result = state.store.add(requesterId, requestedId, state.now);
+        if (result == RequestStore.AddResult.ADDED) {
+            state.wheel.schedule(state.store.get(requesterId, requestedId));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public boolean hasIncomingRequestHit(Requests state) {
+        int i = state.cursor = (state.cursor + 1) % state.pendingRequests;
+        return state.store.contains(state.requesters[i], state.requested[i]);
+    }
+
+    @Benchmark
+    public boolean hasIncomingRequestMiss(Requests state) {
+        int i = state.cursor = (state.cursor + 1) % state.pendingRequests;
+        return state.store.contains(state.requested[i], state.requesters[i]);
+    }
+
+    /**
+     * A request that is sent and then answered (accepted or rejected) before it expires.
+     * The simulated clock advances 1 ms per request, so the lazily cancelled wheel entries are drained too.
+     */
+    @Benchmark
+    public boolean addAndRemoveRequest(Requests state) {
+        int i = state.cursor++ & (POOL_SIZE - 1);
+        state.now++;
+        addRequest(state, state.senders[i], state.targets[i]);
+        boolean removed = state.store.remove(state.senders[i], state.targets[i]) != null;
+        if (state.now % TICK_MILLIS == 0) {
+            state.wheel.advance(state.now);
+        }
+        return removed;
+    }
+
+    /**
+     * One run of the expiry task (mirrors PlayersManager.cleanUpExpiredRequests) plus the requests sent during that tick.
+     */
+    @Benchmark
+    public int cleanUpExpiredRequests(Expiry state) {
+        state.now += TICK_MILLIS;
+        state.sendTick();
+        List<Request> due = state.wheel.advance(state.now);
+        int expired = 0;
+        for (Request request : due) {
+            if (state.store.removeIfSame(request)) {
+                expired++;
+            }
+        }
+        return expired;
+    }
+}
@@ -3,19 +3,37 @@ package org.ch2mpion.friendsystem;
 import dev.velix.imperat.BukkitImperat;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor; // Using org.bukkit.ChatColor for consistency
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.ch2mpion.friendsystem.commands.FriendHelpProvider;
 import org.ch2mpion.friendsystem.commands.Friends;
 import org.ch2mpion.friendsystem.commands.Messages;
+import org.ch2mpion.friendsystem.commands.NameSuggestionResolver;
+import org.ch2mpion.friendsystem.core.AsyncExecutors;
+import org.ch2mpion.friendsystem.core.BoundedExecutor;
+import org.ch2mpion.friendsystem.core.FilePlayerDataStore;
+import org.ch2mpion.friendsystem.core.FriendNotifier;
+import org.ch2mpion.friendsystem.core.FriendshipEdges;
+import org.ch2mpion.friendsystem.core.MessageCatalog;
+import org.ch2mpion.friendsystem.core.MemoryPlayerDataStore;
 import org.ch2mpion.friendsystem.core.MongoDBManager;
+import org.ch2mpion.friendsystem.core.MongoPlayerDataStore;
+import org.ch2mpion.friendsystem.core.PlayerDataStore;
 import org.ch2mpion.friendsystem.core.PlayersManager;
+import org.ch2mpion.friendsystem.core.WriteAheadJournal;
 import org.ch2mpion.friendsystem.listeners.JoinEvent;
+import org.ch2mpion.friendsystem.listeners.PreLoginEvent;
 import org.ch2mpion.friendsystem.listeners.QuitEvent;
+import org.ch2mpion.friendsystem.metrics.MetricsMBean;
+import org.ch2mpion.friendsystem.metrics.MetricsRegistry;
+import org.ch2mpion.friendsystem.metrics.PrometheusEndpoint;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
  * Main plugin class for the FriendSystem.
@@ -28,9 +46,24 @@ public final class FriendSystem extends JavaPlugin {
     private static FriendSystem instance;
     // Manages player data, friend relationships (MongoDB), and in-memory friend requests
     private static PlayersManager playersManager;
-    // Manages the MongoDB connection
+    // Manages the MongoDB connection; null if player data is stored elsewhere
     private MongoDBManager mongoDBManager;
-    private ExecutorService asyncExecutor;
+    // Where player data is loaded from and written to
+    private PlayerDataStore store;
+    // One document per friendship, next to the embedded friend arrays; null if disabled
+    private FriendshipEdges friendships;
+    // Whether the store stands in for an unreachable MongoDB
+    private boolean degraded;
+    // Local record of changes not yet written to MongoDB; null if disabled
+    private WriteAheadJournal journal;
+    // Bounded, workload-partitioned thread pools for database work
+    private AsyncExecutors executors;
+    // Latencies, counters and gauges exposed via /friend stats, JMX and Prometheus
+    private MetricsRegistry metrics;
+    // Chat messages from messages.yml, compiled once
+    private MessageCatalog messages;
+    private MetricsMBean metricsMBean;
+    private PrometheusEndpoint prometheusEndpoint;
 
     /**
      * Translates '&' color codes to Minecraft's internal color codes.
@@ -47,78 +80,202 @@ public final class FriendSystem extends JavaPlugin {
     public void onEnable() {
         // Set the singleton instance
         instance = this;
-        this.asyncExecutor = Executors.newCachedThreadPool();
 
         // Save the default configuration file if it doesn't exist
         saveDefaultConfig();
+        this.messages = MessageCatalog.load(this);
 
-        // --- Database Initialization ---
-        setupMongoDB();
+        this.metrics = new MetricsRegistry();
+        this.executors = new AsyncExecutors(getConfig().getConfigurationSection("executors"), getLogger());
+        for (BoundedExecutor executor : new BoundedExecutor[]{executors.loads(), executors.background()}) {
+            metrics.gauge("executor_queue_depth", "executor", executor.getName(), executor::getQueueDepth);
+            metrics.gauge("executor_active", "executor", executor.getName(), executor::getActiveCount);
+            metrics.gauge("executor_rejected", "executor", executor.getName(), executor::getRejectedCount);
+        }
+
+        // --- Storage Initialization ---
+        store = setupStore();
 
-        // If MongoDB connection fails, disable the plugin
-        if (mongoDBManager == null || !mongoDBManager.isConnected()) {
-            getLogger().severe("Failed to connect to MongoDB! Disabling plugin.");
+        // Without a store (MongoDB unreachable and no fallback), disable the plugin
+        if (store == null) {
+            getLogger().severe("No player data store available! Disabling plugin.");
             getServer().getPluginManager().disablePlugin(this);
             return; // Stop plugin loading
         }
 
-        // Initialize PlayersManager, passing the MongoDBManager for friend relationships
-        // CRITICAL FIX: Pass mongoDBManager to PlayersManager constructor
-        playersManager = new PlayersManager(mongoDBManager);
+        // --- Write-Ahead Journal Recovery ---
+        // Changes a previous run could not save are written before anything else, so no newer write is overtaken
+        if (!setupJournal()) {
+            getLogger().severe("Unsaved changes in the write-ahead journal could not be replayed! Disabling plugin; they are kept for the next start.");
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
+
+        // Initialize PlayersManager with the store; the MongoDB connection (if any) enables migration and network sync
+        playersManager = new PlayersManager(store, mongoDBManager);
+        // Other servers' changes are applied from a separate thread, so only once the manager is fully built
+        playersManager.start();
 
         // --- Imperat Command Registration ---
-        // Build and register Imperat with the custom help provider
+        // Build and register Imperat with the custom help provider and the name completions
         BukkitImperat imperat = BukkitImperat.builder(this)
                 .helpProvider(new FriendHelpProvider())
+                .namedSuggestionResolver(NameSuggestionResolver.PLAYERS, new NameSuggestionResolver(NameSuggestionResolver.PLAYERS))
+                .namedSuggestionResolver(NameSuggestionResolver.FRIENDS, new NameSuggestionResolver(NameSuggestionResolver.FRIENDS))
+                .namedSuggestionResolver(NameSuggestionResolver.ONLINE_FRIENDS, new NameSuggestionResolver(NameSuggestionResolver.ONLINE_FRIENDS))
+                .namedSuggestionResolver(NameSuggestionResolver.REQUESTERS, new NameSuggestionResolver(NameSuggestionResolver.REQUESTERS))
                 .build();
         // Register all command classes
         imperat.registerCommands(new Friends(), new Messages());
 
         // --- Event Listener Registration ---
+        getServer().getPluginManager().registerEvents(new PreLoginEvent(), this);
         getServer().getPluginManager().registerEvents(new JoinEvent(), this);
         getServer().getPluginManager().registerEvents(new QuitEvent(), this);
 
+        // --- Metrics Exporters ---
+        setupMetricsExporters();
+
         // Log plugin enable success message
         getLogger().info(ChatColor.GREEN + "FriendSystem was enabled!");
 
-        // --- Scheduled Task for In-Memory Request Cleanup ---
+        // --- Scheduled Task for In-Memory Request Expiry ---
         // This task runs asynchronously to prevent server lag.
-        // It checks for and removes expired in-memory friend requests.
-        // Initial delay: 5 minutes (20 ticks/sec * 60 sec/min * 5 min = 6000 ticks)
-        // Repeat period: Every 20 minutes (20 ticks/sec * 60 sec/min * 20 min = 24000 ticks)
-        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
-            // Call the correct cleanup method in PlayersManager
-            playersManager.cleanUpExpiredRequests();
-        }, 20L * 60 * 5, 20L * 60 * 20);
+        // It advances the request expiry wheel once per expiry tick (1 second by default),
+        // so requests expire close to their deadline and only due requests are touched.
+        long expiryTicks = Math.max(1L, playersManager.getExpiryTickMillis() / 50L);
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> playersManager.cleanUpExpiredRequests(), expiryTicks, expiryTicks);
+
+        // --- Scheduled Task for Offline Cache Expiry ---
+        // Evicts offline players that have not been accessed recently. Runs every minute.
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> playersManager.cleanUpOfflineCache(), 20L * 60, 20L * 60);
+
+        // --- Scheduled Task for Network Presence ---
+        // Keeps this server's presence documents alive; they expire if the server stops without cleaning up.
+        long heartbeatTicks = 20L * Math.max(1L, getConfig().getLong("network.heartbeat-seconds", 30L));
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> playersManager.heartbeatPresence(), heartbeatTicks, heartbeatTicks);
+
+        // --- Scheduled Task for the Friendship Edge Collection ---
+        // Notices servers that write friend lists without maintaining the 'friendships' collection, or stamps this one as such. Runs every minute.
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> playersManager.checkFriendships(), 20L * 60, 20L * 60);
+
+        // --- Scheduled Task for Friend Notifications ---
+        // Sends friend online/offline announcements on the main thread, at most notifications.max-per-tick messages per tick.
+        FriendNotifier friendNotifier = playersManager.getFriendNotifier();
+        if (friendNotifier != null) {
+            getServer().getScheduler().runTaskTimer(this, friendNotifier::tick, 1L, 1L);
+        }
+
+        // --- Scheduled Task for Journaled Saves ---
+        // Saves that gave up (e.g. during a MongoDB outage) are queued again until they succeed.
+        if (journal != null) {
+            long redriveTicks = 20L * Math.max(1L, getConfig().getLong("persistence.journal.redrive-seconds", 5L));
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> playersManager.redriveJournal(), redriveTicks, redriveTicks);
+        }
     }
 
     @Override
     public void onDisable() {
-        // --- Database Shutdown ---
-        // Close the MongoDB connection if it was established
-        if (mongoDBManager != null) {
-            mongoDBManager.close();
+        // --- Flush Pending Writes ---
+        // The write-behind queue must be drained while the MongoDB connection is still open
+        if (playersManager != null) {
+            playersManager.shutdown();
         }
 
-        if (asyncExecutor != null) {
-            asyncExecutor.shutdown();
+        // Tasks still queued may save player data, so they run before the connection is closed
+        if (executors != null) {
             try {
-                if (!asyncExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
-                    getLogger().warning("Asynchronous executor did not terminate gracefully. Forcing shutdown.");
-                    asyncExecutor.shutdownNow();
-                    if (!asyncExecutor.awaitTermination(10, TimeUnit.SECONDS))
-                        getLogger().severe("Asynchronous executor did not terminate.");
+                if (!executors.shutdown(30, TimeUnit.SECONDS)) {
+                    getLogger().warning("Asynchronous executors did not terminate gracefully. Forced shutdown.");
                 }
             } catch (InterruptedException ie) {
-                asyncExecutor.shutdownNow();
                 Thread.currentThread().interrupt();
             }
         }
 
+        // --- Database Shutdown ---
+        if (store != null) {
+            store.close();
+        }
+        // Close the MongoDB connection if it was established
+        if (mongoDBManager != null) {
+            mongoDBManager.close();
+        }
+
+        // Unsaved changes stay in the journal and are replayed on the next start
+        if (journal != null) {
+            journal.close();
+        }
+
+        if (prometheusEndpoint != null) {
+            prometheusEndpoint.stop();
+        }
+        if (metricsMBean != null) {
+            metricsMBean.unregister();
+        }
+
         // Log plugin disable success message
         getLogger().info(ChatColor.RED + "FriendSystem was disabled!");
     }
 
+    /**
+     * Opens the configured player data store. If MongoDB cannot be reached, the configured fallback
+     * store is opened instead (degraded mode).
+     *
+     * @return The store, or null if none could be opened.
+     */
+    private PlayerDataStore setupStore() {
+        ConfigurationSection section = getConfig().getConfigurationSection("storage");
+        String type = section != null ? section.getString("type", "mongodb") : "mongodb";
+        if (!"mongodb".equalsIgnoreCase(type)) {
+            return openLocalStore(type, section);
+        }
+
+        setupMongoDB();
+        if (mongoDBManager.isConnected()) {
+            ConfigurationSection edges = getConfig().getConfigurationSection("friendships");
+            if (edges != null && edges.getBoolean("enabled", false)) {
+                friendships = new FriendshipEdges(mongoDBManager, getLogger(), edges.getInt("backfill-batch-size", 500));
+                friendships.createIndexes();
+            }
+            return new MongoPlayerDataStore(mongoDBManager, friendships);
+        }
+        getLogger().severe("Failed to connect to MongoDB!");
+        mongoDBManager.close();
+        mongoDBManager = null;
+
+        String fallback = section != null ? section.getString("fallback", "none") : "none";
+        if ("none".equalsIgnoreCase(fallback)) {
+            return null;
+        }
+        getLogger().warning("Running in degraded mode on the '" + fallback + "' store. Changes made now are not written to MongoDB, "
+                + "and network sync is disabled.");
+        degraded = true;
+        return openLocalStore(fallback, section);
+    }
+
+    // Opens the embedded file store or the in-memory store
+    private PlayerDataStore openLocalStore(String type, ConfigurationSection section) {
+        switch (type.toLowerCase(Locale.ROOT)) {
+            case "file":
+                FilePlayerDataStore fileStore = new FilePlayerDataStore(new File(getDataFolder(), "player-data.dat"), getLogger());
+                try {
+                    fileStore.open(1024 * 1024 * Math.max(1, section != null ? section.getInt("file.initial-size-mb", 16) : 16));
+                } catch (IOException e) {
+                    getLogger().log(Level.SEVERE, "Failed to open the player data file.", e);
+                    return null;
+                }
+                metrics.gauge("file_store_bytes", fileStore::getSizeBytes);
+                return fileStore;
+            case "memory":
+                getLogger().warning("Player data is kept in memory only and lost when the server stops.");
+                return new MemoryPlayerDataStore();
+            default:
+                getLogger().severe("Unknown storage type '" + type + "'. Use mongodb, file or memory.");
+                return null;
+        }
+    }
+
     /**
      * Initializes the MongoDB connection based on values from config.yml.
      */
@@ -128,7 +285,62 @@ public final class FriendSystem extends JavaPlugin {
         // Using "friendsDB" as default database name as per your previous code
         String dbName = config.getString("mongodb.database", "friendsDB");
 
-        this.mongoDBManager = new MongoDBManager(this, uri, dbName);
+        this.mongoDBManager = new MongoDBManager(this, uri, dbName, metrics);
+    }
+
+    /**
+     * Opens the write-ahead journal and replays what a previous run left unsaved.
+     * If the journal cannot be opened the plugin runs without it.
+     *
+     * @return false if unsaved changes exist but could not be replayed.
+     */
+    private boolean setupJournal() {
+        ConfigurationSection section = getConfig().getConfigurationSection("persistence.journal");
+        if (section != null && !section.getBoolean("enabled", true)) {
+            return true;
+        }
+        if (degraded) {
+            // Records left for MongoDB must not be replayed into the fallback store
+            getLogger().warning("The write-ahead journal is disabled in degraded mode.");
+            return true;
+        }
+        journal = new WriteAheadJournal(new File(getDataFolder(), "journal.dat"),
+                section != null && section.getBoolean("fsync", false), getLogger());
+        try {
+            journal.open(1024 * 1024 * Math.max(1, section != null ? section.getInt("size-mb", 16) : 16));
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Failed to open the write-ahead journal; changes are not journaled and the file is left as is.", e);
+            journal = null;
+            return true;
+        }
+        metrics.gauge("journal_bytes", journal::getSizeBytes);
+        metrics.gauge("journal_unsaved_players", journal::getUnsavedPlayerCount);
+        return journal.replay(store);
+    }
+
+    /**
+     * Exposes the metrics registry over JMX and, if enabled, on a local Prometheus endpoint.
+     */
+    private void setupMetricsExporters() {
+        ConfigurationSection section = getConfig().getConfigurationSection("metrics");
+
+        if (section == null || section.getBoolean("jmx", true)) {
+            metricsMBean = new MetricsMBean(metrics);
+            metricsMBean.register(getLogger());
+        }
+
+        if (section != null && section.getBoolean("prometheus.enabled", false)) {
+            String host = section.getString("prometheus.host", "127.0.0.1");
+            int port = section.getInt("prometheus.port", 9464);
+            prometheusEndpoint = new PrometheusEndpoint(metrics);
+            try {
+                prometheusEndpoint.start(host, port);
+                getLogger().info("Prometheus metrics available at http://" + host + ":" + port + "/metrics");
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Failed to start the Prometheus endpoint on " + host + ":" + port + ".", e);
+                prometheusEndpoint = null;
+            }
+        }
     }
 
     /**
@@ -149,8 +361,49 @@ public final class FriendSystem extends JavaPlugin {
         return instance;
     }
 
-    public ExecutorService getAsyncExecutor() {
-        return asyncExecutor;
+    /**
+     * Gets the plugin's asynchronous execution layer.
+     *
+     * @return The AsyncExecutors instance.
+     */
+    public AsyncExecutors getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Gets the write-ahead journal.
+     *
+     * @return The WriteAheadJournal instance, or null if journaling is disabled.
+     */
+    public WriteAheadJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Gets the 'friendships' edge collection.
+     *
+     * @return The FriendshipEdges instance, or null if it is disabled or the store is not MongoDB.
+     */
+    public FriendshipEdges getFriendships() {
+        return friendships;
+    }
+
+    /**
+     * Gets the plugin's metrics registry.
+     *
+     * @return The MetricsRegistry instance.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the catalog of chat messages.
+     *
+     * @return The MessageCatalog instance.
+     */
+    public MessageCatalog getMessages() {
+        return messages;
     }
 
 }
\ No newline at end of file
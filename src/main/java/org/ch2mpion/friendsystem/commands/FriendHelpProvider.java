@@ -1,18 +1,30 @@
 package org.ch2mpion.friendsystem.commands;
 
 import dev.velix.imperat.BukkitSource;
+import dev.velix.imperat.command.Command;
 import dev.velix.imperat.command.CommandUsage;
 import dev.velix.imperat.context.ExecutionContext;
 import dev.velix.imperat.exception.ImperatException;
 import dev.velix.imperat.exception.NoHelpException;
 import dev.velix.imperat.help.HelpProvider;
+import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.core.MessageCatalog;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
+/**
+ * Renders the help page of a command from the 'help' messages, e.g.
+ * {@code &a[+] &b/friend reject &e<player> &7- Reject a friend request.}
+ * The usages of a command do not change while the server runs, so each page is rendered once and cached.
+ */
 public final class FriendHelpProvider implements HelpProvider<BukkitSource> {
 
+    // Required <arguments> and optional [arguments] of a formatted usage
+    private static final Pattern ARGUMENT = Pattern.compile("<[^>]+>|\\[[^]]+]");
 
     @Override
     public void provide(ExecutionContext<BukkitSource> context, BukkitSource source) throws ImperatException {
@@ -24,31 +36,28 @@ public final class FriendHelpProvider implements HelpProvider<BukkitSource> {
             throw new NoHelpException();
         }
 
-        src.reply("&b&lFRIEND COMMANDS");
-        src.reply("&7--------------------------------------------");
-
-        for(var usage : cmd.usages()) {
-            //&7- Reject a friend request.
-            //&b/friend reject &e<player>
-
-            Pattern pattern = Pattern.compile("<player>");
-            String text = CommandUsage.format(cmd,usage);
-            Matcher matcher = pattern.matcher(text);
-
-            StringBuffer sb = new StringBuffer();
-
+        for (String line : FriendSystem.getInstance().getMessages().helpPage(cmd.name(), () -> render(cmd))) {
+            src.reply(line);
+        }
+    }
 
-            while(matcher.find()) {
-                matcher.appendReplacement(sb, "&e" + matcher.group() + "&b");
-                text = sb.toString();
+    private static List<String> render(Command<BukkitSource> cmd) {
+        MessageCatalog messages = FriendSystem.getInstance().getMessages();
+        List<String> lines = new ArrayList<>();
+        lines.add(messages.get("help.header"));
+        lines.add(messages.get("help.separator"));
+
+        for (var usage : cmd.usages()) {
+            Matcher matcher = ARGUMENT.matcher(CommandUsage.format(cmd, usage));
+            StringBuilder text = new StringBuilder();
+            while (matcher.find()) {
+                matcher.appendReplacement(text, Matcher.quoteReplacement(messages.get("help.argument", "argument", matcher.group())));
             }
-
-            src.reply("&a[+] &b/" + text + " &7- " + usage.description());
-
-
+            matcher.appendTail(text);
+            lines.add(messages.get("help.entry", "usage", text.toString(), "description", usage.description()));
         }
 
-        src.reply("&7--------------------------------------------");
-
+        lines.add(messages.get("help.separator"));
+        return lines;
     }
 }
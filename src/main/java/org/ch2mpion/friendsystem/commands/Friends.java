@@ -2,40 +2,58 @@ package org.ch2mpion.friendsystem.commands;
 
 import dev.velix.imperat.BukkitSource;
 import dev.velix.imperat.annotations.Command;
+import dev.velix.imperat.annotations.Default;
 import dev.velix.imperat.annotations.Description;
 import dev.velix.imperat.annotations.Named;
+import dev.velix.imperat.annotations.Optional;
+import dev.velix.imperat.annotations.Permission;
 import dev.velix.imperat.annotations.SubCommand;
+import dev.velix.imperat.annotations.SuggestionProvider;
 import dev.velix.imperat.annotations.Usage;
 import dev.velix.imperat.help.CommandHelp;
-import net.md_5.bungee.api.chat.ClickEvent;
-import net.md_5.bungee.api.chat.ComponentBuilder;
-import net.md_5.bungee.api.chat.HoverEvent;
+import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.TextComponent;
 import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.core.FriendGraph;
+import org.ch2mpion.friendsystem.core.FriendPage;
+import org.ch2mpion.friendsystem.core.MessageCatalog;
+import org.ch2mpion.friendsystem.core.NameResolver;
 import org.ch2mpion.friendsystem.core.PlayerData;
+import org.ch2mpion.friendsystem.core.PlayerSummary;
 import org.ch2mpion.friendsystem.core.PlayersManager;
 import org.ch2mpion.friendsystem.core.Request;
+import org.ch2mpion.friendsystem.core.RequestStore;
+import org.ch2mpion.friendsystem.metrics.MetricsRegistry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 @Command({"friend", "f", "fri"})
 public class Friends {
 
+    // /friend mutual lists this many names, then a count of the rest
+    private static final int MAX_MUTUAL_NAMES = 30;
+
     private final FriendSystem plugin;
     private final PlayersManager playersManager;
+    private final MetricsRegistry metrics;
+    private final MessageCatalog messages;
 
     public Friends() {
         this.plugin = FriendSystem.getInstance();
         this.playersManager = plugin.getPlayersManager();
+        this.metrics = plugin.getMetrics();
+        this.messages = plugin.getMessages();
     }
 
     @Usage
@@ -44,36 +62,65 @@ public class Friends {
         help.display(source);
     }
 
+    // Resolves a player name and loads that player's data, so friendship checks can use the cache.
+    // Completes with null if no player with that name has ever joined.
+    private CompletableFuture<LoadedTarget> resolveAndLoad(String name) {
+        return playersManager.resolvePlayer(name).thenCompose(target -> target == null
+                ? CompletableFuture.completedFuture(null)
+                : playersManager.loadPlayerData(target.getUuid(), target.getName()).thenApply(playerData -> new LoadedTarget(target, playerData)));
+    }
+
     @SubCommand("add")
     @Description("Send a friend request.")
-    public void add(Player sender, @Named("player") Player targetPlayer) {
+    public void add(Player sender, @Named("player") @SuggestionProvider(NameSuggestionResolver.PLAYERS) String targetName) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "add");
         UUID senderUuid = sender.getUniqueId();
-        UUID targetUuid = targetPlayer.getUniqueId();
 
-        if (senderUuid.equals(targetUuid)) {
-            sender.sendMessage(plugin.color("&cYou cannot send a friend request to yourself!"));
+        if (sender.getName().equalsIgnoreCase(targetName)) {
+            sender.sendMessage(messages.get("add.self"));
+            timer.stop();
             return;
         }
 
-        playersManager.loadPlayerData(targetUuid, targetPlayer.getName())
-                .thenAccept(targetPlayerData -> {
+        // Resolve the name without blocking (the target may be offline), then load the target's data
+        resolveAndLoad(targetName)
+                .thenAccept(target -> {
                     Bukkit.getScheduler().runTask(plugin, () -> { // Ensure messages are on main thread
+                        timer.stop();
+                        if (target == null) {
+                            sender.sendMessage(messages.get("common.never-joined", "player", targetName));
+                            return;
+                        }
+                        UUID targetUuid = target.getUuid();
+                        Player targetPlayer = Bukkit.getPlayer(targetUuid); // null if the target is offline
+
                         if (playersManager.areFriendsInCache(senderUuid, targetUuid)) {
-                            sender.sendMessage(plugin.color("&aYou are already friends with &b&l" + targetPlayer.getName() + "&a."));
+                            sender.sendMessage(messages.get("common.already-friends", "player", target.getName()));
                             return;
                         }
 
                         if (playersManager.hasIncomingRequest(senderUuid, targetUuid)) {
-                            sender.sendMessage(plugin.color("&7You have already sent a friend request to &b&l" + targetPlayer.getName() + "&7."));
+                            sender.sendMessage(messages.get("add.already-sent", "player", target.getName()));
                             return;
                         }
 
                         if (playersManager.hasIncomingRequest(targetUuid, senderUuid)) {
-                            sender.sendMessage(plugin.color("&a" + targetPlayer.getName() + " &7has already sent you a friend request. &aAccepting now!"));
-                            targetPlayer.sendMessage(plugin.color("&a" + sender.getName() + " &7has accepted your friend request! You are now friends!"));
-
+                            // The target's data may have left the offline cache since it was loaded; it is passed along
+                            PlayersManager.FriendChange change = playersManager.addFriend(senderUuid, null, targetUuid, target.getData());
+                            if (change == PlayersManager.FriendChange.NOT_LOADED) {
+                                sender.sendMessage(messages.get("common.accept-failed"));
+                                return;
+                            }
                             playersManager.removeRequest(targetUuid, senderUuid);
-                            playersManager.addFriend(senderUuid, targetUuid);
+                            if (change == PlayersManager.FriendChange.UNCHANGED) {
+                                sender.sendMessage(messages.get("common.already-friends", "player", target.getName()));
+                                return;
+                            }
+
+                            sender.sendMessage(messages.get("add.auto-accepting", "player", target.getName()));
+                            if (targetPlayer != null) {
+                                targetPlayer.sendMessage(messages.get("add.auto-accepted", "player", sender.getName()));
+                            }
 
                             CompletableFuture.allOf(
                                     playersManager.savePlayerData(senderUuid),
@@ -81,282 +128,464 @@ public class Friends {
                             ).exceptionally(e -> {
                                 plugin.getLogger().log(Level.SEVERE, "Failed to auto-accept friend request and save data: " + e.getMessage(), e);
                                 Bukkit.getScheduler().runTask(plugin, () ->
-                                        sender.sendMessage(plugin.color("&cAn error occurred while accepting request. Please try again.")));
+                                        sender.sendMessage(messages.get("common.accept-failed")));
                                 return null;
                             });
                             return;
                         }
 
-                        playersManager.addRequest(senderUuid, targetUuid);
-                        sender.sendMessage(plugin.color("&aYou sent a friend request to &b" + targetPlayer.getName() + "&a."));
-
-                        TextComponent message = new TextComponent(plugin.color("&a" + sender.getName() + " &7has sent you a friend request! "));
-                        TextComponent acceptButton = new TextComponent(plugin.color("&a&l[ACCEPT]"));
-                        acceptButton.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/friend accept " + sender.getName()));
-                        acceptButton.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new ComponentBuilder(plugin.color("&aClick to accept request from " + sender.getName())).create()));
-                        TextComponent separator = new TextComponent(plugin.color(" &7| "));
-                        TextComponent rejectButton = new TextComponent(plugin.color("&c&l[REJECT]"));
-                        rejectButton.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/friend reject " + sender.getName()));
-                        rejectButton.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new ComponentBuilder(plugin.color("&cClick to reject request from " + sender.getName())).create()));
-
-                        message.addExtra(acceptButton);
-                        message.addExtra(separator);
-                        message.addExtra(rejectButton);
+                        RequestStore.AddResult result = playersManager.addRequest(senderUuid, targetUuid);
+                        if (result == RequestStore.AddResult.OUTGOING_LIMIT_REACHED) {
+                            sender.sendMessage(messages.get("add.too-many-requests", "max", String.valueOf(playersManager.getMaxOutgoingRequests())));
+                            return;
+                        }
+                        if (result == RequestStore.AddResult.DUPLICATE) {
+                            sender.sendMessage(messages.get("add.already-sent", "player", target.getName()));
+                            return;
+                        }
+                        if (targetPlayer == null) {
+                            // Requests live in memory; an offline player sees it in /friend requests if they join before it expires
+                            sender.sendMessage(messages.get("add.sent-offline", "player", target.getName()));
+                            return;
+                        }
+                        sender.sendMessage(messages.get("add.sent", "player", target.getName()));
 
-                        targetPlayer.spigot().sendMessage(message);
+                        targetPlayer.spigot().sendMessage(requestMessage("request.received", sender.getName()));
                     });
                 }).exceptionally(e -> {
-                    plugin.getLogger().log(Level.SEVERE, "Error in /friend add command for " + sender.getName() + " to " + targetPlayer.getName() + ": " + e.getMessage(), e);
+                    timer.stop();
+                    plugin.getLogger().log(Level.SEVERE, "Error in /friend add command for " + sender.getName() + " to " + targetName + ": " + e.getMessage(), e);
                     Bukkit.getScheduler().runTask(plugin, () ->
-                            sender.sendMessage(plugin.color("&cAn internal error occurred. Please try again later.")));
+                            sender.sendMessage(messages.get("common.internal-error")));
                     return null;
                 });
     }
 
     @SubCommand({"remove","rem"})
     @Description("Remove a friend.")
-    public void remove(Player sender, @Named("player") OfflinePlayer targetPlayer) {
+    public void remove(Player sender, @Named("player") @SuggestionProvider(NameSuggestionResolver.FRIENDS) String targetName) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "remove");
         UUID senderUuid = sender.getUniqueId();
-        UUID targetUuid = targetPlayer.getUniqueId();
-        String targetName = targetPlayer.getName() != null ? targetPlayer.getName() : targetUuid.toString().substring(0, 8);
 
-        playersManager.loadPlayerData(targetUuid, targetName)
-                .thenAccept(targetPlayerData -> {
+        resolveAndLoad(targetName)
+                .thenAccept(target -> {
                     Bukkit.getScheduler().runTask(plugin, () -> {
-                        if (!playersManager.areFriendsInCache(senderUuid, targetUuid)) {
-                            sender.sendMessage(plugin.color("&cYou are not friends with &b&l" + targetName + "&c."));
+                        timer.stop();
+                        if (target == null) {
+                            sender.sendMessage(messages.get("common.not-friends", "player", targetName));
                             return;
                         }
+                        UUID targetUuid = target.getUuid();
 
-                        playersManager.removeFriend(senderUuid, targetUuid);
+                        // The target's data may have left the offline cache since it was loaded; it is passed along
+                        PlayersManager.FriendChange change = playersManager.removeFriend(senderUuid, null, targetUuid, target.getData());
+                        if (change == PlayersManager.FriendChange.NOT_LOADED) {
+                            sender.sendMessage(messages.get("remove.failed"));
+                            return;
+                        }
+                        if (change == PlayersManager.FriendChange.UNCHANGED) {
+                            sender.sendMessage(messages.get("common.not-friends", "player", target.getName()));
+                            return;
+                        }
 
                         CompletableFuture.allOf(
                                 playersManager.savePlayerData(senderUuid),
                                 playersManager.savePlayerData(targetUuid)
                         ).thenRun(() -> {
                             Bukkit.getScheduler().runTask(plugin, () -> {
-                                sender.sendMessage(plugin.color("&aYou removed &b" + targetName + " &afrom your friend list."));
-                                if (targetPlayer.isOnline()) {
-                                    targetPlayer.getPlayer().sendMessage(plugin.color("&7" + sender.getName() + " &c has removed you from their friend list."));
+                                sender.sendMessage(messages.get("remove.removed", "player", target.getName()));
+                                Player targetPlayer = Bukkit.getPlayer(targetUuid);
+                                if (targetPlayer != null) {
+                                    targetPlayer.sendMessage(messages.get("remove.removed-target", "player", sender.getName()));
                                 }
                             });
                         }).exceptionally(e -> {
                             plugin.getLogger().log(Level.SEVERE, "Failed to remove friend and save data: " + e.getMessage(), e);
                             Bukkit.getScheduler().runTask(plugin, () ->
-                                    sender.sendMessage(plugin.color("&cAn error occurred while removing friend. Please try again.")));
+                                    sender.sendMessage(messages.get("remove.failed")));
                             return null;
                         });
                     });
                 }).exceptionally(e -> {
+                    timer.stop();
                     plugin.getLogger().log(Level.SEVERE, "Error in /friend remove command for " + sender.getName() + " to " + targetName + ": " + e.getMessage(), e);
                     Bukkit.getScheduler().runTask(plugin, () ->
-                            sender.sendMessage(plugin.color("&cAn internal error occurred. Please try again later.")));
+                            sender.sendMessage(messages.get("common.internal-error")));
                     return null;
                 });
     }
 
     @SubCommand({"accept","acc"})
     @Description("Accept a friend request.")
-    public void accept(Player sender, @Named("player") Player targetPlayer) {
+    public void accept(Player sender, @Named("player") @SuggestionProvider(NameSuggestionResolver.REQUESTERS) Player targetPlayer) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "accept");
         UUID senderUuid = sender.getUniqueId();
         UUID targetUuid = targetPlayer.getUniqueId();
 
         playersManager.loadPlayerData(targetUuid, targetPlayer.getName())
                 .thenAccept(targetPlayerData -> {
                     Bukkit.getScheduler().runTask(plugin, () -> {
+                        timer.stop();
                         if (!playersManager.hasIncomingRequest(targetUuid, senderUuid)) {
-                            sender.sendMessage(plugin.color("&cYou don't have a pending friend request from &b&l" + targetPlayer.getName() + "&c."));
+                            sender.sendMessage(messages.get("common.no-request-from", "player", targetPlayer.getName()));
                             return;
                         }
 
                         if (playersManager.areFriendsInCache(senderUuid, targetUuid)) {
-                            sender.sendMessage(plugin.color("&aYou are already friends with &b&l" + targetPlayer.getName() + "&a."));
+                            sender.sendMessage(messages.get("common.already-friends", "player", targetPlayer.getName()));
                             return;
                         }
 
+                        PlayersManager.FriendChange change = playersManager.addFriend(senderUuid, null, targetUuid, targetPlayerData);
+                        if (change == PlayersManager.FriendChange.NOT_LOADED) {
+                            sender.sendMessage(messages.get("common.accept-failed"));
+                            return;
+                        }
                         playersManager.removeRequest(targetUuid, senderUuid);
-                        playersManager.addFriend(senderUuid, targetUuid);
+                        if (change == PlayersManager.FriendChange.UNCHANGED) {
+                            sender.sendMessage(messages.get("common.already-friends", "player", targetPlayer.getName()));
+                            return;
+                        }
 
                         CompletableFuture.allOf(
                                 playersManager.savePlayerData(senderUuid),
                                 playersManager.savePlayerData(targetUuid)
                         ).thenRun(() -> {
                             Bukkit.getScheduler().runTask(plugin, () -> {
-                                sender.sendMessage(plugin.color("&aYou are now friends with &b" + targetPlayer.getName() + "&a!"));
-                                targetPlayer.sendMessage(plugin.color("&a" + sender.getName() + " &7accepted your friend request! You are now friends!"));
+                                sender.sendMessage(messages.get("accept.accepted", "player", targetPlayer.getName()));
+                                targetPlayer.sendMessage(messages.get("accept.accepted-target", "player", sender.getName()));
                             });
                         }).exceptionally(e -> {
                             plugin.getLogger().log(Level.SEVERE, "Failed to accept friend request and save data: " + e.getMessage(), e);
                             Bukkit.getScheduler().runTask(plugin, () ->
-                                    sender.sendMessage(plugin.color("&cAn error occurred while accepting request. Please try again.")));
+                                    sender.sendMessage(messages.get("common.accept-failed")));
                             return null;
                         });
                     });
                 }).exceptionally(e -> {
+                    timer.stop();
                     plugin.getLogger().log(Level.SEVERE, "Error in /friend accept command for " + sender.getName() + " from " + targetPlayer.getName() + ": " + e.getMessage(), e);
                     Bukkit.getScheduler().runTask(plugin, () ->
-                            sender.sendMessage(plugin.color("&cAn internal error occurred. Please try again later.")));
+                            sender.sendMessage(messages.get("common.internal-error")));
                     return null;
                 });
     }
 
     @SubCommand({"reject","rej"})
     @Description("Reject a friend request.")
-    public void reject(Player sender, @Named("player") OfflinePlayer targetPlayer) {
+    public void reject(Player sender, @Named("player") @SuggestionProvider(NameSuggestionResolver.REQUESTERS) String targetName) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "reject");
         UUID senderUuid = sender.getUniqueId();
-        UUID targetUuid = targetPlayer.getUniqueId();
-        String targetName = targetPlayer.getName() != null ? targetPlayer.getName() : targetUuid.toString().substring(0, 8);
 
-        playersManager.loadPlayerData(targetUuid, targetName)
-                .thenAccept(targetPlayerData -> {
+        // Only the requester's UUID is needed; their data does not change
+        playersManager.resolvePlayer(targetName)
+                .thenAccept(target -> {
                     Bukkit.getScheduler().runTask(plugin, () -> {
-                        if (!playersManager.hasIncomingRequest(targetUuid, senderUuid)) {
-                            sender.sendMessage(plugin.color("&cYou don't have a pending friend request from &b&l" + targetName + "&c."));
+                        timer.stop();
+                        if (target == null || !playersManager.hasIncomingRequest(target.getUuid(), senderUuid)) {
+                            sender.sendMessage(messages.get("common.no-request-from", "player", targetName));
                             return;
                         }
+                        UUID targetUuid = target.getUuid();
 
                         boolean removed = playersManager.removeRequest(targetUuid, senderUuid);
 
                         if (removed) {
-                            sender.sendMessage(plugin.color("&7You have rejected &b&l" + targetName + "&7's friend request."));
-                            if (targetPlayer.isOnline()) {
-                                targetPlayer.getPlayer().sendMessage(plugin.color("&7Your friend request to &b&l" + sender.getName() + "&7 has been &cRejected&7."));
+                            sender.sendMessage(messages.get("reject.rejected", "player", target.getName()));
+                            Player targetPlayer = Bukkit.getPlayer(targetUuid);
+                            if (targetPlayer != null) {
+                                targetPlayer.sendMessage(messages.get("reject.rejected-target", "player", sender.getName()));
                             }
                         } else {
-                            sender.sendMessage(plugin.color("&cFailed to reject friend request. It might have already expired or been removed."));
+                            sender.sendMessage(messages.get("reject.failed"));
                         }
                     });
                 }).exceptionally(e -> {
+                    timer.stop();
                     plugin.getLogger().log(Level.SEVERE, "Error in /friend reject command for " + sender.getName() + " from " + targetName + ": " + e.getMessage(), e);
                     Bukkit.getScheduler().runTask(plugin, () ->
-                            sender.sendMessage(plugin.color("&cAn internal error occurred. Please try again later.")));
+                            sender.sendMessage(messages.get("common.internal-error")));
                     return null;
                 });
     }
 
     @SubCommand("list")
     @Description("View your friend list.")
-    public void list(Player sender) {
-        PlayerData senderPD = playersManager.getPlayerData(sender.getUniqueId());
+    public void list(Player sender, @Named("page") @Optional @Default("1") Integer page) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "list");
+        UUID senderUuid = sender.getUniqueId();
+        int pageSize = Math.max(1, plugin.getConfig().getInt("list.page-size", 10));
 
-        if (senderPD == null) {
-            sender.sendMessage(plugin.color("&cYour player data could not be loaded. Please relog."));
+        // Sliced from the order kept by the online friends index; only the friends on the page are loaded
+        FriendPage friendPage = playersManager.getOrderedFriendPage(senderUuid, page != null ? page - 1 : 0, pageSize);
+        if (friendPage == null) {
+            sender.sendMessage(messages.get("common.data-not-loaded"));
+            timer.stop();
             return;
         }
 
-        List<UUID> friendUuids = senderPD.getFriends();
+        int total = friendPage.getTotal();
+        int pages = Math.max(1, (total + pageSize - 1) / pageSize);
+        int current = Math.min(Math.max(1, page != null ? page : 1), pages);
+        String online = String.valueOf(Math.max(0, playersManager.getOnlineFriendCount(senderUuid)));
+        String header = pages > 1
+                ? messages.get("list.header-paged", "online", online, "total", String.valueOf(total), "page", String.valueOf(current), "pages", String.valueOf(pages))
+                : messages.get("list.header", "online", online, "total", String.valueOf(total));
+
+        if (total == 0) {
+            sender.sendMessage(header);
+            sender.sendMessage(messages.get("common.separator"));
+            sender.sendMessage(messages.get("list.empty"));
+            sender.sendMessage(messages.get("common.separator"));
+            timer.stop();
+            return;
+        }
 
-        sender.sendMessage(plugin.color("&b&lYOUR FRIENDS &7(" + friendUuids.size() + ")"));
-        sender.sendMessage(plugin.color("&7------------------------------------------"));
+        List<UUID> friendUuids = friendPage.getFriends();
+        playersManager.loadSummaries(friendUuids)
+                .thenAccept(friendsData -> Bukkit.getScheduler().runTask(plugin, () -> {
+                    timer.stop();
+                    // The whole page is one chat message, so long lists do not flood the client
+                    StringBuilder body = new StringBuilder(header).append('\n').append(messages.get("common.separator"));
+                    for (UUID friendUUID : friendUuids) {
+                        body.append('\n').append(formatFriend(friendUUID, friendsData.get(friendUUID)));
+                    }
+                    List<BaseComponent> message = new ArrayList<>();
+                    message.add(new TextComponent(body.toString()));
+                    if (pages > 1) {
+                        message.addAll(Arrays.asList(navigation(current, pages)));
+                    }
+                    message.add(new TextComponent("\n" + messages.get("common.separator")));
+                    sender.spigot().sendMessage(message.toArray(new BaseComponent[0]));
+                }))
+                .exceptionally(e -> {
+                    timer.stop();
+                    plugin.getLogger().log(Level.SEVERE, "Error loading friend list for " + sender.getName() + ": " + e.getMessage(), e);
+                    Bukkit.getScheduler().runTask(plugin, () -> {
+                        sender.sendMessage(header);
+                        sender.sendMessage(messages.get("common.separator"));
+                        sender.sendMessage(messages.get("list.error"));
+                        sender.sendMessage(messages.get("common.separator"));
+                    });
+                    return null;
+                });
+    }
 
-        if (friendUuids.isEmpty()) {
-            sender.sendMessage(plugin.color("&7You don't have any friends yet! Use &b/friend add &e<player> &7to make new friends!"));
-            sender.sendMessage(plugin.color("&7------------------------------------------")); // Send bottom separator immediately if no friends
-        } else {
-            List<CompletableFuture<Void>> friendLoadFutures = new ArrayList<>();
+    // One line of /friend list
+    private String formatFriend(UUID friendUUID, PlayerSummary friendSummary) {
+        if (friendSummary == null) {
+            return messages.get("list.unknown", "player", friendUUID.toString().substring(0, 8));
+        }
+        String friendName = friendSummary.getName();
+        if (!friendSummary.isOnline()) {
+            return messages.get("list.offline", "player", friendName, "last-seen", friendSummary.getLastSeen());
+        }
+        Player onlineFriend = Bukkit.getPlayer(friendUUID);
+        if (onlineFriend != null && onlineFriend.isOnline() && onlineFriend.getWorld() != null) {
+            return messages.get("list.online-world", "player", friendName, "world", onlineFriend.getWorld().getName());
+        } else if (friendSummary.getServer() != null) {
+            return messages.get("list.online-server", "player", friendName, "server", friendSummary.getServer());
+        }
+        return messages.get("list.online", "player", friendName);
+    }
 
-            for (UUID friendUUID : friendUuids) {
-                CompletableFuture<Void> future = playersManager.loadPlayerData(friendUUID, null)
-                        .thenAccept(friendPD -> {
-                            Bukkit.getScheduler().runTask(plugin, () -> {
-                                String friendName = friendPD.getName();
-                                String lastSeenStatus = friendPD.getLastSeen();
-                                String location = "";
-
-                                if (friendPD.isOnline()) {
-                                    Player onlineFriend = Bukkit.getPlayer(friendUUID);
-                                    if (onlineFriend != null && onlineFriend.isOnline() && onlineFriend.getWorld() != null) {
-                                        String worldName = onlineFriend.getWorld().getName();
-
-                                        location = " &7at &e" + worldName;
-                                    }
-                                    sender.sendMessage(plugin.color("&a" + friendName + " &a[ONLINE]" + location));
-                                } else {
-                                    sender.sendMessage(plugin.color("&7" + friendName + " &c[OFFLINE] &7Last seen: &f" + lastSeenStatus));
-                                }
-                            });
-                        })
-                        .exceptionally(e -> {
-                            plugin.getLogger().log(Level.SEVERE, "Error loading data for friend " + friendUUID + " for " + sender.getName() + ": " + e.getMessage(), e);
-                            Bukkit.getScheduler().runTask(plugin, () ->
-                                    sender.sendMessage(plugin.color("&cError: Could not load data for a friend.")));
-                            return null;
-                        });
-                friendLoadFutures.add(future);
-            }
+    // The page switches of /friend list
+    private BaseComponent[] navigation(int current, int pages) {
+        return new BaseComponent[]{
+                new TextComponent("\n"),
+                current > 1
+                        ? messages.button("list.previous", "list.page-hover", "/friend list " + (current - 1), "page", String.valueOf(current - 1))
+                        : messages.component("list.previous-disabled"),
+                messages.component("list.page", "page", String.valueOf(current), "pages", String.valueOf(pages)),
+                current < pages
+                        ? messages.button("list.next", "list.page-hover", "/friend list " + (current + 1), "page", String.valueOf(current + 1))
+                        : messages.component("list.next-disabled")};
+    }
 
-            CompletableFuture.allOf(friendLoadFutures.toArray(new CompletableFuture[0]))
-                    .whenComplete((v, ex) -> {
-                        Bukkit.getScheduler().runTask(plugin, () -> {
-                            if (ex != null) {
-                                plugin.getLogger().log(Level.SEVERE, "One or more friend data loads completed exceptionally: " + ex.getMessage(), ex);
-                            }
-                            sender.sendMessage(plugin.color("&7------------------------------------------"));
-                        });
-                    });
-        }
+    // A request message with accept and reject buttons for one requester
+    private BaseComponent[] requestMessage(String key, String requesterName) {
+        return new BaseComponent[]{
+                messages.component(key, "player", requesterName),
+                messages.button("request.accept-button", "request.accept-hover", "/friend accept " + requesterName, "player", requesterName),
+                messages.component("request.button-separator"),
+                messages.button("request.reject-button", "request.reject-hover", "/friend reject " + requesterName, "player", requesterName)};
     }
 
     @SubCommand({"requests","req"})
     @Description("View pending friend requests.")
     public void requests(Player sender) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "requests");
         UUID senderUuid = sender.getUniqueId();
-        Set<Request> incomingRequests = playersManager.getRequests(senderUuid);
+        Collection<Request> incomingRequests = playersManager.getRequests(senderUuid);
 
-        sender.sendMessage(plugin.color("&b&lYOUR FRIEND REQUESTS &7(" + incomingRequests.size() + ")"));
-        sender.sendMessage(plugin.color("&7------------------------------------------"));
+        sender.sendMessage(messages.get("requests.header", "count", String.valueOf(incomingRequests.size())));
+        sender.sendMessage(messages.get("common.separator"));
 
         if (incomingRequests.isEmpty()) {
-            sender.sendMessage(plugin.color("&7You have no pending friend requests."));
-            sender.sendMessage(plugin.color("&7------------------------------------------")); // Send separator immediately
-        } else {
-            List<CompletableFuture<Void>> requestDisplayFutures = new ArrayList<>();
+            sender.sendMessage(messages.get("requests.empty"));
+            sender.sendMessage(messages.get("common.separator")); // Send separator immediately
+            timer.stop();
+            return;
+        }
+
+        List<UUID> requesterUuids = incomingRequests.stream()
+                .map(Request::getRequester)
+                .collect(Collectors.toList());
+
+        // Load summaries of all requesters in one bulk query to get their names, then render everything at once
+        playersManager.loadSummaries(requesterUuids)
+                .thenAccept(requestersData -> Bukkit.getScheduler().runTask(plugin, () -> {
+                    timer.stop();
+                    for (UUID requesterUuid : requesterUuids) {
+                        PlayerSummary requesterSummary = requestersData.get(requesterUuid);
+                        if (requesterSummary == null) {
+                            sender.sendMessage(messages.get("requests.entry-error"));
+                            continue;
+                        }
+                        sender.spigot().sendMessage(requestMessage("requests.entry", requesterSummary.getName()));
+                    }
+                    sender.sendMessage(messages.get("common.separator"));
+                }))
+                .exceptionally(e -> {
+                    timer.stop();
+                    plugin.getLogger().log(Level.SEVERE, "Error loading requester data for requests list for " + sender.getName() + ": " + e.getMessage(), e);
+                    Bukkit.getScheduler().runTask(plugin, () -> {
+                        sender.sendMessage(messages.get("requests.error"));
+                        sender.sendMessage(messages.get("common.separator"));
+                    });
+                    return null;
+                });
+    }
+
+    @SubCommand("suggest")
+    @Description("Find players you may know.")
+    public void suggest(Player sender) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "suggest");
+        int limit = Math.max(1, plugin.getConfig().getInt("graph.suggestions", 5));
+
+        // Ranked from the in-memory friend graph, then one bulk query for the names
+        playersManager.suggestFriends(sender.getUniqueId(), limit)
+                .thenCompose(suggestions -> playersManager.loadSummaries(suggestions.stream().map(FriendGraph.Suggestion::getUuid).collect(Collectors.toList()))
+                        .thenAccept(summaries -> Bukkit.getScheduler().runTask(plugin, () -> {
+                            timer.stop();
+                            sender.sendMessage(messages.get("suggest.header"));
+                            sender.sendMessage(messages.get("common.separator"));
+                            int shown = 0;
+                            for (FriendGraph.Suggestion suggestion : suggestions) {
+                                PlayerSummary summary = summaries.get(suggestion.getUuid());
+                                if (summary == null) {
+                                    continue; // No document; never shown by name
+                                }
+                                String name = summary.getName();
+                                int mutual = suggestion.getMutualFriends();
+                                sender.spigot().sendMessage(
+                                        mutual == 1
+                                                ? messages.component("suggest.entry-one", "player", name)
+                                                : messages.component("suggest.entry", "player", name, "mutual", String.valueOf(mutual)),
+                                        messages.button("suggest.add-button", "suggest.add-hover", "/friend add " + name, "player", name));
+                                shown++;
+                            }
+                            if (shown == 0) {
+                                sender.sendMessage(messages.get("suggest.empty"));
+                            }
+                            sender.sendMessage(messages.get("common.separator"));
+                        })))
+                .exceptionally(e -> {
+                    timer.stop();
+                    plugin.getLogger().log(Level.SEVERE, "Error in /friend suggest command for " + sender.getName() + ": " + e.getMessage(), e);
+                    Bukkit.getScheduler().runTask(plugin, () ->
+                            sender.sendMessage(messages.get("common.internal-error")));
+                    return null;
+                });
+    }
 
-            for (Request request : incomingRequests) {
-                UUID requesterUuid = request.getRequester();
+    @SubCommand("mutual")
+    @Description("View the friends you share with a player.")
+    public void mutual(Player sender, @Named("player") @SuggestionProvider(NameSuggestionResolver.PLAYERS) String targetName) {
+        MetricsRegistry.Timer timer = metrics.startTimer("command", "command", "mutual");
+        UUID senderUuid = sender.getUniqueId();
 
-                // Load PlayerData to get the requester's name
-                CompletableFuture<Void> future = playersManager.loadPlayerData(requesterUuid, null)
-                        .thenAccept(requesterPD -> {
-                            Bukkit.getScheduler().runTask(plugin, () -> { // Schedule message on main thread
-                                String requesterName = requesterPD.getName();
+        playersManager.resolvePlayer(targetName)
+                .thenCompose(target -> {
+                    if (target == null) {
+                        Bukkit.getScheduler().runTask(plugin, () -> {
+                            timer.stop();
+                            sender.sendMessage(messages.get("common.never-joined", "player", targetName));
+                        });
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return playersManager.getMutualFriends(senderUuid, target.getUuid())
+                            .thenCompose(mutual -> playersManager.loadSummaries(mutual)
+                                    .thenAccept(summaries -> Bukkit.getScheduler().runTask(plugin, () -> {
+                                        timer.stop();
+                                        sender.sendMessage(messages.get("mutual.header", "player", target.getName().toUpperCase(Locale.ROOT), "count", String.valueOf(mutual.size())));
+                                        sender.sendMessage(messages.get("common.separator"));
+                                        if (mutual.isEmpty()) {
+                                            sender.sendMessage(messages.get("mutual.empty", "player", target.getName()));
+                                        } else {
+                                            String names = mutual.stream()
+                                                    .limit(MAX_MUTUAL_NAMES)
+                                                    .map(uuid -> summaries.containsKey(uuid) ? summaries.get(uuid).getName() : uuid.toString().substring(0, 8))
+                                                    .collect(Collectors.joining(messages.get("mutual.names-separator")));
+                                            sender.sendMessage(mutual.size() > MAX_MUTUAL_NAMES
+                                                    ? messages.get("mutual.names-more", "names", names, "more", String.valueOf(mutual.size() - MAX_MUTUAL_NAMES))
+                                                    : messages.get("mutual.names", "names", names));
+                                        }
+                                        sender.sendMessage(messages.get("common.separator"));
+                                    })));
+                })
+                .exceptionally(e -> {
+                    timer.stop();
+                    plugin.getLogger().log(Level.SEVERE, "Error in /friend mutual command for " + sender.getName() + " and " + targetName + ": " + e.getMessage(), e);
+                    Bukkit.getScheduler().runTask(plugin, () ->
+                            sender.sendMessage(messages.get("common.internal-error")));
+                    return null;
+                });
+    }
 
-                                TextComponent message = new TextComponent(plugin.color("&7From: &b" + requesterName + " "));
-                                TextComponent acceptButton = new TextComponent(plugin.color("&a&l[ACCEPT]"));
-                                acceptButton.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/friend accept " + requesterName));
-                                acceptButton.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new ComponentBuilder(plugin.color("&aClick to accept request from " + requesterName)).create()));
+    @SubCommand("stats")
+    @Permission("friendsystem.stats")
+    @Description("View runtime metrics.")
+    public void stats(BukkitSource source) {
+        source.reply(messages.get("stats.header"));
+        source.reply(messages.get("common.separator"));
 
-                                TextComponent separator = new TextComponent(plugin.color(" &7| "));
+        source.reply(messages.get("stats.latencies"));
+        metrics.forEachHistogram((key, histogram) -> source.reply(messages.get("stats.latency", "metric", key.toString(),
+                "count", String.valueOf(histogram.getCount()),
+                "p50", String.format(Locale.ROOT, "%.1f", histogram.getPercentile(0.50, TimeUnit.MILLISECONDS)),
+                "p99", String.format(Locale.ROOT, "%.1f", histogram.getPercentile(0.99, TimeUnit.MILLISECONDS)),
+                "max", String.format(Locale.ROOT, "%.1f", histogram.getMax(TimeUnit.MILLISECONDS)))));
 
-                                TextComponent rejectButton = new TextComponent(plugin.color("&c&l[REJECT]"));
-                                rejectButton.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/friend reject " + requesterName));
-                                rejectButton.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new ComponentBuilder(plugin.color("&cClick to reject request from " + requesterName)).create()));
+        source.reply(messages.get("stats.counters"));
+        metrics.forEachCounter((key, value) -> source.reply(messages.get("stats.counter", "metric", key.toString(), "value", String.valueOf(value))));
 
-                                message.addExtra(acceptButton);
-                                message.addExtra(separator);
-                                message.addExtra(rejectButton);
+        source.reply(messages.get("stats.gauges"));
+        metrics.forEachGauge((key, value) -> source.reply(messages.get("stats.gauge", "metric", key.toString(), "value", String.format(Locale.ROOT, "%.2f", value))));
 
-                                sender.spigot().sendMessage(message);
-                            });
-                        }).exceptionally(e -> {
-                            plugin.getLogger().log(Level.SEVERE, "Error loading requester data for requests list for " + sender.getName() + ": " + e.getMessage(), e);
-                            Bukkit.getScheduler().runTask(plugin, () ->
-                                    sender.sendMessage(plugin.color("&cError: Could not load details for a pending request.")));
-                            return null;
-                        });
-                requestDisplayFutures.add(future);
-            }
+        source.reply(messages.get("common.separator"));
+    }
 
-            // Wait for all request details to be displayed before sending the final separator
-            CompletableFuture.allOf(requestDisplayFutures.toArray(new CompletableFuture[0]))
-                    .whenComplete((v, ex) -> {
-                        Bukkit.getScheduler().runTask(plugin, () -> {
-                            if (ex != null) {
-                                plugin.getLogger().log(Level.SEVERE, "One or more request display tasks failed: " + ex.getMessage(), ex);
-                            }
-                            sender.sendMessage(plugin.color("&7------------------------------------------")); // THIS LINE IS NOW SENT LAST
-                        });
-                    });
+    // A resolved player together with the data loaded for them
+    private static final class LoadedTarget {
+        private final NameResolver.ResolvedPlayer player;
+        private final PlayerData data;
+
+        private LoadedTarget(NameResolver.ResolvedPlayer player, PlayerData data) {
+            this.player = player;
+            this.data = data;
+        }
+
+        private UUID getUuid() {
+            return player.getUuid();
+        }
+
+        private String getName() {
+            return player.getName();
+        }
+
+        private PlayerData getData() {
+            return data;
         }
     }
-}
\ No newline at end of file
+}
@@ -3,9 +3,11 @@ package org.ch2mpion.friendsystem.commands;
 import dev.velix.imperat.annotations.Command;
 import dev.velix.imperat.annotations.Greedy;
 import dev.velix.imperat.annotations.Named;
+import dev.velix.imperat.annotations.SuggestionProvider;
 import dev.velix.imperat.annotations.Usage;
 import org.bukkit.entity.Player;
 import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.core.MessageCatalog;
 import org.ch2mpion.friendsystem.core.PlayerData; // Make sure this import is present
 import org.ch2mpion.friendsystem.core.PlayersManager; // Make sure this import is present
 import java.util.UUID; // Make sure this import is present
@@ -18,16 +20,17 @@ public class Messages {
     // instead of calling getInstance() every time within the methods.
     private final FriendSystem plugin = FriendSystem.getInstance();
     private final PlayersManager playersManager = plugin.getPlayersManager();
+    private final MessageCatalog messages = plugin.getMessages();
 
 
     @Usage
     public void usage(Player sender){ // Renamed 'p' to 'sender' for clarity
-        // Using plugin.color() for consistent styling
-        sender.sendMessage(plugin.color("&eUsage: &b/msg <friend> <message>"));
+        // Messages come pre-colored from the message catalog
+        sender.sendMessage(messages.get("msg.usage"));
     }
 
     @Usage
-    public void message(Player sender, @Named("friend") Player receiver, @Greedy @Named("message") String text) {
+    public void message(Player sender, @Named("friend") @SuggestionProvider(NameSuggestionResolver.ONLINE_FRIENDS) Player receiver, @Greedy @Named("message") String text) {
 
         // Get sender's PlayerData from the manager's cache.
         // For an online player, their data should always be loaded.
@@ -35,28 +38,29 @@ public class Messages {
 
         // Basic check, though senderData should usually not be null for an online player.
         if (senderData == null) {
-            sender.sendMessage(plugin.color("&cYour player data could not be loaded. Please relog."));
+            sender.sendMessage(messages.get("common.data-not-loaded"));
             return;
         }
 
         // Check if the sender is friends with the receiver.
         // This relies on the in-memory friend list in PlayerData.
-        if (senderData.getFriends().contains(receiver.getUniqueId())) {
+        if (senderData.isFriend(receiver.getUniqueId())) {
 
             // --- Message for the RECEIVER (the friend) ---
             // Example: [PM] Ch2mpion -> You: Hello there!
-            String messageToReceiver = plugin.color("&9[PM] &b" + sender.getName() + " &7-> &f" + text);
+            // The text is inserted as typed; color codes in it are not translated
+            String messageToReceiver = messages.get("msg.to-receiver", "player", sender.getName(), "message", text);
             receiver.sendMessage(messageToReceiver);
 
             // --- Confirmation message for the SENDER ---
             // Example: [PM] You -> OtherPlayer: Hello there!
-            String confirmationToSender = plugin.color("&9[PM] &7You &b-> " + receiver.getName() + ": &f" + text);
+            String confirmationToSender = messages.get("msg.to-sender", "player", receiver.getName(), "message", text);
             sender.sendMessage(confirmationToSender);
 
         } else {
             // If they are not friends
-            sender.sendMessage(plugin.color("&cYou are not friends with &b" + receiver.getName() + "&c!"));
-            sender.sendMessage(plugin.color("&7You can only send private messages to players on your friend list."));
+            sender.sendMessage(messages.get("msg.not-friends", "player", receiver.getName()));
+            sender.sendMessage(messages.get("msg.friends-only"));
         }
     }
 
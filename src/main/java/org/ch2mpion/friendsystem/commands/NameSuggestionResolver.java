@@ -0,0 +1,81 @@
+package org.ch2mpion.friendsystem.commands;
+
+import dev.velix.imperat.BukkitSource;
+import dev.velix.imperat.command.parameters.CommandParameter;
+import dev.velix.imperat.context.SuggestionContext;
+import dev.velix.imperat.resolvers.SuggestionResolver;
+import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.core.PlayersManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Suggests player names from the in-memory prefix indexes of {@link PlayersManager}.
+ * A keypress never queries MongoDB or scans a player list; only names starting with the typed
+ * prefix are visited. Register one instance per kind as a named suggestion resolver and
+ * reference it with {@code @SuggestionProvider}.
+ */
+public final class NameSuggestionResolver implements SuggestionResolver<BukkitSource> {
+
+    // --- Resolver Names ---
+    public static final String PLAYERS = "players";
+    public static final String FRIENDS = "friends";
+    public static final String ONLINE_FRIENDS = "online-friends";
+    public static final String REQUESTERS = "requesters";
+
+    // Chat shows only a handful of completions anyway
+    private static final int MAX_SUGGESTIONS = 50;
+
+    private final String kind;
+
+    /**
+     * Constructs a new NameSuggestionResolver.
+     *
+     * @param kind One of {@link #PLAYERS}, {@link #FRIENDS}, {@link #ONLINE_FRIENDS} or {@link #REQUESTERS}.
+     */
+    public NameSuggestionResolver(String kind) {
+        this.kind = kind;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    @Override
+    public Collection<String> autoComplete(SuggestionContext<BukkitSource> context, CommandParameter<BukkitSource> parameter) {
+        PlayersManager playersManager = FriendSystem.getInstance().getPlayersManager();
+        BukkitSource source = context.source();
+        if (playersManager == null) {
+            return Collections.emptyList();
+        }
+        String prefix = context.getArgToComplete().value();
+        if (prefix == null) {
+            prefix = "";
+        }
+
+        switch (kind) {
+            case PLAYERS:
+                return playersManager.completeOnlineNames(prefix, MAX_SUGGESTIONS);
+            case FRIENDS:
+            case ONLINE_FRIENDS:
+                return source.isConsole() ? Collections.emptyList()
+                        : playersManager.completeFriendNames(source.uuid(), prefix, MAX_SUGGESTIONS, kind.equals(ONLINE_FRIENDS));
+            case REQUESTERS:
+                return source.isConsole() ? Collections.emptyList()
+                        : playersManager.completeRequesterNames(source.uuid(), prefix, MAX_SUGGESTIONS);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Completes immediately on the calling thread: the lookup is an in-memory range scan,
+     * cheaper than handing it to another thread.
+     */
+    @Override
+    public CompletableFuture<Collection<String>> asyncAutoComplete(SuggestionContext<BukkitSource> context, CommandParameter<BukkitSource> parameter) {
+        return CompletableFuture.completedFuture(autoComplete(context, parameter));
+    }
+}
@@ -0,0 +1,91 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The plugin's asynchronous execution layer.
+ * Work is partitioned by workload so that a stalled database cannot starve latency-critical
+ * reads with background writes (or the other way around):
+ * <ul>
+ *     <li>{@link #loads()} - latency-critical reads triggered by joins and commands.</li>
+ *     <li>{@link #background()} - saves, flushes and other maintenance work.</li>
+ * </ul>
+ * Both pools are bounded in threads and queue depth and are configured in the {@code executors} section.
+ */
+public class AsyncExecutors {
+
+    private final BoundedExecutor loadExecutor;
+    private final BoundedExecutor backgroundExecutor;
+
+    /**
+     * Constructs the execution layer from the {@code executors} configuration section.
+     *
+     * @param section The configuration section, may be null to use defaults.
+     * @param logger The logger used to report the chosen setup.
+     */
+    public AsyncExecutors(ConfigurationSection section, Logger logger) {
+        boolean virtualThreads = section != null && section.getBoolean("virtual-threads", false);
+        if (virtualThreads && Runtime.version().feature() < 21) {
+            logger.warning("Virtual threads require Java 21+. Falling back to platform thread pools.");
+            virtualThreads = false;
+        }
+
+        this.loadExecutor = create("load", section != null ? section.getConfigurationSection("load") : null,
+                8, 256, BoundedExecutor.RejectionPolicy.ABORT, virtualThreads);
+        this.backgroundExecutor = create("background", section != null ? section.getConfigurationSection("background") : null,
+                2, 1024, BoundedExecutor.RejectionPolicy.CALLER_RUNS, virtualThreads);
+
+        logger.info("Async executors ready (" + (virtualThreads ? "virtual" : "platform") + " threads).");
+    }
+
+    private static BoundedExecutor create(String name, ConfigurationSection section, int defaultThreads, int defaultQueue,
+                                          BoundedExecutor.RejectionPolicy defaultPolicy, boolean virtualThreads) {
+        int threads = section != null ? section.getInt("threads", defaultThreads) : defaultThreads;
+        int queueCapacity = section != null ? section.getInt("queue-capacity", defaultQueue) : defaultQueue;
+        BoundedExecutor.RejectionPolicy policy = defaultPolicy;
+        if (section != null && section.getString("rejection-policy") != null) {
+            try {
+                policy = BoundedExecutor.RejectionPolicy.valueOf(section.getString("rejection-policy").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+                // Keep the default for unknown values
+            }
+        }
+        return new BoundedExecutor(name, threads, queueCapacity, policy, virtualThreads);
+    }
+
+    /**
+     * Gets the executor for latency-critical loads (joins, commands, lookups).
+     *
+     * @return The load executor.
+     */
+    public BoundedExecutor loads() {
+        return loadExecutor;
+    }
+
+    /**
+     * Gets the executor for background work (saves, flushes, maintenance).
+     *
+     * @return The background executor.
+     */
+    public BoundedExecutor background() {
+        return backgroundExecutor;
+    }
+
+    /**
+     * Shuts down both pools, waiting for queued work to finish.
+     *
+     * @param timeout The maximum time to wait per pool.
+     * @param unit The unit of the timeout.
+     * @return true if both pools terminated in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean loadsTerminated = loadExecutor.shutdown(timeout, unit);
+        boolean backgroundTerminated = backgroundExecutor.shutdown(timeout, unit);
+        return loadsTerminated && backgroundTerminated;
+    }
+}
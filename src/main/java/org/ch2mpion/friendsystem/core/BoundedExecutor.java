@@ -0,0 +1,214 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bukkit.Bukkit;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An executor with a fixed concurrency limit and a bounded queue.
+ * Backed either by a platform thread pool or, on Java 21+, by virtual threads gated by a semaphore.
+ * When the queue is full the configured {@link RejectionPolicy} decides what happens to the task.
+ */
+public class BoundedExecutor implements Executor {
+
+    /**
+     * What to do with a task when the executor is saturated.
+     */
+    public enum RejectionPolicy {
+        /** Fail the task; futures created through {@link #supply(Supplier)} complete exceptionally. */
+        ABORT,
+        /** Run the task on the submitting thread, unless that is the server main thread (then ABORT). */
+        CALLER_RUNS
+    }
+
+    private final String name;
+    private final int concurrency;
+    private final int queueCapacity;
+    private final RejectionPolicy rejectionPolicy;
+
+    private final ExecutorService delegate;
+    // Only used for virtual threads, where the pool itself does not bound concurrency
+    private final Semaphore permits;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs a new BoundedExecutor.
+     *
+     * @param name The pool name, used as thread name prefix.
+     * @param concurrency The maximum number of tasks running at once.
+     * @param queueCapacity The maximum number of tasks waiting to run.
+     * @param rejectionPolicy What to do when both limits are reached.
+     * @param virtualThreads Whether to use virtual threads (ignored below Java 21).
+     */
+    public BoundedExecutor(String name, int concurrency, int queueCapacity, RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+        this.name = name;
+        this.concurrency = Math.max(1, concurrency);
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.rejectionPolicy = rejectionPolicy;
+
+        ExecutorService virtualExecutor = virtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.delegate = virtualExecutor;
+            this.permits = new Semaphore(this.concurrency);
+        } else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "FriendSystem-" + name + "-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(this.concurrency, this.concurrency, 30L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, this.queueCapacity)), threadFactory,
+                    (runnable, executor) -> {
+                        throw new RejectedExecutionException(name + " executor queue is full");
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            this.delegate = pool;
+            this.permits = null;
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+, while we compile for 17
+    private static ExecutorService createVirtualThreadExecutor() {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (queued.incrementAndGet() > queueCapacity + (permits != null ? 0 : concurrency)) {
+            queued.decrementAndGet();
+            reject(task);
+            return;
+        }
+        try {
+            delegate.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            reject(task);
+        }
+    }
+
+    private void run(Runnable task) {
+        boolean acquired = false;
+        try {
+            if (permits != null) {
+                permits.acquire();
+                acquired = true;
+            }
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            queued.decrementAndGet();
+            Thread.currentThread().interrupt();
+        } finally {
+            if (acquired) {
+                permits.release();
+            }
+        }
+    }
+
+    private void reject(Runnable task) {
+        rejected.increment();
+        if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !Bukkit.isPrimaryThread() && !delegate.isShutdown()) {
+            task.run();
+            return;
+        }
+        throw new RejectedExecutionException(name + " executor is saturated (" + queued.get() + " queued, " + active.get() + " active)");
+    }
+
+    /**
+     * Runs a supplier on this executor. Unlike {@link CompletableFuture#supplyAsync(Supplier, Executor)},
+     * a rejected task never throws on the caller; the returned future completes exceptionally instead.
+     *
+     * @param supplier The task to run.
+     * @param <T> The result type.
+     * @return A CompletableFuture with the supplier's result.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, this);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Stops accepting tasks and waits for running and queued tasks to finish.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return true if the executor terminated in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        delegate.shutdown();
+        if (delegate.awaitTermination(timeout, unit)) {
+            return true;
+        }
+        delegate.shutdownNow();
+        return false;
+    }
+
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of tasks waiting for a free thread.
+     *
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        return Math.max(0, queued.get());
+    }
+
+    /**
+     * Gets the number of tasks currently running.
+     *
+     * @return The active task count.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Gets the total number of tasks that were rejected because the executor was saturated.
+     *
+     * @return The rejected task count.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,282 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BSONException;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows the changes other servers make to 'player_data' and 'player_presence' through one
+ * database-level change stream, on a dedicated thread.
+ * <p>
+ * The stream filters on the server: writes tagged with this server's id (see {@link PlayerDelta#toWriteModels(String)})
+ * and presence heartbeats are never sent, and player documents are trimmed to the fields the caches use.
+ * After a network error the stream resumes from the last resume token. If that is impossible (the oplog rolled over,
+ * or the stream was invalidated), it starts over and the listener rebuilds its caches.
+ * <p>
+ * Change streams need a replica set; a single-node replica set is enough.
+ */
+public class ChangeStreamWatcher {
+
+    /**
+     * Receives the changes of player documents made by other servers, and presence changes. Called on the watcher thread.
+     */
+    public interface Listener {
+
+        /**
+         * A player's document was changed or deleted by another server.
+         *
+         * @param playerUuid The UUID of the player.
+         * @param document The document after the change (name, last_seen_millis, friends and version only), or null if it was deleted.
+         */
+        void onPlayerDataChanged(UUID playerUuid, Document document);
+
+        /**
+         * A player's presence changed on any server, after it was applied to the {@link PresenceRegistry}.
+         *
+         * @param playerUuid The UUID of the player.
+         */
+        void onPresenceChanged(UUID playerUuid);
+
+        /**
+         * Changes may have been missed; cached documents must be refreshed or evicted.
+         */
+        void onResync();
+    }
+
+    // --- MongoDB Error Codes ---
+    private static final int NOT_A_REPLICA_SET = 40573;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final int INVALID_RESUME_TOKEN = 260;
+
+    private static final long MAX_BACKOFF_MILLIS = 30_000L;
+
+    private final MongoDBManager mongoDBManager;
+    private final PresenceRegistry presence;
+    private final Listener listener;
+    private final Logger logger;
+    private final String serverId;
+
+    private volatile boolean running;
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+    private Thread thread;
+    private BsonDocument resumeToken; // Only used by the watcher thread
+
+    /**
+     * Constructs a new ChangeStreamWatcher.
+     *
+     * @param mongoDBManager The MongoDB manager.
+     * @param presence The presence registry that receives presence changes.
+     * @param listener The listener that receives player document changes.
+     * @param logger The logger used to report stream errors.
+     * @param serverId The id this server tags its writes with.
+     */
+    public ChangeStreamWatcher(MongoDBManager mongoDBManager, PresenceRegistry presence, Listener listener,
+                               Logger logger, String serverId) {
+        this.mongoDBManager = mongoDBManager;
+        this.presence = presence;
+        this.listener = listener;
+        this.logger = logger;
+        this.serverId = serverId;
+    }
+
+    /**
+     * Starts watching on a new daemon thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "FriendSystem-ChangeStream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching and waits briefly for the watcher thread to end. Must be called before the MongoDB client is closed.
+     */
+    public synchronized void stop() {
+        running = false;
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> current = cursor;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (Exception ignored) {
+                // The thread may be using it; it exits on the next check anyway
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private List<Bson> pipeline() {
+        Bson playerData = Filters.and(Filters.eq("ns.coll", "player_data"), Filters.or(
+                Filters.eq("operationType", "delete"),
+                Filters.and(Filters.in("operationType", "insert", "replace"), Filters.ne("fullDocument.last_write.server", serverId)),
+                // last_write changes on every tagged write, so it is always among the updated fields
+                Filters.and(Filters.eq("operationType", "update"), Filters.ne("updateDescription.updatedFields.last_write.server", serverId))));
+        // Heartbeats are updates; only joins (insert/replace) and quits or expiries (delete) matter
+        Bson presenceChange = Filters.and(Filters.eq("ns.coll", PresenceRegistry.COLLECTION),
+                Filters.in("operationType", "insert", "replace", "delete"));
+        Bson lifecycle = Filters.in("operationType", "invalidate", "drop", "dropDatabase", "rename");
+
+        return List.of(
+                Aggregates.match(Filters.or(playerData, presenceChange, lifecycle)),
+                Aggregates.project(Projections.include("operationType", "ns", "documentKey",
+                        "fullDocument.name", "fullDocument.last_seen_millis", "fullDocument.friends", "fullDocument.version", "fullDocument.server")));
+    }
+
+    private void run() {
+        long backoffMillis = 1000L;
+        while (running) {
+            try {
+                watch();
+                backoffMillis = 1000L;
+            } catch (MongoCommandException e) {
+                if (!running) {
+                    return;
+                }
+                if (e.getErrorCode() == NOT_A_REPLICA_SET) {
+                    logger.severe("MongoDB is not a replica set, so change streams are unavailable. Presence and friend lists "
+                            + "changed on other servers will not be seen. A single-node replica set is enough "
+                            + "(start mongod with --replSet and run rs.initiate() once).");
+                    running = false;
+                    return;
+                }
+                if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST || e.getErrorCode() == INVALID_RESUME_TOKEN
+                        || e.hasErrorLabel("NonResumableChangeStreamError")) {
+                    resumeToken = null; // Start over and resync
+                }
+                logger.warning("Change stream failed (" + e.getErrorCode() + "): " + e.getErrorMessage() + ". Retrying.");
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.log(Level.WARNING, "Change stream failed: " + e.getMessage() + ". Retrying.", e);
+            }
+
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+        }
+    }
+
+    // Follows the stream until it is stopped, invalidated or fails
+    private void watch() {
+        MongoDatabase database = mongoDBManager.isConnected() ? mongoDBManager.getMongoDatabase() : null;
+        if (database == null) {
+            throw new IllegalStateException("MongoDB not connected.");
+        }
+
+        ChangeStreamIterable<Document> stream = database.watch(pipeline())
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        boolean resuming = resumeToken != null;
+        if (resuming) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> opened = stream.cursor()) {
+            cursor = opened;
+            if (!resuming) {
+                // The stream is open before the snapshot is read, so nothing between the two is missed
+                presence.loadSnapshot();
+                listener.onResync();
+                logger.info("Watching player data and presence changes of other servers.");
+            }
+
+            while (running) {
+                ChangeStreamDocument<Document> change = opened.tryNext();
+                if (change == null) {
+                    // Idle: keep the post-batch token so a resume does not replay filtered-out events
+                    BsonDocument token = opened.getResumeToken();
+                    if (token != null) {
+                        resumeToken = token;
+                    }
+                    continue;
+                }
+                if (!dispatch(change)) {
+                    resumeToken = null;
+                    logger.warning("Change stream was invalidated (" + change.getOperationType() + "). Restarting.");
+                    return;
+                }
+                resumeToken = change.getResumeToken();
+            }
+        } finally {
+            cursor = null;
+        }
+    }
+
+    // Applies one change. Returns false if the stream was invalidated and must be restarted.
+    private boolean dispatch(ChangeStreamDocument<Document> change) {
+        OperationType type = change.getOperationType();
+        if (type == OperationType.INVALIDATE || type == OperationType.DROP
+                || type == OperationType.DROP_DATABASE || type == OperationType.RENAME) {
+            return false;
+        }
+
+        UUID playerUuid = idOf(change.getDocumentKey());
+        if (playerUuid == null || change.getNamespace() == null) {
+            return true;
+        }
+        Document document = type == OperationType.DELETE ? null : change.getFullDocument();
+        try {
+            if (PresenceRegistry.COLLECTION.equals(change.getNamespace().getCollectionName())) {
+                presence.apply(playerUuid, document != null ? document.getString("server") : null);
+                listener.onPresenceChanged(playerUuid);
+            } else {
+                // An update whose document was deleted before the lookup also arrives without a document
+                listener.onPlayerDataChanged(playerUuid, document);
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to apply change of " + playerUuid + ": " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    // Reads a player UUID from a document key in either schema
+    private static UUID idOf(BsonDocument documentKey) {
+        BsonValue id = documentKey != null ? documentKey.get("_id") : null;
+        if (id == null) {
+            return null;
+        }
+        try {
+            if (id.isBinary()) {
+                return id.asBinary().asUuid();
+            }
+            if (id.isString()) {
+                return UUID.fromString(id.asString().getValue());
+            }
+        } catch (IllegalArgumentException | BSONException ignored) {
+            // Not a player document
+        }
+        return null;
+    }
+}
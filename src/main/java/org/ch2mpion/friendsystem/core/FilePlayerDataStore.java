@@ -0,0 +1,365 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded, single-server backend: a memory-mapped, log-structured file of BSON documents.
+ * <p>
+ * Every write appends the player's whole new document; an in-memory index points at the latest record of
+ * every player, so a load is one decode straight from the mapping. A second index maps lower-cased names to
+ * players for name lookups. Superseded records are dropped by compaction, which rewrites the live records
+ * to a new file that atomically replaces the old one once more than half of the file is garbage.
+ * <p>
+ * Record layout: {@code int length, int crc32, BSON document}. A length of 0 marks the end of the log;
+ * a torn record at the end (crash during a write) is discarded when the file is opened.
+ * Writes survive a crash of the server process; the mapping is forced to disk on compaction and close.
+ * <p>
+ * Thread-safe; every method is synchronized on the instance.
+ */
+public class FilePlayerDataStore implements PlayerDataStore {
+
+    private static final int MAGIC = 0x46534431; // "FSD1"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8; // length + crc
+    // Files smaller than this are never compacted
+    private static final int MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    // Encodes UUIDs as binary subtype 4, like the MongoDB client
+    private static final Codec<Document> CODEC = CodecRegistries
+            .withUuidRepresentation(MongoClientSettings.getDefaultCodecRegistry(), UuidRepresentation.STANDARD)
+            .get(Document.class);
+
+    private final File file;
+    private final Logger logger;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position = HEADER_SIZE;
+    private long liveBytes;
+
+    // Player -> offset of their latest record
+    private final Map<UUID, Integer> offsets = new HashMap<>();
+    // Player -> current name, and lower-cased name -> players with that name
+    private final Map<UUID, String> nameOf = new HashMap<>();
+    private final Map<String, Set<UUID>> playersByName = new HashMap<>();
+
+    /**
+     * Constructs a new FilePlayerDataStore. Nothing is opened until {@link #open(int)}.
+     *
+     * @param file The data file.
+     * @param logger The logger used to report recovery and compaction.
+     */
+    public FilePlayerDataStore(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Opens or creates the data file, maps it and builds the indexes.
+     *
+     * @param initialSizeBytes The size of a new file; an existing larger file keeps its size.
+     * @throws IOException If the file cannot be created, mapped or is not a player data file.
+     */
+    public synchronized void open(int initialSizeBytes) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        boolean exists = file.length() > 0;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int size = (int) Math.max(Math.max(HEADER_SIZE * 2, initialSizeBytes), Math.min(Integer.MAX_VALUE, channel.size()));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (!exists) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(HEADER_SIZE, 0);
+            return;
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            channel.close();
+            buffer = null;
+            throw new IOException(file + " is not a FriendSystem player data file.");
+        }
+
+        int players = scan();
+        logger.info("Opened " + file.getName() + ": " + players + " players, " + position + " bytes.");
+    }
+
+    // Rebuilds the indexes from the records; the latest record of every player wins. Returns the player count.
+    private int scan() {
+        int offset = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(offset + RECORD_HEADER_SIZE, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                logger.warning("Discarding a torn record at the end of " + file.getName() + ".");
+                break;
+            }
+            index(decode(body), offset, RECORD_HEADER_SIZE + length);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        position = offset;
+        buffer.putInt(position, 0);
+        return offsets.size();
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public synchronized boolean isAvailable() {
+        return buffer != null;
+    }
+
+    @Override
+    public synchronized Document load(UUID playerUuid) {
+        Integer offset = offsets.get(playerUuid);
+        return offset != null ? read(offset) : null;
+    }
+
+    @Override
+    public synchronized Map<UUID, Document> loadAll(Collection<UUID> playerUuids, Collection<String> fields) {
+        Map<UUID, Document> found = new HashMap<>();
+        for (UUID playerUuid : playerUuids) {
+            Integer offset = offsets.get(playerUuid);
+            if (offset != null) {
+                found.put(playerUuid, read(offset));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized Document findByName(String name) {
+        Set<UUID> players = playersByName.get(name.toLowerCase(Locale.ROOT));
+        if (players == null) {
+            return null;
+        }
+        Document best = null;
+        long bestLastSeen = Long.MIN_VALUE;
+        for (UUID playerUuid : players) {
+            Document document = read(offsets.get(playerUuid));
+            Long lastSeen = document.getLong("last_seen_millis");
+            if (best == null || (lastSeen != null && lastSeen > bestLastSeen)) {
+                best = document;
+                bestLastSeen = lastSeen != null ? lastSeen : Long.MIN_VALUE;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public synchronized void save(Document document) {
+        write(document);
+    }
+
+    @Override
+    public synchronized WriteResult applyDeltas(List<PlayerDelta> deltas, String serverId) {
+        Set<UUID> conflicted = new HashSet<>();
+        Set<UUID> failed = new HashSet<>();
+        String error = null;
+        for (PlayerDelta delta : deltas) {
+            UUID playerUuid = delta.getPlayerUuid();
+            if (delta.isEmpty() || conflicted.contains(playerUuid) || failed.contains(playerUuid)) {
+                continue;
+            }
+            try {
+                Document updated = delta.applyTo(load(playerUuid), serverId, true);
+                if (updated == null) {
+                    conflicted.add(playerUuid);
+                } else {
+                    write(updated);
+                }
+            } catch (RuntimeException e) {
+                failed.add(playerUuid);
+                error = error != null ? error : e.getMessage();
+            }
+        }
+        return conflicted.isEmpty() && failed.isEmpty() ? WriteResult.SUCCESS : new WriteResult(conflicted, failed, error);
+    }
+
+    @Override
+    public synchronized void replay(List<PlayerDelta> deltas) {
+        for (PlayerDelta delta : deltas) {
+            if (!delta.isEmpty()) {
+                write(delta.applyTo(load(delta.getPlayerUuid()), null, false));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("Failed to close " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized int getSizeBytes() {
+        return position;
+    }
+
+    // Appends a document as the player's latest record
+    private void write(Document document) {
+        if (buffer == null) {
+            throw new IllegalStateException(file.getName() + " is closed.");
+        }
+        byte[] body = encode(document);
+        int length = RECORD_HEADER_SIZE + body.length;
+        try {
+            if (position + length + 4 > buffer.capacity()) {
+                makeRoom(length + 4);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        buffer.putInt(position + length, 0); // The end marker goes first, so a torn record is never followed by stale ones
+        buffer.put(position + RECORD_HEADER_SIZE, body);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, body.length);
+        index(document, position, length);
+        position += length;
+    }
+
+    // Points the indexes at a player's latest record
+    private void index(Document document, int offset, int length) {
+        UUID playerUuid = PlayerDataMigrator.toUuid(document.get("_id"));
+        Integer previous = offsets.put(playerUuid, offset);
+        if (previous != null) {
+            liveBytes -= RECORD_HEADER_SIZE + buffer.getInt(previous);
+        }
+        liveBytes += length;
+
+        String name = document.getString("name");
+        String previousName = name != null ? nameOf.put(playerUuid, name) : nameOf.get(playerUuid);
+        if (previousName != null && !previousName.equalsIgnoreCase(name != null ? name : previousName)) {
+            Set<UUID> players = playersByName.get(previousName.toLowerCase(Locale.ROOT));
+            if (players != null && players.remove(playerUuid) && players.isEmpty()) {
+                playersByName.remove(previousName.toLowerCase(Locale.ROOT));
+            }
+        }
+        if (name != null) {
+            playersByName.computeIfAbsent(name.toLowerCase(Locale.ROOT), key -> new HashSet<>(1)).add(playerUuid);
+        }
+    }
+
+    private Document read(int offset) {
+        byte[] body = new byte[buffer.getInt(offset)];
+        buffer.get(offset + RECORD_HEADER_SIZE, body);
+        return decode(body);
+    }
+
+    // Compacts the file if most of it is garbage, and grows it if the live records still leave too little room
+    private void makeRoom(int needed) throws IOException {
+        int size = sizeFor(HEADER_SIZE + (int) liveBytes + needed);
+        if (position < MIN_COMPACTION_BYTES || liveBytes * 2 > position - HEADER_SIZE || !compact(size)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(position + needed));
+        }
+    }
+
+    // Rewrites the latest record of every player to a new file and swaps it in. Returns false if the swap failed.
+    private boolean compact(int size) throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        Files.deleteIfExists(compacted.toPath());
+        FileChannel newChannel = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            newBuffer.putInt(0, MAGIC);
+            Map<UUID, Integer> newOffsets = new HashMap<>(offsets.size() * 2);
+            int newPosition = HEADER_SIZE;
+            for (Map.Entry<UUID, Integer> entry : offsets.entrySet()) {
+                int length = RECORD_HEADER_SIZE + buffer.getInt(entry.getValue());
+                byte[] record = new byte[length];
+                buffer.get(entry.getValue(), record);
+                newBuffer.put(newPosition, record);
+                newOffsets.put(entry.getKey(), newPosition);
+                newPosition += length;
+            }
+            newBuffer.putInt(newPosition, 0);
+            newBuffer.force();
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            logger.fine("Compacted " + file.getName() + " from " + position + " to " + newPosition + " bytes.");
+            channel.close();
+            channel = newChannel;
+            buffer = newBuffer;
+            position = newPosition;
+            offsets.putAll(newOffsets);
+            return true;
+        } catch (IOException e) {
+            // Some platforms cannot replace a mapped file; keep the garbage and grow the current file instead
+            newChannel.close();
+            Files.deleteIfExists(compacted.toPath());
+            logger.fine("Could not compact " + file.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // The current capacity, doubled until it holds the given number of bytes
+    private int sizeFor(int bytes) throws IOException {
+        long size = buffer.capacity();
+        while (size < bytes) {
+            size *= 2;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file.getName() + " is full.");
+        }
+        return (int) size;
+    }
+
+    private static byte[] encode(Document document) {
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(out), document, EncoderContext.builder().build());
+        return out.toByteArray();
+    }
+
+    private static Document decode(byte[] body) {
+        return CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(body)), DecoderContext.builder().build());
+    }
+}
@@ -0,0 +1,397 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * An undirected graph of the friend lists loaded on this server, for mutual friend and
+ * friend-of-friend queries without reading any other player's data.
+ * <p>
+ * Every player in a loaded friend list gets a compact int id; adjacency lists are int arrays indexed by id.
+ * Queries mark the asking player's friends in a bitset and then walk the other adjacency lists,
+ * so an intersection costs one bit test per visited friend.
+ * <p>
+ * The graph is the union of the friend lists of <i>loaded</i> players. A player who is not loaded only
+ * has the edges that loaded players' lists contain; when a player is unloaded, edges no longer backed
+ * by any loaded list are dropped and ids of players left without edges are reused.
+ * <p>
+ * All methods are synchronized; queries are bounded by the number of adjacency entries they visit.
+ */
+public class FriendGraph {
+
+    private static final int[] NO_NEIGHBORS = new int[0];
+    // More mutual friends first, then by UUID
+    private static final Comparator<Suggestion> RANKING = Comparator.comparingInt(Suggestion::getMutualFriends).reversed()
+            .thenComparing(Suggestion::getUuid, FriendshipEdges.ORDER);
+
+    /**
+     * A suggested player and the number of friends they share with the asking player.
+     */
+    public static final class Suggestion {
+
+        private final UUID uuid;
+        private final int mutualFriends;
+
+        private Suggestion(UUID uuid, int mutualFriends) {
+            this.uuid = uuid;
+            this.mutualFriends = mutualFriends;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public int getMutualFriends() {
+            return mutualFriends;
+        }
+    }
+
+    private final Map<UUID, Integer> idsByUuid = new HashMap<>();
+    private UUID[] uuids = new UUID[64];
+    private int[][] neighbors = new int[64][];
+    private int[] degrees = new int[64];
+    // Players whose own friend list is in the graph
+    private long[] loaded = new long[1];
+    // Ids below this have been handed out; freed ones are reused first
+    private int idCount;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private long edgeCount;
+    // Per-id counters of suggest(), all zero between calls
+    private int[] counts = new int[64];
+
+    // --- Ids ---
+
+    private int idOf(UUID uuid) {
+        Integer id = idsByUuid.get(uuid);
+        if (id != null) {
+            return id;
+        }
+        int newId = freeCount > 0 ? freeIds[--freeCount] : idCount++;
+        if (newId >= uuids.length) {
+            int capacity = uuids.length * 2;
+            uuids = Arrays.copyOf(uuids, capacity);
+            neighbors = Arrays.copyOf(neighbors, capacity);
+            degrees = Arrays.copyOf(degrees, capacity);
+            loaded = Arrays.copyOf(loaded, (capacity + 63) >>> 6);
+        }
+        uuids[newId] = uuid;
+        neighbors[newId] = NO_NEIGHBORS;
+        degrees[newId] = 0;
+        idsByUuid.put(uuid, newId);
+        return newId;
+    }
+
+    // Releases the id of a player who is neither loaded nor in any loaded list
+    private void freeIfIsolated(int id) {
+        if (degrees[id] > 0 || isSet(loaded, id)) {
+            return;
+        }
+        idsByUuid.remove(uuids[id]);
+        uuids[id] = null;
+        neighbors[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static void clear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    // --- Adjacency ---
+
+    private boolean hasNeighbor(int id, int neighbor) {
+        int[] list = neighbors[id];
+        for (int i = 0, n = degrees[id]; i < n; i++) {
+            if (list[i] == neighbor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void append(int id, int neighbor) {
+        int[] list = neighbors[id];
+        if (degrees[id] == list.length) {
+            list = neighbors[id] = Arrays.copyOf(list, Math.max(4, list.length * 2));
+        }
+        list[degrees[id]++] = neighbor;
+    }
+
+    private void delete(int id, int neighbor) {
+        int[] list = neighbors[id];
+        for (int i = 0, n = degrees[id]; i < n; i++) {
+            if (list[i] == neighbor) {
+                list[i] = list[n - 1]; // Order does not matter
+                degrees[id]--;
+                return;
+            }
+        }
+    }
+
+    private void link(int a, int b) {
+        // Scan the shorter list; a player with a huge list is usually linked to small ones
+        if (a == b || (degrees[a] <= degrees[b] ? hasNeighbor(a, b) : hasNeighbor(b, a))) {
+            return;
+        }
+        append(a, b);
+        append(b, a);
+        edgeCount++;
+    }
+
+    private void unlink(int a, int b) {
+        if (degrees[a] <= degrees[b] ? hasNeighbor(a, b) : hasNeighbor(b, a)) {
+            delete(a, b);
+            delete(b, a);
+            edgeCount--;
+        }
+    }
+
+    // --- Updates ---
+
+    /**
+     * Replaces a player's edges with their friend list, e.g. when their data is loaded or changed by another server.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param friends Their complete friend list.
+     */
+    public synchronized void load(UUID playerUuid, Collection<UUID> friends) {
+        int id = idOf(playerUuid);
+        set(loaded, id);
+
+        int[] friendIds = new int[friends.size()];
+        int count = 0;
+        for (UUID friend : friends) {
+            friendIds[count++] = idOf(friend);
+        }
+        long[] listed = new long[(idCount + 63) >>> 6];
+        for (int i = 0; i < count; i++) {
+            set(listed, friendIds[i]);
+            link(id, friendIds[i]);
+        }
+        // Edges that are no longer in the list ended; walk backwards since deleting swaps the last entry in
+        int[] list = neighbors[id];
+        for (int i = degrees[id] - 1; i >= 0; i--) {
+            int friendId = list[i];
+            if (!isSet(listed, friendId)) {
+                unlink(id, friendId);
+                freeIfIsolated(friendId);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a player's own friend list is in the graph.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return true if the player is loaded.
+     */
+    public synchronized boolean isLoaded(UUID playerUuid) {
+        Integer id = idsByUuid.get(playerUuid);
+        return id != null && isSet(loaded, id);
+    }
+
+    /**
+     * Removes a player's friend list from the graph. Edges to loaded players remain, since their lists contain them.
+     *
+     * @param playerUuid The UUID of the player.
+     */
+    public synchronized void unload(UUID playerUuid) {
+        Integer boxed = idsByUuid.get(playerUuid);
+        if (boxed == null || !isSet(loaded, boxed)) {
+            return;
+        }
+        int id = boxed;
+        clear(loaded, id);
+        int[] list = neighbors[id];
+        for (int i = degrees[id] - 1; i >= 0; i--) {
+            int friendId = list[i];
+            if (!isSet(loaded, friendId)) {
+                unlink(id, friendId);
+                freeIfIsolated(friendId);
+            }
+        }
+        freeIfIsolated(id);
+    }
+
+    /**
+     * Unloads every loaded player that fails a test, e.g. players who left the caches.
+     *
+     * @param stillLoaded Whether a player's data is still held.
+     * @return The number of unloaded players.
+     */
+    public synchronized int retainLoaded(Predicate<UUID> stillLoaded) {
+        List<UUID> gone = new ArrayList<>();
+        for (int id = 0; id < idCount; id++) {
+            if (isSet(loaded, id) && !stillLoaded.test(uuids[id])) {
+                gone.add(uuids[id]);
+            }
+        }
+        gone.forEach(this::unload);
+        return gone.size();
+    }
+
+    /**
+     * Records a new friendship.
+     *
+     * @param player1Id The UUID of one player.
+     * @param player2Id The UUID of the other player.
+     */
+    public synchronized void addEdge(UUID player1Id, UUID player2Id) {
+        link(idOf(player1Id), idOf(player2Id));
+    }
+
+    /**
+     * Records an ended friendship.
+     *
+     * @param player1Id The UUID of one player.
+     * @param player2Id The UUID of the other player.
+     */
+    public synchronized void removeEdge(UUID player1Id, UUID player2Id) {
+        Integer a = idsByUuid.get(player1Id);
+        Integer b = idsByUuid.get(player2Id);
+        if (a != null && b != null) {
+            unlink(a, b);
+            freeIfIsolated(a);
+            freeIfIsolated(b);
+        }
+    }
+
+    // --- Queries ---
+
+    // Marks a player's friends in a bitset over all ids
+    private long[] friendBits(int id) {
+        long[] bits = new long[(idCount + 63) >>> 6];
+        int[] list = neighbors[id];
+        for (int i = 0, n = degrees[id]; i < n; i++) {
+            set(bits, list[i]);
+        }
+        return bits;
+    }
+
+    /**
+     * Gets the friends two players have in common.
+     *
+     * @param player1Id The UUID of one player.
+     * @param player2Id The UUID of the other player.
+     * @return The shared friends; empty if either player is unknown.
+     */
+    public synchronized List<UUID> mutualFriends(UUID player1Id, UUID player2Id) {
+        Integer a = idsByUuid.get(player1Id);
+        Integer b = idsByUuid.get(player2Id);
+        if (a == null || b == null) {
+            return Collections.emptyList();
+        }
+        // Mark the longer list, walk the shorter one
+        int marked = degrees[a] >= degrees[b] ? a : b;
+        int walked = marked == a ? b : a;
+        long[] bits = friendBits(marked);
+        List<UUID> mutual = new ArrayList<>();
+        int[] list = neighbors[walked];
+        for (int i = 0, n = degrees[walked]; i < n; i++) {
+            if (isSet(bits, list[i])) {
+                mutual.add(uuids[list[i]]);
+            }
+        }
+        return mutual;
+    }
+
+    /**
+     * Ranks friends of a player's friends by the number of friends they share with the player.
+     * Ties are broken by UUID, so the result is stable.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param limit The maximum number of suggestions (top-K).
+     * @param maxFriendsScanned The maximum number of the player's friends whose lists are walked.
+     * @param excluded Players never suggested, e.g. those with a pending request.
+     * @return The suggestions, most mutual friends first.
+     */
+    public synchronized List<Suggestion> suggest(UUID playerUuid, int limit, int maxFriendsScanned, Set<UUID> excluded) {
+        Integer boxed = idsByUuid.get(playerUuid);
+        if (boxed == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int id = boxed;
+        long[] skip = friendBits(id);
+        set(skip, id);
+        for (UUID uuid : excluded) {
+            Integer excludedId = idsByUuid.get(uuid);
+            if (excludedId != null) {
+                set(skip, excludedId);
+            }
+        }
+
+        // Count, for every friend of a friend, how many of the player's friends list them
+        if (counts.length < idCount) {
+            counts = new int[uuids.length];
+        }
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        int[] friends = neighbors[id];
+        for (int i = 0, n = Math.min(degrees[id], maxFriendsScanned); i < n; i++) {
+            int[] list = neighbors[friends[i]];
+            for (int j = 0, m = degrees[friends[i]]; j < m; j++) {
+                int candidate = list[j];
+                if (isSet(skip, candidate)) {
+                    continue;
+                }
+                if (counts[candidate]++ == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = candidate;
+                }
+            }
+        }
+
+        // Top-K with a min-heap of size K: the weakest kept suggestion is at the head
+        PriorityQueue<Suggestion> top = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        for (int i = 0; i < touchedCount; i++) {
+            int candidate = touched[i];
+            Suggestion suggestion = new Suggestion(uuids[candidate], counts[candidate]);
+            counts[candidate] = 0;
+            if (top.size() < limit || RANKING.compare(suggestion, top.peek()) < 0) {
+                top.add(suggestion);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        }
+        List<Suggestion> ranked = new ArrayList<>(top);
+        ranked.sort(RANKING);
+        return ranked;
+    }
+
+    /**
+     * Gets the number of players in the graph, loaded or only listed as a friend.
+     *
+     * @return The number of players.
+     */
+    public synchronized int getPlayerCount() {
+        return idsByUuid.size();
+    }
+
+    public synchronized long getEdgeCount() {
+        return edgeCount;
+    }
+}
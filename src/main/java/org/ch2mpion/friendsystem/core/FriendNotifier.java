@@ -0,0 +1,196 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.ch2mpion.friendsystem.FriendSystem;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tells players when a friend comes online or goes offline, driven by the transitions of the {@link OnlineFriendsIndex}.
+ * <p>
+ * Transitions are debounced: a change is announced after a short delay and dropped if it was reverted in the
+ * meantime, so server switches and quick relogs stay silent. Each player is announced at most once per cooldown.
+ * Due announcements are expanded into one message per watching player and sent from the main thread with a
+ * budget of messages per tick, so a player with thousands of friends online is announced over several ticks
+ * instead of stalling one.
+ */
+public class FriendNotifier {
+
+    // A transition waiting for its debounce delay; guarded by 'pending'
+    private static final class Transition {
+        private final boolean wasOnline;
+        private boolean online;
+        private final long dueMillis;
+
+        private Transition(boolean wasOnline, boolean online, long dueMillis) {
+            this.wasOnline = wasOnline;
+            this.online = online;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+    // An announcement being sent to the players watching its subject; main thread only
+    private static final class Announcement {
+        private final String message;
+        private final Iterator<UUID> recipients;
+
+        private Announcement(String message, List<UUID> recipients) {
+            this.message = message;
+            this.recipients = recipients.iterator();
+        }
+    }
+
+    private final FriendSystem friendSystem;
+    private final PlayersManager playersManager;
+    private final OnlineFriendsIndex index;
+    private final long debounceMillis;
+    private final long cooldownMillis;
+    private final int maxPerTick;
+
+    // Subject -> transition not announced yet, in the order they happened
+    private final Map<UUID, Transition> pending = new LinkedHashMap<>();
+    // Subject -> when they were last announced; entries older than the cooldown are pruned. Guarded by 'pending'
+    private final Map<UUID, Long> lastAnnounced = new HashMap<>();
+    // Announcements whose recipients are not all messaged yet; main thread only
+    private final ArrayDeque<Announcement> sending = new ArrayDeque<>();
+    private volatile int queuedAnnouncements;
+
+    /**
+     * Constructs a new FriendNotifier.
+     *
+     * @param friendSystem The plugin instance.
+     * @param playersManager The players manager the names of announced players are loaded from.
+     * @param index The index that knows who watches whom.
+     * @param debounceMillis How long a transition waits before it is announced.
+     * @param cooldownSeconds The minimum time between two announcements of the same player.
+     * @param maxPerTick The maximum number of messages sent per server tick.
+     */
+    public FriendNotifier(FriendSystem friendSystem, PlayersManager playersManager, OnlineFriendsIndex index,
+                          long debounceMillis, long cooldownSeconds, int maxPerTick) {
+        this.friendSystem = friendSystem;
+        this.playersManager = playersManager;
+        this.index = index;
+        this.debounceMillis = Math.max(0L, debounceMillis);
+        this.cooldownMillis = Math.max(0L, cooldownSeconds) * 1000L;
+        this.maxPerTick = Math.max(1, maxPerTick);
+    }
+
+    /**
+     * Records that a player came online or went offline. May be called from any thread.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param online Their new state.
+     */
+    public void post(UUID playerUuid, boolean online) {
+        long now = System.currentTimeMillis();
+        synchronized (pending) {
+            Transition transition = pending.get(playerUuid);
+            if (transition != null) {
+                transition.online = online; // Announced with the original deadline, in its final state
+                return;
+            }
+            Long last = lastAnnounced.get(playerUuid);
+            long due = Math.max(now + debounceMillis, last != null ? last + cooldownMillis : 0L);
+            pending.put(playerUuid, new Transition(!online, online, due));
+        }
+    }
+
+    /**
+     * Starts announcing the due transitions and sends the next messages within the per-tick budget.
+     * Called every tick on the main thread.
+     */
+    public void tick() {
+        long now = System.currentTimeMillis();
+        Map<UUID, Boolean> due = new LinkedHashMap<>();
+        synchronized (pending) {
+            Iterator<Map.Entry<UUID, Transition>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<UUID, Transition> entry = it.next();
+                Transition transition = entry.getValue();
+                if (transition.dueMillis > now) {
+                    continue; // Cooldowns can make a later transition due before an earlier one
+                }
+                it.remove();
+                if (transition.online != transition.wasOnline) {
+                    due.put(entry.getKey(), transition.online);
+                    lastAnnounced.put(entry.getKey(), now);
+                }
+            }
+            if (!lastAnnounced.isEmpty()) {
+                lastAnnounced.values().removeIf(last -> now - last >= cooldownMillis);
+            }
+        }
+        if (!due.isEmpty()) {
+            announce(due);
+        }
+        send();
+    }
+
+    /**
+     * Gets the number of announcements that are due but not yet sent to all their recipients.
+     *
+     * @return The number of queued announcements.
+     */
+    public int getQueuedCount() {
+        return queuedAnnouncements;
+    }
+
+    // Names come from the caches or one bulk summary read; the messages are queued on the main thread
+    private void announce(Map<UUID, Boolean> due) {
+        playersManager.loadSummaries(due.keySet()).thenAccept(summaries -> Bukkit.getScheduler().runTask(friendSystem, () -> {
+            for (Map.Entry<UUID, Boolean> entry : due.entrySet()) {
+                PlayerSummary summary = summaries.get(entry.getKey());
+                List<UUID> recipients = index.getWatchers(entry.getKey());
+                if (summary == null || recipients.isEmpty()) {
+                    continue;
+                }
+                sending.add(new Announcement(message(entry.getKey(), summary.getName(), entry.getValue()), recipients));
+            }
+            queuedAnnouncements = sending.size();
+        })).exceptionally(e -> {
+            friendSystem.getLogger().warning("Could not load the names of " + due.size() + " players to announce to their friends: " + e.getMessage());
+            return null;
+        });
+    }
+
+    private String message(UUID playerUuid, String name, boolean online) {
+        MessageCatalog messages = friendSystem.getMessages();
+        if (!online) {
+            return messages.get("notify.offline", "player", name);
+        }
+        String server = Bukkit.getPlayer(playerUuid) == null ? playersManager.getNetworkServer(playerUuid) : null;
+        return server != null
+                ? messages.get("notify.online-server", "player", name, "server", server)
+                : messages.get("notify.online", "player", name);
+    }
+
+    private void send() {
+        int budget = maxPerTick;
+        int sent = 0;
+        while (budget > 0 && !sending.isEmpty()) {
+            Announcement announcement = sending.peek();
+            while (budget > 0 && announcement.recipients.hasNext()) {
+                Player recipient = Bukkit.getPlayer(announcement.recipients.next());
+                if (recipient != null) { // Players who left in the meantime cost nothing
+                    recipient.sendMessage(announcement.message);
+                    budget--;
+                    sent++;
+                }
+            }
+            if (!announcement.recipients.hasNext()) {
+                sending.poll();
+            }
+        }
+        queuedAnnouncements = sending.size();
+        if (sent > 0) {
+            friendSystem.getMetrics().counter("friend_notifications").add(sent);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One page of a player's friend list, in the order of {@link FriendshipEdges#order(UUID)}.
+ * Pages are keyed by the last friend of the previous page rather than an offset, so a page read from
+ * the 'friendships' collection costs the same however far into the list it is.
+ * Pages of {@link OnlineFriendsIndex#page(UUID, int, int)} are in display order instead and numbered.
+ */
+public final class FriendPage {
+
+    private final List<UUID> friends;
+    private final UUID next;
+    private final int total;
+
+    /**
+     * Constructs a new FriendPage.
+     *
+     * @param friends The friends on this page.
+     * @param next The cursor of the following page, or null if this is the last page.
+     * @param total The total number of friends.
+     */
+    FriendPage(List<UUID> friends, UUID next, int total) {
+        this.friends = Collections.unmodifiableList(friends);
+        this.next = next;
+        this.total = total;
+    }
+
+    /**
+     * Cuts a page out of a friend list that is already in memory.
+     *
+     * @param playerUuid The UUID of the player the list belongs to.
+     * @param friends The whole friend list, in any order.
+     * @param after The cursor of this page, or null for the first page.
+     * @param limit The maximum number of friends on the page.
+     * @return The page.
+     */
+    static FriendPage of(UUID playerUuid, Collection<UUID> friends, UUID after, int limit) {
+        List<UUID> sorted = new ArrayList<>(friends);
+        sorted.sort(FriendshipEdges.order(playerUuid));
+        int from = 0;
+        if (after != null) {
+            int index = Collections.binarySearch(sorted, after, FriendshipEdges.order(playerUuid));
+            from = index >= 0 ? index + 1 : -index - 1;
+        }
+        int to = Math.min(sorted.size(), from + Math.max(1, limit));
+        List<UUID> page = new ArrayList<>(sorted.subList(from, to));
+        return new FriendPage(page, to < sorted.size() ? sorted.get(to - 1) : null, sorted.size());
+    }
+
+    public List<UUID> getFriends() {
+        return friends;
+    }
+
+    /**
+     * Gets the cursor of the following page.
+     *
+     * @return The last friend on this page, or null if there are no more friends.
+     */
+    public UUID getNext() {
+        return next;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,305 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * A set of UUIDs stored as pairs of primitive longs in a single open-addressing table.
+ * Membership checks, inserts and removals are O(1) on average and never allocate;
+ * each entry costs 16 bytes instead of a UUID object plus a reference.
+ * <p>
+ * Collisions are resolved by linear probing, removals use backward-shift deletion so the table
+ * never accumulates tombstones. The nil UUID (all zero bits) marks free slots and is tracked
+ * separately.
+ * <p>
+ * This class is not thread-safe; {@link PlayerData} guards its instance.
+ */
+public class FriendSet implements Iterable<UUID> {
+
+    /**
+     * Receives the two halves of each UUID during {@link #forEach(PairConsumer)}.
+     */
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(long mostSigBits, long leastSigBits);
+    }
+
+    private static final int MIN_CAPACITY = 8; // Slots, always a power of two
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // Slot i occupies table[2 * i] (most significant bits) and table[2 * i + 1] (least significant bits)
+    private long[] table;
+    private int mask;
+    private int size; // Entries in the table, excluding the nil UUID
+    private int resizeThreshold;
+    private boolean containsNil;
+
+    /**
+     * Constructs an empty FriendSet.
+     */
+    public FriendSet() {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty FriendSet sized for the given number of entries.
+     *
+     * @param expectedSize The number of entries expected, avoiding resizes while filling.
+     */
+    public FriendSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(0, expectedSize) / (double) LOAD_FACTOR) + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        this.table = new long[capacity * 2];
+        this.mask = capacity - 1;
+        this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    // Murmur3 finalizer over both halves; UUIDs are mostly random, but offline-mode ones share version bits
+    private static int slotOf(long mostSigBits, long leastSigBits, int mask) {
+        long h = mostSigBits * 0x9E3779B97F4A7C15L ^ leastSigBits;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private static boolean isNil(long mostSigBits, long leastSigBits) {
+        return mostSigBits == 0L && leastSigBits == 0L;
+    }
+
+    /**
+     * Checks whether the set contains a UUID.
+     *
+     * @param uuid The UUID to look up.
+     * @return true if present.
+     */
+    public boolean contains(UUID uuid) {
+        return contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Checks whether the set contains the UUID with the given halves.
+     *
+     * @param mostSigBits The most significant 64 bits.
+     * @param leastSigBits The least significant 64 bits.
+     * @return true if present.
+     */
+    public boolean contains(long mostSigBits, long leastSigBits) {
+        if (isNil(mostSigBits, leastSigBits)) {
+            return containsNil;
+        }
+        return indexOf(mostSigBits, leastSigBits) >= 0;
+    }
+
+    // Returns the slot holding the UUID, or -1
+    private int indexOf(long mostSigBits, long leastSigBits) {
+        long[] t = table;
+        int m = mask;
+        int slot = slotOf(mostSigBits, leastSigBits, m);
+        while (true) {
+            long msb = t[slot << 1];
+            long lsb = t[(slot << 1) + 1];
+            if (msb == mostSigBits && lsb == leastSigBits) {
+                return slot;
+            }
+            if (isNil(msb, lsb)) {
+                return -1;
+            }
+            slot = (slot + 1) & m;
+        }
+    }
+
+    /**
+     * Adds a UUID.
+     *
+     * @param uuid The UUID to add.
+     * @return true if it was not present before.
+     */
+    public boolean add(UUID uuid) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+        if (isNil(mostSigBits, leastSigBits)) {
+            boolean added = !containsNil;
+            containsNil = true;
+            return added;
+        }
+        if (!insert(table, mask, mostSigBits, leastSigBits)) {
+            return false;
+        }
+        if (++size > resizeThreshold) {
+            resize(table.length); // Doubles the slot count
+        }
+        return true;
+    }
+
+    // Inserts into the given table unless present. Returns false if the UUID was already there.
+    private static boolean insert(long[] t, int m, long mostSigBits, long leastSigBits) {
+        int slot = slotOf(mostSigBits, leastSigBits, m);
+        while (true) {
+            long msb = t[slot << 1];
+            long lsb = t[(slot << 1) + 1];
+            if (isNil(msb, lsb)) {
+                t[slot << 1] = mostSigBits;
+                t[(slot << 1) + 1] = leastSigBits;
+                return true;
+            }
+            if (msb == mostSigBits && lsb == leastSigBits) {
+                return false;
+            }
+            slot = (slot + 1) & m;
+        }
+    }
+
+    private void resize(int newCapacity) {
+        long[] old = table;
+        allocate(newCapacity);
+        for (int i = 0; i < old.length; i += 2) {
+            if (!isNil(old[i], old[i + 1])) {
+                insert(table, mask, old[i], old[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Removes a UUID.
+     *
+     * @param uuid The UUID to remove.
+     * @return true if it was present.
+     */
+    public boolean remove(UUID uuid) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+        if (isNil(mostSigBits, leastSigBits)) {
+            boolean removed = containsNil;
+            containsNil = false;
+            return removed;
+        }
+        int slot = indexOf(mostSigBits, leastSigBits);
+        if (slot < 0) {
+            return false;
+        }
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    // Backward-shift deletion: moves later entries of the probe run into the gap so lookups stay correct
+    private void shiftBack(int gap) {
+        long[] t = table;
+        int m = mask;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & m;
+            long msb = t[slot << 1];
+            long lsb = t[(slot << 1) + 1];
+            if (isNil(msb, lsb)) {
+                break;
+            }
+            int home = slotOf(msb, lsb, m);
+            // The entry may move into the gap only if its home slot is not between the gap and its position
+            if (((slot - home) & m) >= ((slot - gap) & m)) {
+                t[gap << 1] = msb;
+                t[(gap << 1) + 1] = lsb;
+                gap = slot;
+            }
+        }
+        t[gap << 1] = 0L;
+        t[(gap << 1) + 1] = 0L;
+    }
+
+    /**
+     * Removes all entries, keeping the current capacity.
+     */
+    public void clear() {
+        Arrays.fill(table, 0L);
+        size = 0;
+        containsNil = false;
+    }
+
+    public int size() {
+        return size + (containsNil ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Visits every entry without allocating.
+     *
+     * @param consumer Receives the halves of each UUID.
+     */
+    public void forEach(PairConsumer consumer) {
+        if (containsNil) {
+            consumer.accept(0L, 0L);
+        }
+        long[] t = table;
+        for (int i = 0; i < t.length; i += 2) {
+            if (!isNil(t[i], t[i + 1])) {
+                consumer.accept(t[i], t[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Copies the entries into a new list.
+     *
+     * @return A snapshot of the set as UUIDs.
+     */
+    public List<UUID> toList() {
+        List<UUID> list = new ArrayList<>(size());
+        forEach((msb, lsb) -> list.add(new UUID(msb, lsb)));
+        return list;
+    }
+
+    /**
+     * Iterates the set as UUID objects, creating one UUID per entry.
+     * Prefer {@link #forEach(PairConsumer)} on hot paths.
+     */
+    @Override
+    public Iterator<UUID> iterator() {
+        return new Iterator<>() {
+            private int next = containsNil ? -1 : advance(0);
+
+            private int advance(int from) {
+                long[] t = table;
+                for (int slot = from; slot <= mask; slot++) {
+                    if (!isNil(t[slot << 1], t[(slot << 1) + 1])) {
+                        return slot;
+                    }
+                }
+                return mask + 1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next <= mask;
+            }
+
+            @Override
+            public UUID next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int slot = next;
+                next = advance(slot + 1);
+                return slot < 0 ? new UUID(0L, 0L) : new UUID(table[slot << 1], table[(slot << 1) + 1]);
+            }
+        };
+    }
+}
@@ -0,0 +1,497 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The 'friendships' collection: one document per friendship ({@code a}, {@code b}, {@code since}), next to the
+ * friend arrays embedded in 'player_data'.
+ * <p>
+ * Every edge is stored once, with {@code a < b} in unsigned byte order, which is how MongoDB orders binary UUIDs.
+ * The unique index {@code {a, b}} serves friendship checks and a player's friends above them, {@code {b, a}} the
+ * friends below them, so paging and counting are covered index scans and never read a friend array.
+ * <p>
+ * The embedded arrays stay the source of truth for cached players; edges are written alongside them by
+ * {@link MongoPlayerDataStore} before each delta, so both converge when a write is retried. Existing arrays
+ * are copied by {@link #backfill()}; edges are only read once it has completed.
+ * <p>
+ * Servers on MongoDB with the collection disabled write friend arrays without edges. They stamp the backfill state
+ * with {@link #markUnmaintained(MongoDBManager)} on startup and periodically, which withdraws the completed marker.
+ * Servers with the collection enabled notice it in {@link #checkState()}, stop reading edges and, once no server has
+ * stamped for {@link #UNMAINTAINED_GRACE_MILLIS}, run the backfill again, deleting edges the arrays no longer have.
+ */
+public class FriendshipEdges {
+
+    public static final String COLLECTION = "friendships";
+    // Progress of the backfill, so it resumes after a restart and runs only once
+    private static final String STATE_COLLECTION = "friendsystem_migrations";
+    private static final String STATE_ID = "friendship_edges";
+
+    /**
+     * How long after the last stamp of a server that does not maintain edges the backfill waits before it runs again.
+     * Such servers stamp every minute while running.
+     */
+    public static final long UNMAINTAINED_GRACE_MILLIS = 3 * 60_000L;
+
+    /**
+     * The order edges are stored and paged in: UUIDs compared as unsigned 128-bit numbers, which equals
+     * MongoDB's byte-wise order of binary subtype 4.
+     */
+    public static final Comparator<UUID> ORDER = (x, y) -> {
+        int msb = Long.compareUnsigned(x.getMostSignificantBits(), y.getMostSignificantBits());
+        return msb != 0 ? msb : Long.compareUnsigned(x.getLeastSignificantBits(), y.getLeastSignificantBits());
+    };
+
+    private final MongoDBManager mongoDBManager;
+    private final Logger logger;
+    private final int batchSize;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean ready;
+
+    /**
+     * Constructs a new FriendshipEdges.
+     *
+     * @param mongoDBManager The MongoDB manager.
+     * @param logger The logger used to report backfill progress.
+     * @param batchSize The number of player documents the backfill reads per round trip.
+     */
+    public FriendshipEdges(MongoDBManager mongoDBManager, Logger logger, int batchSize) {
+        this.mongoDBManager = mongoDBManager;
+        this.logger = logger;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    private MongoCollection<Document> getCollection() {
+        MongoCollection<Document> collection = mongoDBManager.isConnected() ? mongoDBManager.getMongoDatabase().getCollection(COLLECTION) : null;
+        if (collection == null) {
+            throw new IllegalStateException("MongoDB not connected.");
+        }
+        return collection;
+    }
+
+    private MongoCollection<Document> getStateCollection() {
+        return mongoDBManager.getMongoDatabase().getCollection(STATE_COLLECTION);
+    }
+
+    /**
+     * Creates the {@code {a, b}} and {@code {b, a}} indexes and reads whether the backfill has completed.
+     */
+    public void createIndexes() {
+        try {
+            MongoCollection<Document> collection = getCollection();
+            collection.createIndex(new Document("a", 1).append("b", 1), new IndexOptions().name("a_b").unique(true));
+            collection.createIndex(new Document("b", 1).append("a", 1), new IndexOptions().name("b_a"));
+            Document state = getStateCollection().find(Filters.eq("_id", STATE_ID)).first();
+            ready = state != null && state.getBoolean("completed", false);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to create indexes for '" + COLLECTION + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether every friendship of the embedded arrays has been copied, so edges can be read.
+     *
+     * @return true once the backfill has completed and no server has stopped maintaining edges since.
+     */
+    public boolean isReady() {
+        return ready && mongoDBManager.isConnected();
+    }
+
+    // Matches the edge between two players, whichever order they are given in
+    private static Bson edgeFilter(UUID x, UUID y) {
+        return ORDER.compare(x, y) < 0
+                ? Filters.and(Filters.eq("a", x), Filters.eq("b", y))
+                : Filters.and(Filters.eq("a", y), Filters.eq("b", x));
+    }
+
+    private static UpdateOneModel<Document> upsertEdge(UUID x, UUID y, long sinceMillis) {
+        return new UpdateOneModel<>(edgeFilter(x, y), Updates.setOnInsert("since", sinceMillis), new UpdateOptions().upsert(true));
+    }
+
+    // --- Writes ---
+
+    /**
+     * Writes the friendship changes of several deltas. Both players of a friendship write the same edge;
+     * every update is idempotent, so the second one and retries are no-ops.
+     *
+     * @param deltas The deltas about to be written to 'player_data'.
+     * @return The players whose edges could not be written; empty on success.
+     */
+    public Set<UUID> apply(List<PlayerDelta> deltas) {
+        List<UUID> modelOwners = new ArrayList<>();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (PlayerDelta delta : deltas) {
+            UUID playerUuid = delta.getPlayerUuid();
+            for (UUID friend : delta.getAddedFriends()) {
+                models.add(upsertEdge(playerUuid, friend, now));
+                modelOwners.add(playerUuid);
+            }
+            for (UUID friend : delta.getRemovedFriends()) {
+                models.add(new DeleteOneModel<>(edgeFilter(playerUuid, friend)));
+                modelOwners.add(playerUuid);
+            }
+        }
+        if (models.isEmpty()) {
+            return Set.of();
+        }
+
+        try {
+            getCollection().bulkWrite(models, new BulkWriteOptions().ordered(false));
+            return Set.of();
+        } catch (MongoBulkWriteException e) {
+            Set<UUID> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                // Two servers upserting the same new edge at once; it exists either way
+                if (error.getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    failed.add(modelOwners.get(error.getIndex()));
+                }
+            }
+            return failed;
+        }
+    }
+
+    // --- Reads ---
+
+    /**
+     * Reads one page of a player's friends.
+     * Friends are returned in {@link #order(UUID)}: those above the player ascending, then those below it ascending.
+     * Both halves are read from an index in that order, so no page is sorted in memory.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param after The last friend of the previous page, or null for the first page.
+     * @param limit The maximum number of friends to return.
+     * @return The friends on the page.
+     */
+    public List<UUID> page(UUID playerUuid, UUID after, int limit) {
+        MongoCollection<Document> collection = getCollection();
+        List<UUID> friends = new ArrayList<>(limit);
+        if (after == null || ORDER.compare(after, playerUuid) > 0) {
+            // Edges {player, friend}: friends above the player
+            Bson filter = after == null ? Filters.eq("a", playerUuid) : Filters.and(Filters.eq("a", playerUuid), Filters.gt("b", after));
+            readSide(collection, filter, "b", limit, friends);
+            after = null;
+        }
+        if (friends.size() < limit) {
+            // Edges {friend, player}: friends below the player
+            Bson filter = after == null ? Filters.eq("b", playerUuid) : Filters.and(Filters.eq("b", playerUuid), Filters.gt("a", after));
+            readSide(collection, filter, "a", limit - friends.size(), friends);
+        }
+        return friends;
+    }
+
+    private static void readSide(MongoCollection<Document> collection, Bson filter, String field, int limit, List<UUID> out) {
+        for (Document edge : collection.find(filter)
+                .projection(Projections.fields(Projections.include(field), Projections.excludeId()))
+                .sort(Sorts.ascending(field))
+                .limit(limit)) {
+            out.add(edge.get(field, UUID.class));
+        }
+    }
+
+    /**
+     * Gets the order {@link #page(UUID, UUID, int)} returns a player's friends in.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return A comparator of that player's friends.
+     */
+    public static Comparator<UUID> order(UUID playerUuid) {
+        return Comparator.<UUID, Boolean>comparing(friend -> ORDER.compare(friend, playerUuid) < 0).thenComparing(ORDER);
+    }
+
+    /**
+     * Counts a player's friends with two covered index counts.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The number of friends.
+     */
+    public int count(UUID playerUuid) {
+        MongoCollection<Document> collection = getCollection();
+        return (int) (collection.countDocuments(Filters.eq("a", playerUuid)) + collection.countDocuments(Filters.eq("b", playerUuid)));
+    }
+
+    /**
+     * Checks whether two players are friends with a single index lookup.
+     *
+     * @param x The UUID of one player.
+     * @param y The UUID of the other player.
+     * @return true if they are friends.
+     */
+    public boolean areFriends(UUID x, UUID y) {
+        return getCollection().find(edgeFilter(x, y)).projection(Projections.excludeId()).limit(1).first() != null;
+    }
+
+    // --- Maintenance across servers ---
+
+    /**
+     * Records that this server writes player data without maintaining edges, e.g. because the collection is
+     * disabled in its config. Withdraws the completed marker and makes the next backfill start over and delete
+     * stale edges. Does nothing if edges were never backfilled.
+     * Called on startup and every minute by servers on MongoDB with the collection disabled.
+     *
+     * @param mongoDBManager The MongoDB manager.
+     */
+    public static void markUnmaintained(MongoDBManager mongoDBManager) {
+        if (!mongoDBManager.isConnected()) {
+            return;
+        }
+        mongoDBManager.getMongoDatabase().getCollection(STATE_COLLECTION).updateOne(Filters.eq("_id", STATE_ID),
+                Updates.combine(
+                        Updates.set("completed", false),
+                        Updates.set("prune", true),
+                        Updates.set("unmaintained_at", System.currentTimeMillis()),
+                        Updates.unset("last_id")));
+    }
+
+    /**
+     * Re-reads the backfill state: stops reading edges if another server withdrew the completed marker, and runs
+     * the backfill again once no server has stamped it as unmaintained for {@link #UNMAINTAINED_GRACE_MILLIS}.
+     * Called periodically from an asynchronous task.
+     */
+    public void checkState() {
+        if (stopped.get() || !mongoDBManager.isConnected()) {
+            return;
+        }
+        Document state = getStateCollection().find(Filters.eq("_id", STATE_ID)).first();
+        boolean completed = state != null && state.getBoolean("completed", false);
+        if (ready && !completed) {
+            logger.warning("Another server wrote friend lists without maintaining the '" + COLLECTION + "' collection; "
+                    + "reading friend lists from player data until it is reconciled.");
+        }
+        ready = completed;
+        if (!completed && !isUnmaintained(state)) {
+            backfill();
+        }
+    }
+
+    // Whether a server stamped the state recently, i.e. may still be writing without edges
+    private static boolean isUnmaintained(Document state) {
+        Long unmaintainedAt = state != null ? state.getLong("unmaintained_at") : null;
+        return unmaintainedAt != null && System.currentTimeMillis() - unmaintainedAt < UNMAINTAINED_GRACE_MILLIS;
+    }
+
+    // --- Backfill ---
+
+    /**
+     * Copies the friend arrays of all player documents into edges, in batches, until done or {@link #stop()}
+     * is called. Progress is recorded after every batch, so a restart resumes where it stopped.
+     * After the state was stamped by {@link #markUnmaintained(MongoDBManager)}, edges the arrays no longer
+     * have are deleted as well; a new stamp while it runs stops it.
+     * Intended to run on the background executor after startup, after legacy documents were migrated,
+     * and again from {@link #checkState()}.
+     */
+    public void backfill() {
+        if (ready || !mongoDBManager.isConnected() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            runBackfill();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void runBackfill() {
+        MongoCollection<Document> players = mongoDBManager.getPlayerDataCollection();
+        MongoCollection<Document> collection = getCollection();
+        MongoCollection<Document> stateCollection = getStateCollection();
+        Document state = stateCollection.find(Filters.eq("_id", STATE_ID)).first();
+        if (state == null) {
+            stateCollection.updateOne(Filters.eq("_id", STATE_ID), Updates.setOnInsert("completed", false), new UpdateOptions().upsert(true));
+            state = stateCollection.find(Filters.eq("_id", STATE_ID)).first();
+        }
+        if (state.getBoolean("completed", false)) {
+            ready = true;
+            return;
+        }
+        if (isUnmaintained(state)) {
+            logger.info("Friendship backfill waits until no server writes without maintaining '" + COLLECTION + "'.");
+            return;
+        }
+        Object lastId = state.get("last_id");
+        boolean prune = state.getBoolean("prune", false);
+        // Every state update below only applies while no server stamped the state since it was read
+        Bson unchanged = Filters.and(Filters.eq("_id", STATE_ID), Filters.eq("unmaintained_at", state.getLong("unmaintained_at")));
+
+        long copied = 0;
+        try {
+            // Legacy documents left unmigrated first; they are rare and cheap to copy again after a restart
+            long legacy = copyBatches(players, collection, Filters.type("_id", BsonType.STRING), null, prune);
+            if (stopped.get()) {
+                return;
+            }
+            copied += legacy;
+            Bson filter = Filters.type("_id", BsonType.BINARY);
+            if (lastId != null) {
+                filter = Filters.and(filter, Filters.gt("_id", lastId));
+            }
+            long current = copyBatches(players, collection, filter, unchanged, prune);
+            if (stopped.get()) {
+                return;
+            }
+            if (current < 0) {
+                logger.warning("Friendship backfill stopped: another server wrote friend lists without maintaining '"
+                        + COLLECTION + "'. It runs again once no server does.");
+                return;
+            }
+            copied += current;
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Friendship backfill stopped after " + copied + " players; it resumes on next startup.", e);
+            return;
+        }
+
+        if (stateCollection.updateOne(unchanged, Updates.combine(Updates.set("completed", true), Updates.unset("prune"))).getMatchedCount() == 0) {
+            logger.warning("Friendship backfill was invalidated by another server before it completed; it runs again once no server writes without edges.");
+            return;
+        }
+        ready = true;
+        logger.info("Copied the friend lists of " + copied + " players to the '" + COLLECTION + "' collection.");
+    }
+
+    /**
+     * Copies every matching player document in _id order.
+     *
+     * @param progress The state document to record progress in, or null to record none; progress is only recorded
+     *                 while it matches.
+     * @param prune Whether edges the friend arrays no longer have are deleted too.
+     * @return How many players were copied, or -1 if the state document stopped matching.
+     */
+    private long copyBatches(MongoCollection<Document> players, MongoCollection<Document> collection, Bson filter, Bson progress, boolean prune) {
+        boolean recordProgress = progress != null;
+        long copied = 0;
+        Object lastId = null;
+        while (!stopped.get()) {
+            Bson page = lastId == null ? filter : Filters.and(filter, Filters.gt("_id", lastId));
+            List<Document> batch = players.find(page)
+                    .projection(Projections.include("friends", "version"))
+                    .sort(Sorts.ascending("_id"))
+                    .limit(batchSize)
+                    .into(new ArrayList<>(batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            long now = System.currentTimeMillis();
+            List<WriteModel<Document>> models = new ArrayList<>();
+            Map<UUID, Long> versions = new HashMap<>();
+            Map<UUID, Set<UUID>> friendsByPlayer = new HashMap<>();
+            for (Document doc : batch) {
+                UUID playerUuid = PlayerDataMigrator.toUuid(doc.get("_id"));
+                versions.put(playerUuid, PlayerData.versionOf(doc));
+                Set<UUID> playerFriends = new HashSet<>();
+                List<Object> friends = doc.getList("friends", Object.class);
+                if (friends != null) {
+                    for (Object friend : friends) {
+                        UUID friendUuid = PlayerDataMigrator.toUuid(friend);
+                        playerFriends.add(friendUuid);
+                        models.add(upsertEdge(playerUuid, friendUuid, now));
+                    }
+                }
+                friendsByPlayer.put(playerUuid, playerFriends);
+            }
+            if (!models.isEmpty()) {
+                collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            }
+            if (prune) {
+                prune(collection, friendsByPlayer);
+            }
+            // A friendship removed between the read and the upsert would survive as an edge; redo changed players
+            if (recordProgress) {
+                for (Document doc : players.find(Filters.in("_id", versions.keySet())).projection(Projections.include("version"))) {
+                    UUID playerUuid = PlayerDataMigrator.toUuid(doc.get("_id"));
+                    if (PlayerData.versionOf(doc) != versions.get(playerUuid)) {
+                        reconcile(players, collection, playerUuid);
+                    }
+                }
+            }
+
+            lastId = batch.get(batch.size() - 1).get("_id");
+            copied += batch.size();
+            if (recordProgress && getStateCollection().updateOne(progress, Updates.set("last_id", lastId)).getMatchedCount() == 0) {
+                return -1;
+            }
+            logger.fine("Copied the friend lists of " + copied + " players to '" + COLLECTION + "' so far.");
+        }
+        return copied;
+    }
+
+    // Deletes the edges of a batch of players that their friend arrays no longer have, left over from writes without edges
+    private void prune(MongoCollection<Document> collection, Map<UUID, Set<UUID>> friendsByPlayer) {
+        List<UUID> batch = new ArrayList<>(friendsByPlayer.keySet());
+        List<WriteModel<Document>> models = new ArrayList<>();
+        for (Document edge : collection.find(Filters.or(Filters.in("a", batch), Filters.in("b", batch)))
+                .projection(Projections.fields(Projections.include("a", "b"), Projections.excludeId()))) {
+            UUID a = edge.get("a", UUID.class);
+            UUID b = edge.get("b", UUID.class);
+            Set<UUID> friendsOfA = friendsByPlayer.get(a);
+            Set<UUID> friendsOfB = friendsByPlayer.get(b);
+            if ((friendsOfA != null && !friendsOfA.contains(b)) || (friendsOfB != null && !friendsOfB.contains(a))) {
+                models.add(new DeleteOneModel<>(edgeFilter(a, b)));
+            }
+        }
+        if (!models.isEmpty()) {
+            collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    // Makes a player's edges match their current friend array
+    private void reconcile(MongoCollection<Document> players, MongoCollection<Document> collection, UUID playerUuid) {
+        Document doc = players.find(Filters.eq("_id", playerUuid)).projection(Projections.include("friends")).first();
+        Set<UUID> friends = new HashSet<>();
+        if (doc != null && doc.getList("friends", Object.class) != null) {
+            doc.getList("friends", Object.class).forEach(friend -> friends.add(PlayerDataMigrator.toUuid(friend)));
+        }
+        List<UUID> edges = new ArrayList<>();
+        readSide(collection, Filters.eq("a", playerUuid), "b", 0, edges);
+        readSide(collection, Filters.eq("b", playerUuid), "a", 0, edges);
+
+        long now = System.currentTimeMillis();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        for (UUID friend : edges) {
+            if (!friends.remove(friend)) {
+                models.add(new DeleteOneModel<>(edgeFilter(playerUuid, friend)));
+            }
+        }
+        for (UUID friend : friends) {
+            models.add(upsertEdge(playerUuid, friend, now));
+        }
+        if (!models.isEmpty()) {
+            collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Asks a running {@link #backfill()} to stop after the current batch.
+     */
+    public void stop() {
+        stopped.set(true);
+    }
+}
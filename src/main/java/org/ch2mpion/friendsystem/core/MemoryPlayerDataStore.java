@@ -0,0 +1,103 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A backend that keeps documents in memory only; everything is lost on restart.
+ * Meant for tests and benchmarks that exercise the plugin without a database.
+ * Name lookups scan all documents.
+ */
+public class MemoryPlayerDataStore implements PlayerDataStore {
+
+    // Stored documents are never modified; every write replaces the document
+    private final Map<UUID, Document> documents = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public Document load(UUID playerUuid) {
+        return documents.get(playerUuid);
+    }
+
+    @Override
+    public Map<UUID, Document> loadAll(Collection<UUID> playerUuids, Collection<String> fields) {
+        Map<UUID, Document> found = new HashMap<>();
+        for (UUID playerUuid : playerUuids) {
+            Document document = documents.get(playerUuid);
+            if (document != null) {
+                found.put(playerUuid, document);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Document findByName(String name) {
+        Document best = null;
+        for (Document document : documents.values()) {
+            if (name.equalsIgnoreCase(document.getString("name"))
+                    && (best == null || lastSeen(document) > lastSeen(best))) {
+                best = document;
+            }
+        }
+        return best;
+    }
+
+    private static long lastSeen(Document document) {
+        Long lastSeenMillis = document.getLong("last_seen_millis");
+        return lastSeenMillis != null ? lastSeenMillis : 0L;
+    }
+
+    @Override
+    public synchronized void save(Document document) {
+        documents.put(PlayerDataMigrator.toUuid(document.get("_id")), new Document(document));
+    }
+
+    @Override
+    public synchronized WriteResult applyDeltas(List<PlayerDelta> deltas, String serverId) {
+        Set<UUID> conflicted = new HashSet<>();
+        for (PlayerDelta delta : deltas) {
+            if (delta.isEmpty() || conflicted.contains(delta.getPlayerUuid())) {
+                continue;
+            }
+            Document updated = delta.applyTo(documents.get(delta.getPlayerUuid()), serverId, true);
+            if (updated == null) {
+                conflicted.add(delta.getPlayerUuid());
+            } else {
+                documents.put(delta.getPlayerUuid(), updated);
+            }
+        }
+        return conflicted.isEmpty() ? WriteResult.SUCCESS : new WriteResult(conflicted, new HashSet<>(), null);
+    }
+
+    @Override
+    public synchronized void replay(List<PlayerDelta> deltas) {
+        for (PlayerDelta delta : deltas) {
+            if (!delta.isEmpty()) {
+                documents.put(delta.getPlayerUuid(), delta.applyTo(documents.get(delta.getPlayerUuid()), null, false));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        documents.clear();
+    }
+}
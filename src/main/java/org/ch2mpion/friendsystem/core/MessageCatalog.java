@@ -0,0 +1,140 @@
+package org.ch2mpion.friendsystem.core;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.ClickEvent;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.chat.HoverEvent;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The chat messages of the plugin, read from 'messages.yml' and compiled into {@link MessageTemplate}s once at startup.
+ * <p>
+ * Besides rendering, the catalog caches what is the same for every send: the chat components of messages without
+ * placeholders, handed out as copies so callers may modify them, and rendered help pages. Components that depend
+ * on a player name or a count are built on every call.
+ */
+public class MessageCatalog {
+
+    public static final String FILE = "messages.yml";
+
+    private final Map<String, MessageTemplate> templates;
+    // Components of constant messages, by message key; bounded by the number of messages
+    private final Map<String, BaseComponent> constantComponents = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> helpPages = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new MessageCatalog.
+     *
+     * @param texts Message key -> configured text.
+     */
+    public MessageCatalog(Map<String, String> texts) {
+        Map<String, MessageTemplate> compiled = new HashMap<>();
+        for (Map.Entry<String, String> entry : texts.entrySet()) {
+            compiled.put(entry.getKey(), MessageTemplate.compile(entry.getValue()));
+        }
+        this.templates = compiled;
+    }
+
+    /**
+     * Loads the catalog from the plugin's 'messages.yml', writing the default file on the first start.
+     * Keys missing from the file take the defaults shipped in the jar.
+     *
+     * @param plugin The plugin whose data folder holds the file.
+     * @return The compiled catalog.
+     */
+    public static MessageCatalog load(JavaPlugin plugin) {
+        File file = new File(plugin.getDataFolder(), FILE);
+        if (!file.exists()) {
+            plugin.saveResource(FILE, false);
+        }
+        Configuration config = YamlConfiguration.loadConfiguration(file);
+
+        Set<String> keys = new LinkedHashSet<>();
+        InputStream defaults = plugin.getResource(FILE);
+        if (defaults != null) {
+            Configuration defaultConfig = YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8));
+            config.setDefaults(defaultConfig);
+            keys.addAll(defaultConfig.getKeys(true));
+        }
+        keys.addAll(config.getKeys(true));
+
+        Map<String, String> texts = new HashMap<>();
+        for (String key : keys) {
+            if (config.isString(key)) {
+                texts.put(key, config.getString(key));
+            }
+        }
+        plugin.getLogger().info("Loaded " + texts.size() + " messages.");
+        return new MessageCatalog(texts);
+    }
+
+    /**
+     * Renders a message.
+     *
+     * @param key The message key, e.g. {@code "add.sent"}.
+     * @param placeholders Alternating placeholder names and values, e.g. {@code "player", name}.
+     * @return The rendered, color-translated message; the key itself if there is no such message.
+     */
+    public String get(String key, String... placeholders) {
+        MessageTemplate template = templates.get(key);
+        return template != null ? template.render(placeholders) : key;
+    }
+
+    /**
+     * Builds a clickable text that runs a command.
+     *
+     * @param labelKey The message key of the text.
+     * @param hoverKey The message key of the hover text.
+     * @param command The command run on click, with its leading slash.
+     * @param placeholders The placeholders of both messages.
+     * @return A new component.
+     */
+    public TextComponent button(String labelKey, String hoverKey, String command, String... placeholders) {
+        TextComponent button = new TextComponent(get(labelKey, placeholders));
+        button.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, command));
+        button.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new ComponentBuilder(get(hoverKey, placeholders)).create()));
+        return button;
+    }
+
+    /**
+     * Gets a message as a chat component. The component of a message without placeholders is built once
+     * and copied on every call; other messages are rendered into a new component.
+     *
+     * @param key The message key.
+     * @param placeholders Alternating placeholder names and values, e.g. {@code "player", name}.
+     * @return A component the caller owns.
+     */
+    public BaseComponent component(String key, String... placeholders) {
+        MessageTemplate template = templates.get(key);
+        if (template == null || !template.isConstant()) {
+            return new TextComponent(get(key, placeholders));
+        }
+        return constantComponents.computeIfAbsent(key, name -> new TextComponent(template.render())).duplicate();
+    }
+
+    /**
+     * Gets the cached help page of a command, rendering it on the first use.
+     *
+     * @param command The name of the command.
+     * @param renderer Renders the page if it is not cached.
+     * @return The lines of the page.
+     */
+    public List<String> helpPage(String command, Supplier<List<String>> renderer) {
+        return helpPages.computeIfAbsent(command, name -> List.copyOf(renderer.get()));
+    }
+}
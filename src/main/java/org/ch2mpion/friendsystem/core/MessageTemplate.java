@@ -0,0 +1,99 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A chat message compiled once from its configured text: '&' color codes are translated up front and the
+ * text is split into literal segments around {@code {placeholder}} slots. Rendering only concatenates;
+ * a message without placeholders is rendered once and returned as is.
+ * <p>
+ * Placeholder values are inserted verbatim and never color-translated, so player input cannot add colors.
+ */
+public final class MessageTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([a-z0-9-]+)}");
+
+    // literals.length == slots.length + 1; slot i sits between literal i and literal i + 1
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles a configured message.
+     *
+     * @param text The message with '&' color codes and {@code {placeholder}} slots.
+     * @return The compiled template.
+     */
+    public static MessageTemplate compile(String text) {
+        String translated = ChatColor.translateAlternateColorCodes('&', text);
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(translated);
+        int end = 0;
+        while (matcher.find()) {
+            literals.add(translated.substring(end, matcher.start()));
+            slots.add(matcher.group(1));
+            end = matcher.end();
+        }
+        literals.add(translated.substring(end));
+        return new MessageTemplate(literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * Renders the message.
+     *
+     * @param placeholders Alternating placeholder names and values, e.g. {@code "player", name}.
+     *                     Slots without a value are rendered as written.
+     * @return The rendered, color-translated message.
+     */
+    public String render(String... placeholders) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(literalLength + 16 * slots.length);
+        builder.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            String value = valueOf(slots[i], placeholders);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append('{').append(slots[i]).append('}');
+            }
+            builder.append(literals[i + 1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Checks whether the message has no placeholders, i.e. always renders to the same text.
+     *
+     * @return true if the message is constant.
+     */
+    public boolean isConstant() {
+        return slots.length == 0;
+    }
+
+    private static String valueOf(String slot, String[] placeholders) {
+        for (int i = 0; i + 1 < placeholders.length; i += 2) {
+            if (slot.equals(placeholders[i])) {
+                return placeholders[i + 1];
+            }
+        }
+        return null;
+    }
+}
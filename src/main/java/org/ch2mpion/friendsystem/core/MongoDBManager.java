@@ -1,14 +1,23 @@
 package org.ch2mpion.friendsystem.core; // Keeping original package, or you can change to .database
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoException;
 import com.mongodb.MongoTimeoutException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
 import org.bson.Document;
+import org.bson.UuidRepresentation;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.ch2mpion.friendsystem.metrics.MetricsRegistry;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
@@ -19,6 +28,7 @@ import java.util.logging.Level;
 public class MongoDBManager {
 
     private final JavaPlugin plugin;
+    private final MetricsRegistry metrics;
     private MongoClient mongoClient;
     private MongoDatabase mongoDatabase;
 
@@ -32,9 +42,11 @@ public class MongoDBManager {
      * @param plugin The main JavaPlugin instance.
      * @param connectionURI The MongoDB connection URI (e.g., "mongodb://localhost:27017").
      * @param databaseName The name of the database to use (e.g., "friendsDB").
+     * @param metrics The registry that receives per-command latencies and error counts.
      */
-    public MongoDBManager(JavaPlugin plugin, String connectionURI, String databaseName) {
+    public MongoDBManager(JavaPlugin plugin, String connectionURI, String databaseName, MetricsRegistry metrics) {
         this.plugin = plugin;
+        this.metrics = metrics;
         this.connectionURI = connectionURI;
         this.databaseName = databaseName;
         initializeDatabase();
@@ -46,7 +58,13 @@ public class MongoDBManager {
      */
     private void initializeDatabase() {
         try {
-            mongoClient = MongoClients.create(connectionURI);
+            // STANDARD encodes java.util.UUID as BSON binary subtype 4 (16 bytes instead of a 36-character string)
+            MongoClientSettings settings = MongoClientSettings.builder()
+                    .applyConnectionString(new ConnectionString(connectionURI))
+                    .uuidRepresentation(UuidRepresentation.STANDARD)
+                    .addCommandListener(new MetricsCommandListener())
+                    .build();
+            mongoClient = MongoClients.create(settings);
             mongoDatabase = mongoClient.getDatabase(databaseName);
 
             mongoDatabase.runCommand(new Document("ping", 1));
@@ -71,6 +89,26 @@ public class MongoDBManager {
         }
     }
 
+    /**
+     * Records the latency of every command sent to MongoDB, labelled by command name (find, update, ...),
+     * and counts failed commands. Runs on the driver's thread, so it only touches lock-free metrics.
+     */
+    private final class MetricsCommandListener implements CommandListener {
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event) {
+            metrics.histogram("mongo_command", "command", event.getCommandName())
+                    .recordNanos(event.getElapsedTime(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event) {
+            metrics.histogram("mongo_command", "command", event.getCommandName())
+                    .recordNanos(event.getElapsedTime(TimeUnit.NANOSECONDS));
+            metrics.counter("mongo_errors", "command", event.getCommandName()).increment();
+        }
+    }
+
     /**
      * Ensures that necessary indexes are created for collections.
      * This improves query performance.
@@ -86,11 +124,13 @@ public class MongoDBManager {
         MongoCollection<Document> playerDataCollection = getPlayerDataCollection();
         if (playerDataCollection != null) {
             try {
-                // Create a unique index on '_id' (which is the player's UUID string)
+                // Create a unique index on '_id' (which is the player's binary UUID)
                 // This ensures each player has only one data document.
                 playerDataCollection.createIndex(new Document("_id", 1));
-                // You might also want an index on 'name' if you frequently search players by name
-                playerDataCollection.createIndex(new Document("name", 1));
+                // Case-insensitive name lookups (NameResolver); the most recently seen player with a name sorts first
+                playerDataCollection.createIndex(new Document("name", 1).append("last_seen_millis", -1),
+                        new IndexOptions().name("name_ci").collation(NameResolver.NAME_COLLATION));
+                dropIndexIfExists(playerDataCollection, "name_1"); // Superseded by name_ci
 
                 plugin.getLogger().info("MongoDB 'player_data' collection indexes checked/created.");
 
@@ -102,6 +142,16 @@ public class MongoDBManager {
         }
     }
 
+    private void dropIndexIfExists(MongoCollection<Document> collection, String indexName) {
+        for (Document index : collection.listIndexes()) {
+            if (indexName.equals(index.getString("name"))) {
+                collection.dropIndex(indexName);
+                plugin.getLogger().info("Dropped superseded index '" + indexName + "' on 'player_data'.");
+                return;
+            }
+        }
+    }
+
     /**
      * Gets the current MongoDatabase instance.
      *
@@ -0,0 +1,207 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The MongoDB backend: documents live in the 'player_data' collection.
+ * Legacy string-UUID documents are upgraded when they are loaded in full (see {@link PlayerDataMigrator}).
+ * With {@link FriendshipEdges}, friendship changes are also written to the 'friendships' collection,
+ * before the player's own update. The client itself is owned by the {@link MongoDBManager}.
+ */
+public class MongoPlayerDataStore implements PlayerDataStore {
+
+    // Replayed changes are written in ordered batches of this many updates
+    private static final int REPLAY_BATCH_SIZE = 500;
+
+    private final MongoDBManager mongoDBManager;
+    // Null unless the 'friendships' collection is enabled
+    private final FriendshipEdges friendships;
+
+    /**
+     * Constructs a new MongoPlayerDataStore.
+     *
+     * @param mongoDBManager The MongoDB manager providing the 'player_data' collection.
+     * @param friendships The edge collection friendship changes are also written to, or null.
+     */
+    public MongoPlayerDataStore(MongoDBManager mongoDBManager, FriendshipEdges friendships) {
+        this.mongoDBManager = mongoDBManager;
+        this.friendships = friendships;
+    }
+
+    private MongoCollection<Document> getCollection() {
+        MongoCollection<Document> collection = mongoDBManager.isConnected() ? mongoDBManager.getPlayerDataCollection() : null;
+        if (collection == null) {
+            throw new IllegalStateException("MongoDB not connected.");
+        }
+        return collection;
+    }
+
+    @Override
+    public String getName() {
+        return "mongodb";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mongoDBManager.isConnected();
+    }
+
+    @Override
+    public boolean isReachable() {
+        if (!mongoDBManager.isConnected()) {
+            return false;
+        }
+        try {
+            mongoDBManager.getMongoDatabase().runCommand(new Document("ping", 1));
+            return true;
+        } catch (MongoException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Document load(UUID playerUuid) {
+        MongoCollection<Document> collection = getCollection();
+        // Find the document by its binary _id, or its legacy string _id which is upgraded on read
+        Document current = null;
+        Document legacy = null;
+        for (Document found : collection.find(PlayerDataMigrator.idFilter(playerUuid))) {
+            if (PlayerDataMigrator.isLegacy(found)) {
+                legacy = found;
+            } else {
+                current = found;
+            }
+        }
+        return PlayerDataMigrator.upgradeOnRead(collection, current, legacy);
+    }
+
+    @Override
+    public Map<UUID, Document> loadAll(Collection<UUID> playerUuids, Collection<String> fields) {
+        MongoCollection<Document> collection = getCollection();
+        // Match both the binary _id and the legacy string _id of every player
+        List<Object> ids = new ArrayList<>(playerUuids.size() * 2);
+        for (UUID playerUuid : playerUuids) {
+            ids.add(playerUuid);
+            ids.add(playerUuid.toString());
+        }
+
+        FindIterable<Document> found = collection.find(Filters.in("_id", ids));
+        Map<UUID, Document> current = new HashMap<>();
+        if (fields != null) {
+            // Partial reads are served from either schema; only full loads upgrade
+            for (Document doc : found.projection(Projections.include(new ArrayList<>(fields)))) {
+                current.put(PlayerDataMigrator.toUuid(doc.get("_id")), doc);
+            }
+            return current;
+        }
+
+        Map<UUID, Document> legacy = new HashMap<>();
+        for (Document doc : found) {
+            (PlayerDataMigrator.isLegacy(doc) ? legacy : current).put(PlayerDataMigrator.toUuid(doc.get("_id")), doc);
+        }
+        for (Map.Entry<UUID, Document> entry : legacy.entrySet()) {
+            Document doc = PlayerDataMigrator.upgradeOnRead(collection, current.get(entry.getKey()), entry.getValue());
+            if (doc != null) {
+                current.put(entry.getKey(), doc);
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public Document findByName(String name) {
+        return getCollection().find(Filters.eq("name", name))
+                .collation(NameResolver.NAME_COLLATION)
+                .projection(Projections.include("name"))
+                .sort(Sorts.descending("last_seen_millis"))
+                .first();
+    }
+
+    @Override
+    public void save(Document document) {
+        getCollection().replaceOne(Filters.eq("_id", document.get("_id")), document, new ReplaceOptions().upsert(true));
+    }
+
+    @Override
+    public WriteResult applyDeltas(List<PlayerDelta> deltas, String serverId) {
+        // Edges first: a player whose edges failed is not written and retries both, which is idempotent for edges
+        Set<UUID> edgesFailed = friendships != null ? friendships.apply(deltas) : Set.of();
+
+        // A model index maps back to its player for error handling
+        List<UUID> modelOwners = new ArrayList<>();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        for (PlayerDelta delta : deltas) {
+            if (edgesFailed.contains(delta.getPlayerUuid())) {
+                continue;
+            }
+            for (WriteModel<Document> model : delta.toWriteModels(serverId)) {
+                models.add(model);
+                modelOwners.add(delta.getPlayerUuid());
+            }
+        }
+        WriteResult edgesResult = edgesFailed.isEmpty() ? WriteResult.SUCCESS
+                : new WriteResult(new HashSet<>(), new HashSet<>(edgesFailed), "Failed to write friendship edges.");
+        if (models.isEmpty()) {
+            return edgesResult;
+        }
+
+        try {
+            getCollection().bulkWrite(models, new BulkWriteOptions().ordered(false));
+            return edgesResult;
+        } catch (MongoBulkWriteException e) {
+            Set<UUID> conflicted = new HashSet<>();
+            Set<UUID> failed = new HashSet<>(edgesFailed);
+            for (BulkWriteError error : e.getWriteErrors()) {
+                // Every update is a version-checked upsert, so a stale version fails as a duplicate key
+                (error.getCategory() == ErrorCategory.DUPLICATE_KEY ? conflicted : failed).add(modelOwners.get(error.getIndex()));
+            }
+            conflicted.removeAll(failed);
+            return new WriteResult(conflicted, failed, failed.isEmpty() ? null : e.getMessage());
+        }
+    }
+
+    @Override
+    public void replay(List<PlayerDelta> deltas) {
+        MongoCollection<Document> collection = getCollection();
+        if (friendships != null && !friendships.apply(deltas).isEmpty()) {
+            throw new IllegalStateException("Failed to write friendship edges.");
+        }
+        List<WriteModel<Document>> models = new ArrayList<>();
+        for (PlayerDelta delta : deltas) {
+            models.addAll(delta.toReplayModels());
+            if (models.size() >= REPLAY_BATCH_SIZE) {
+                collection.bulkWrite(models, new BulkWriteOptions().ordered(true));
+                models.clear();
+            }
+        }
+        if (!models.isEmpty()) {
+            collection.bulkWrite(models, new BulkWriteOptions().ordered(true));
+        }
+    }
+
+    @Override
+    public void close() {
+        // The client is closed by the MongoDBManager
+    }
+}
@@ -0,0 +1,77 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Per-player {@link PrefixNameSet}s, e.g. the names of each online player's friends.
+ * Only tracked owners (players online on this server) have a set; updates for other owners are ignored,
+ * so the index costs nothing for offline players and never needs a database lookup to stay correct.
+ */
+public class NamePrefixIndex {
+
+    private final Map<UUID, PrefixNameSet> sets = new ConcurrentHashMap<>();
+
+    /**
+     * Starts tracking an owner with an empty set.
+     *
+     * @param owner The UUID of the owner.
+     */
+    public void track(UUID owner) {
+        sets.putIfAbsent(owner, new PrefixNameSet());
+    }
+
+    /**
+     * Stops tracking an owner and drops their set.
+     *
+     * @param owner The UUID of the owner.
+     */
+    public void untrack(UUID owner) {
+        sets.remove(owner);
+    }
+
+    /**
+     * Adds or renames a player in an owner's set, if the owner is tracked.
+     *
+     * @param owner The UUID of the owner.
+     * @param uuid The UUID of the player to add.
+     * @param name The player's name.
+     */
+    public void put(UUID owner, UUID uuid, String name) {
+        PrefixNameSet set = sets.get(owner);
+        if (set != null && name != null) {
+            set.put(uuid, name);
+        }
+    }
+
+    /**
+     * Removes a player from an owner's set, if the owner is tracked.
+     *
+     * @param owner The UUID of the owner.
+     * @param uuid The UUID of the player to remove.
+     */
+    public void remove(UUID owner, UUID uuid) {
+        PrefixNameSet set = sets.get(owner);
+        if (set != null) {
+            set.remove(uuid);
+        }
+    }
+
+    /**
+     * Gets the names in an owner's set starting with a prefix, ignoring case.
+     *
+     * @param owner The UUID of the owner.
+     * @param prefix The typed prefix.
+     * @param limit The maximum number of names returned.
+     * @param filter Only players accepted by the filter are returned; null accepts all.
+     * @return The matching names; empty if the owner is not tracked.
+     */
+    public List<String> complete(UUID owner, String prefix, int limit, Predicate<UUID> filter) {
+        PrefixNameSet set = sets.get(owner);
+        return set != null ? set.complete(prefix, limit, filter) : Collections.emptyList();
+    }
+}
@@ -0,0 +1,169 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import org.bson.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Resolves player names to UUIDs without Bukkit's OfflinePlayer lookup, which may block on the
+ * usercache or call Mojang. Names are matched case-insensitively:
+ * <ol>
+ *     <li>Players that joined this server are remembered in memory.</li>
+ *     <li>Other names are looked up in the {@link PlayerDataStore} (in MongoDB through the case-insensitive
+ *     {@code name} index) on the load executor; both hits and misses are cached for a while.</li>
+ * </ol>
+ * If several stored players share a name (after name changes), the most recently seen one wins.
+ */
+public class NameResolver {
+
+    /**
+     * The collation of the {@code name} index: case-insensitive, accent-sensitive.
+     * Queries must use the same collation for the index to be used.
+     */
+    public static final Collation NAME_COLLATION = Collation.builder()
+            .locale("en")
+            .collationStrength(CollationStrength.SECONDARY)
+            .build();
+
+    /**
+     * A resolved player: their UUID and their name as stored, in its original case.
+     */
+    public static final class ResolvedPlayer {
+        private final UUID uuid;
+        private final String name;
+
+        ResolvedPlayer(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class Entry {
+        private final ResolvedPlayer player; // null caches a miss
+        private final long expiresNanos;
+
+        private Entry(ResolvedPlayer player, long expiresNanos) {
+            this.player = player;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private final PlayerDataStore store;
+    private final BoundedExecutor loadExecutor;
+    private final Logger logger;
+    private final long hitTtlNanos;
+    private final long missTtlNanos;
+
+    // Lower-cased name -> entry, access-ordered with a size bound; guarded by 'this'
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Constructs a new NameResolver.
+     *
+     * @param store The store unknown names are looked up in.
+     * @param loadExecutor The executor store lookups run on.
+     * @param logger The logger used to report failed lookups.
+     * @param maxEntries The maximum number of cached names.
+     * @param hitTtlSeconds How long a resolved name is cached.
+     * @param missTtlSeconds How long an unknown name is cached.
+     */
+    public NameResolver(PlayerDataStore store, BoundedExecutor loadExecutor, Logger logger,
+                        int maxEntries, long hitTtlSeconds, long missTtlSeconds) {
+        this.store = store;
+        this.loadExecutor = loadExecutor;
+        this.logger = logger;
+        this.hitTtlNanos = Math.max(1L, hitTtlSeconds) * 1_000_000_000L;
+        this.missTtlNanos = Math.max(0L, missTtlSeconds) * 1_000_000_000L;
+        int bound = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > bound;
+            }
+        };
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Remembers the current name of a player, e.g. when they join.
+     *
+     * @param uuid The UUID of the player.
+     * @param name Their current name.
+     */
+    public synchronized void remember(UUID uuid, String name) {
+        entries.put(key(name), new Entry(new ResolvedPlayer(uuid, name), System.nanoTime() + hitTtlNanos));
+    }
+
+    /**
+     * Resolves a name from memory only.
+     *
+     * @param name The name to resolve, in any case.
+     * @return The player, or null if the name is not cached (or cached as unknown).
+     */
+    public synchronized ResolvedPlayer getCached(String name) {
+        Entry entry = entries.get(key(name));
+        if (entry == null || System.nanoTime() - entry.expiresNanos > 0) {
+            return null;
+        }
+        return entry.player;
+    }
+
+    /**
+     * Resolves a name to a player that has played on the network.
+     *
+     * @param name The name to resolve, in any case.
+     * @return A CompletableFuture with the player, or with null if no player with that name is known.
+     */
+    public CompletableFuture<ResolvedPlayer> resolve(String name) {
+        String key = key(name);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expiresNanos <= 0) {
+                return CompletableFuture.completedFuture(entry.player);
+            }
+        }
+
+        return loadExecutor.supply(() -> {
+            if (!store.isAvailable()) {
+                logger.warning("Player data store not available. Cannot resolve player name " + name + ".");
+                return null; // Not cached: the store may be back for the next attempt
+            }
+
+            Document doc = store.findByName(name);
+            ResolvedPlayer player = doc != null
+                    ? new ResolvedPlayer(PlayerDataMigrator.toUuid(doc.get("_id")), doc.getString("name"))
+                    : null;
+            synchronized (this) {
+                entries.put(key, new Entry(player, System.nanoTime() + (player != null ? hitTtlNanos : missTtlNanos)));
+            }
+            return player;
+        });
+    }
+
+    /**
+     * Forgets a cached name, e.g. after a player with that name joined with a different UUID.
+     *
+     * @param name The name to forget.
+     */
+    public synchronized void invalidate(String name) {
+        entries.remove(key(name));
+    }
+}
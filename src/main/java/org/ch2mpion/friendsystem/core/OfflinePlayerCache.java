@@ -0,0 +1,240 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Second-tier cache for PlayerData of players who are not online on this server,
+ * e.g. friends loaded by {@code /friend list} or {@code /friend remove}.
+ * Entries are evicted in least-recently-used order once the entry count or the total weight
+ * is exceeded, and expire after a period without access. The weight of an entry is
+ * {@code 1 + friend count}, so players with huge friend lists make room for many small ones;
+ * it is measured on insert and again by {@link #reweigh(UUID)} whenever the friend list of a cached player changes.
+ * Entries with unsaved changes are never evicted.
+ */
+public class OfflinePlayerCache {
+
+    private static final class Entry {
+        private final PlayerData playerData;
+        private int weight;
+        private long lastAccessNanos;
+
+        private Entry(PlayerData playerData, long now) {
+            this.playerData = playerData;
+            this.weight = 1 + playerData.getFriendCount();
+            this.lastAccessNanos = now;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long expireAfterAccessNanos;
+
+    // Ordered from least to most recently used by get(): iteration starts at the least recently used entry. Guarded by 'this'.
+    // Insertion-ordered on purpose; only get() moves an entry to the end, together with refreshing its access time,
+    // so lookups like peek() cannot break the ordering cleanUp() and evict() rely on.
+    private final LinkedHashMap<UUID, Entry> entries = new LinkedHashMap<>(64, 0.75f, false);
+    private long totalWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a new OfflinePlayerCache.
+     *
+     * @param maxEntries The maximum number of cached players.
+     * @param maxWeight The maximum total weight (sum of 1 + friend count over all entries).
+     * @param expireAfterAccessSeconds Seconds without access after which an entry expires.
+     */
+    public OfflinePlayerCache(int maxEntries, long maxWeight, long expireAfterAccessSeconds) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = Math.max(1L, maxWeight);
+        this.expireAfterAccessNanos = Math.max(1L, expireAfterAccessSeconds) * 1_000_000_000L;
+    }
+
+    /**
+     * Gets a cached entry and records a hit or miss.
+     *
+     * @param uuid The UUID of the player.
+     * @return The cached PlayerData, or null if absent or expired.
+     */
+    public synchronized PlayerData get(UUID uuid) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(uuid);
+        if (entry == null || (isExpired(entry, now) && !entry.playerData.hasPendingChanges())) {
+            if (entry != null) {
+                removeEntry(uuid, entry);
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        entry.lastAccessNanos = now;
+        // Move to the most recently used end
+        entries.remove(uuid);
+        entries.put(uuid, entry);
+        hits.increment();
+        return entry.playerData;
+    }
+
+    /**
+     * Gets a cached entry without recording statistics, refreshing its access time or changing its eviction order.
+     *
+     * @param uuid The UUID of the player.
+     * @return The cached PlayerData, or null if absent.
+     */
+    public synchronized PlayerData peek(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        return entry != null ? entry.playerData : null;
+    }
+
+    /**
+     * Caches a player unless an entry is already present, then evicts as needed.
+     *
+     * @param uuid The UUID of the player.
+     * @param playerData The data to cache.
+     * @return The cached instance: the existing one if present, otherwise {@code playerData}.
+     */
+    public synchronized PlayerData putIfAbsent(UUID uuid, PlayerData playerData) {
+        Entry existing = entries.get(uuid);
+        if (existing != null) {
+            return existing.playerData;
+        }
+        Entry entry = new Entry(playerData, System.nanoTime());
+        entries.put(uuid, entry);
+        totalWeight += entry.weight;
+        evict(uuid);
+        return playerData;
+    }
+
+    /**
+     * Measures the weight of a cached player again after their friend list changed, then evicts as needed.
+     * Does nothing if the player is not cached. Does not count as an access.
+     *
+     * @param uuid The UUID of the player.
+     */
+    public synchronized void reweigh(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return;
+        }
+        int weight = 1 + entry.playerData.getFriendCount();
+        totalWeight += weight - entry.weight;
+        entry.weight = weight;
+        evict(uuid);
+    }
+
+    /**
+     * Removes a player from the cache.
+     *
+     * @param uuid The UUID of the player.
+     * @return The removed PlayerData, or null if it was not cached.
+     */
+    public synchronized PlayerData remove(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return null;
+        }
+        removeEntry(uuid, entry);
+        return entry.playerData;
+    }
+
+    /**
+     * Removes every entry without unsaved changes, e.g. after changes of other servers may have been missed.
+     *
+     * @return The number of removed entries.
+     */
+    public synchronized int invalidateAll() {
+        int removed = 0;
+        Iterator<Map.Entry<UUID, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.playerData.hasPendingChanges()) {
+                continue; // Still needed by the write-behind queue's caller until flushed
+            }
+            iterator.remove();
+            totalWeight -= entry.weight;
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes expired entries. Cheap when nothing expired, since the eldest entry is checked first.
+     */
+    public synchronized void cleanUp() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<UUID, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (!isExpired(entry, now)) {
+                break; // Access order: every later entry was used more recently
+            }
+            if (entry.playerData.hasPendingChanges()) {
+                continue;
+            }
+            iterator.remove();
+            totalWeight -= entry.weight;
+            evictions.increment();
+        }
+    }
+
+    // Evicts least recently used entries until both bounds hold. The just-inserted entry is kept.
+    private void evict(UUID keep) {
+        Iterator<Map.Entry<UUID, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalWeight > maxWeight) && iterator.hasNext()) {
+            Map.Entry<UUID, Entry> candidate = iterator.next();
+            Entry entry = candidate.getValue();
+            if (candidate.getKey().equals(keep) || entry.playerData.hasPendingChanges()) {
+                continue; // Unsaved changes stay until the write-behind queue has flushed them
+            }
+            iterator.remove();
+            totalWeight -= entry.weight;
+            evictions.increment();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.lastAccessNanos > expireAfterAccessNanos;
+    }
+
+    private void removeEntry(UUID uuid, Entry entry) {
+        entries.remove(uuid);
+        totalWeight -= entry.weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the ratio of hits to lookups since startup.
+     *
+     * @return The hit rate between 0 and 1, or 0 if there were no lookups.
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+}
@@ -0,0 +1,359 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Reverse index of "players online on this server who have X as a friend", with each of those players'
+ * count of friends online anywhere in the network and their friends in display order.
+ * <p>
+ * Only players online here watch their friends. A join, quit or presence change of a player touches the
+ * players watching them and nobody else, and a friendship change touches one entry, so nothing ever scans
+ * the friend lists of all online players. Players online here are online by definition; for everybody
+ * else the remote presence predicate decides. The online state of a watched player is cached and only
+ * changes through {@link #refresh(UUID)}, so every transition is counted exactly once.
+ * <p>
+ * Every watching player keeps their friends sorted by {@link #DISPLAY_ORDER}, online friends first, so a page
+ * of {@code /friend list} is a slice of that list. A transition moves the player within the lists of their
+ * watchers; last seen times come from the summaries loaded when a player joins and from observed transitions.
+ * <p>
+ * All methods are synchronized; updates come from the main thread, load threads and the change stream.
+ */
+public class OnlineFriendsIndex {
+
+    // A watched player, shared by the lists of everyone watching them
+    private static final class Friend {
+        private final UUID uuid;
+        private final Set<UUID> watchers = new HashSet<>();
+        private boolean online;
+        private long lastSeenMillis; // 0 until known
+
+        private Friend(UUID uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    // A player online on this server and the friends they watch
+    private static final class Watcher {
+        private final Set<UUID> friends = new HashSet<>();
+        // Sorted by DISPLAY_ORDER
+        private final List<Friend> ordered = new ArrayList<>();
+        private int onlineFriends;
+    }
+
+    /**
+     * Online friends first, then the most recently seen first; ties are broken by UUID so the order is total.
+     */
+    private static final Comparator<Friend> DISPLAY_ORDER = (a, b) -> {
+        if (a.online != b.online) {
+            return a.online ? -1 : 1;
+        }
+        if (a.lastSeenMillis != b.lastSeenMillis) {
+            return Long.compare(b.lastSeenMillis, a.lastSeenMillis);
+        }
+        return a.uuid.compareTo(b.uuid);
+    };
+
+    private final Predicate<UUID> remoteOnline;
+
+    // Players online on this server -> their watched friends and online friend count
+    private final Map<UUID, Watcher> watchersByUuid = new HashMap<>();
+    // Watched player -> their state and the players online on this server who have them as a friend
+    private final Map<UUID, Friend> friendsByUuid = new HashMap<>();
+
+    /**
+     * Constructs a new OnlineFriendsIndex.
+     *
+     * @param remoteOnline Whether a player is online on another server of the network.
+     */
+    public OnlineFriendsIndex(Predicate<UUID> remoteOnline) {
+        this.remoteOnline = remoteOnline;
+    }
+
+    /**
+     * Adds a player who joined this server and starts watching their friends.
+     *
+     * @param playerUuid The UUID of the player who joined.
+     * @param friends Their friends.
+     * @return Whether the player came online, i.e. the players watching them must be notified.
+     */
+    public synchronized boolean join(UUID playerUuid, Collection<UUID> friends) {
+        Watcher watcher = watchersByUuid.get(playerUuid);
+        if (watcher == null) {
+            watcher = new Watcher();
+            watchersByUuid.put(playerUuid, watcher);
+        }
+        for (UUID friendUuid : friends) {
+            watch(playerUuid, watcher, friendUuid);
+        }
+        return refresh(playerUuid);
+    }
+
+    /**
+     * Removes a player who left this server and stops watching their friends.
+     *
+     * @param playerUuid The UUID of the player who quit.
+     * @return Whether the player went offline (they may still be online on another server).
+     */
+    public synchronized boolean leave(UUID playerUuid) {
+        Watcher watcher = watchersByUuid.remove(playerUuid);
+        if (watcher == null) {
+            return false;
+        }
+        for (UUID friendUuid : new ArrayList<>(watcher.friends)) {
+            unwatch(playerUuid, watcher, friendUuid);
+        }
+        return refresh(playerUuid);
+    }
+
+    /**
+     * Records a new friendship of a player online on this server. Does nothing for other players.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param friendUuid The UUID of their new friend.
+     */
+    public synchronized void addFriend(UUID playerUuid, UUID friendUuid) {
+        Watcher watcher = watchersByUuid.get(playerUuid);
+        if (watcher != null) {
+            watch(playerUuid, watcher, friendUuid);
+        }
+    }
+
+    /**
+     * Records a removed friendship of a player online on this server. Does nothing for other players.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param friendUuid The UUID of the former friend.
+     */
+    public synchronized void removeFriend(UUID playerUuid, UUID friendUuid) {
+        Watcher watcher = watchersByUuid.get(playerUuid);
+        if (watcher != null) {
+            unwatch(playerUuid, watcher, friendUuid);
+        }
+    }
+
+    /**
+     * Replaces the watched friends of a player online on this server, e.g. after their friend list was
+     * merged with another server's changes. Does nothing for other players.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param friends Their current friends.
+     */
+    public synchronized void setFriends(UUID playerUuid, Collection<UUID> friends) {
+        Watcher watcher = watchersByUuid.get(playerUuid);
+        if (watcher == null) {
+            return;
+        }
+        Set<UUID> current = new HashSet<>(friends);
+        for (UUID friendUuid : new ArrayList<>(watcher.friends)) {
+            if (!current.contains(friendUuid)) {
+                unwatch(playerUuid, watcher, friendUuid);
+            }
+        }
+        for (UUID friendUuid : current) {
+            watch(playerUuid, watcher, friendUuid);
+        }
+    }
+
+    /**
+     * Records when watched players were last seen, e.g. from the summaries loaded for a player who joined.
+     * Times only move forward, so an older summary never overrides an observed transition.
+     * Players nobody watches are ignored.
+     *
+     * @param lastSeenMillis Player -> last seen time in epoch milliseconds.
+     */
+    public synchronized void updateLastSeen(Map<UUID, Long> lastSeenMillis) {
+        Set<Watcher> unsorted = new HashSet<>();
+        for (Map.Entry<UUID, Long> entry : lastSeenMillis.entrySet()) {
+            Friend friend = friendsByUuid.get(entry.getKey());
+            if (friend == null || entry.getValue() <= friend.lastSeenMillis) {
+                continue;
+            }
+            friend.lastSeenMillis = entry.getValue();
+            for (UUID watcherUuid : friend.watchers) {
+                unsorted.add(watchersByUuid.get(watcherUuid));
+            }
+        }
+        // One sort per affected list rather than a move per friend; the lists are mostly in order already
+        for (Watcher watcher : unsorted) {
+            watcher.ordered.sort(DISPLAY_ORDER);
+        }
+    }
+
+    /**
+     * Re-evaluates whether a player is online, e.g. after their network presence changed.
+     * Constant time for players nobody on this server watches.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return Whether the player came online or went offline, i.e. the players watching them must be notified.
+     */
+    public synchronized boolean refresh(UUID playerUuid) {
+        Friend friend = friendsByUuid.get(playerUuid);
+        if (friend == null) {
+            return false;
+        }
+        boolean now = isOnlineNow(playerUuid);
+        if (now == friend.online) {
+            return false;
+        }
+        List<Watcher> watchers = new ArrayList<>(friend.watchers.size());
+        for (UUID watcherUuid : friend.watchers) {
+            Watcher watcher = watchersByUuid.get(watcherUuid);
+            remove(watcher.ordered, friend); // Found by the old sort key
+            watchers.add(watcher);
+        }
+        friend.online = now;
+        friend.lastSeenMillis = Math.max(friend.lastSeenMillis, System.currentTimeMillis());
+        for (Watcher watcher : watchers) {
+            insert(watcher.ordered, friend);
+            watcher.onlineFriends += now ? 1 : -1;
+        }
+        return true;
+    }
+
+    /**
+     * Re-evaluates every watched player and recounts, without reporting transitions.
+     * Used after the network presence was reloaded and changes may have been missed.
+     */
+    public synchronized void recount() {
+        for (Friend friend : friendsByUuid.values()) {
+            friend.online = isOnlineNow(friend.uuid);
+        }
+        for (Watcher watcher : watchersByUuid.values()) {
+            int count = 0;
+            for (Friend friend : watcher.ordered) {
+                if (friend.online) {
+                    count++;
+                }
+            }
+            watcher.onlineFriends = count;
+            watcher.ordered.sort(DISPLAY_ORDER);
+        }
+    }
+
+    /**
+     * Gets the players online on this server who have a player as a friend.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return A snapshot of the watching players; empty if nobody watches the player.
+     */
+    public synchronized List<UUID> getWatchers(UUID playerUuid) {
+        Friend friend = friendsByUuid.get(playerUuid);
+        return friend != null ? new ArrayList<>(friend.watchers) : Collections.emptyList();
+    }
+
+    /**
+     * Gets how many friends of a player online on this server are online anywhere in the network.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The number of online friends, or -1 if the player is not online on this server.
+     */
+    public synchronized int getOnlineFriendCount(UUID playerUuid) {
+        Watcher watcher = watchersByUuid.get(playerUuid);
+        return watcher != null ? watcher.onlineFriends : -1;
+    }
+
+    /**
+     * Cuts one page out of the friends of a player online on this server, online friends first, then the
+     * most recently seen first. Costs the size of the page, however long the friend list is.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param page The page number, starting at 0; clamped to the last page.
+     * @param pageSize The number of friends per page.
+     * @return The page, whose cursor is its last friend if more pages follow; null if the player is not online on this server.
+     */
+    public synchronized FriendPage page(UUID playerUuid, int page, int pageSize) {
+        Watcher watcher = watchersByUuid.get(playerUuid);
+        if (watcher == null) {
+            return null;
+        }
+        int size = Math.max(1, pageSize);
+        int total = watcher.ordered.size();
+        int lastPage = Math.max(0, (total - 1) / size);
+        int from = Math.min(Math.max(0, page), lastPage) * size;
+        int to = Math.min(total, from + size);
+        List<UUID> friends = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            friends.add(watcher.ordered.get(i).uuid);
+        }
+        return new FriendPage(friends, to < total ? friends.get(friends.size() - 1) : null, total);
+    }
+
+    /**
+     * Checks whether a watched player is counted as online, as of their last transition.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return true if the player is watched and online.
+     */
+    public synchronized boolean isOnline(UUID playerUuid) {
+        Friend friend = friendsByUuid.get(playerUuid);
+        return friend != null && friend.online;
+    }
+
+    /**
+     * Gets the number of players watched by at least one player online on this server.
+     *
+     * @return The number of watched players.
+     */
+    public synchronized int getWatchedCount() {
+        return friendsByUuid.size();
+    }
+
+    private boolean isOnlineNow(UUID playerUuid) {
+        return watchersByUuid.containsKey(playerUuid) || remoteOnline.test(playerUuid);
+    }
+
+    private void watch(UUID playerUuid, Watcher watcher, UUID friendUuid) {
+        if (!watcher.friends.add(friendUuid)) {
+            return;
+        }
+        Friend friend = friendsByUuid.get(friendUuid);
+        if (friend == null) {
+            // First watcher: the friend's state is cached from now on
+            friend = new Friend(friendUuid);
+            friend.online = isOnlineNow(friendUuid);
+            friendsByUuid.put(friendUuid, friend);
+        }
+        friend.watchers.add(playerUuid);
+        insert(watcher.ordered, friend);
+        if (friend.online) {
+            watcher.onlineFriends++;
+        }
+    }
+
+    private void unwatch(UUID playerUuid, Watcher watcher, UUID friendUuid) {
+        if (!watcher.friends.remove(friendUuid)) {
+            return;
+        }
+        Friend friend = friendsByUuid.get(friendUuid);
+        remove(watcher.ordered, friend);
+        if (friend.online) {
+            watcher.onlineFriends--;
+        }
+        friend.watchers.remove(playerUuid);
+        if (friend.watchers.isEmpty()) {
+            friendsByUuid.remove(friendUuid);
+        }
+    }
+
+    private static void insert(List<Friend> ordered, Friend friend) {
+        int index = Collections.binarySearch(ordered, friend, DISPLAY_ORDER);
+        ordered.add(index >= 0 ? index : -index - 1, friend);
+    }
+
+    private static void remove(List<Friend> ordered, Friend friend) {
+        int index = Collections.binarySearch(ordered, friend, DISPLAY_ORDER);
+        if (index >= 0) {
+            ordered.remove(index);
+        }
+    }
+}
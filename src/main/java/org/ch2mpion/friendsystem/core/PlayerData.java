@@ -6,9 +6,10 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors; // For stream operations
 
 import org.bson.Document; // Import MongoDB Document
 
@@ -19,10 +20,20 @@ import org.bson.Document; // Import MongoDB Document
  */
 public class PlayerData {
 
-    private final String name;
+    private String name;
     private boolean online;
     private Instant lastSeen;
-    private final List<UUID> friends; // Using List interface for good practice
+    private final FriendSet friends; // Primitive open-addressing set, guarded by 'this'
+
+    // --- Pending Changes (not yet persisted, drained by the write-behind queue) ---
+    private Set<UUID> addedFriends = new HashSet<>();
+    private Set<UUID> removedFriends = new HashSet<>();
+    private boolean nameDirty;
+    private boolean lastSeenDirty;
+    // The stored document version this data is based on, plus the writes drained since; see PlayerDelta
+    private long version;
+    // Drained deltas whose write has not been acknowledged yet, oldest first
+    private final List<PlayerDelta> unacknowledged = new ArrayList<>(1);
 
     /**
      * Constructs new PlayerData for a player with a given name.
@@ -35,12 +46,16 @@ public class PlayerData {
         this.name = name;
         this.online = false;
         this.lastSeen = Instant.now();
-        this.friends = new ArrayList<>();
+        this.friends = new FriendSet();
+        // A new player has no document yet; the first save must write all scalar fields
+        this.nameDirty = true;
+        this.lastSeenDirty = true;
     }
 
     /**
      * Constructs PlayerData from a MongoDB Document.
      * This constructor is used when loading existing player data from the database.
+     * Both the current binary-UUID schema and the legacy string schema are accepted.
      *
      * @param document The MongoDB Document representing player data.
      */
@@ -51,57 +66,265 @@ public class PlayerData {
         this.online = false;
         // Convert milliseconds epoch to Instant
         this.lastSeen = Instant.ofEpochMilli(document.getLong("last_seen_millis"));
+        this.version = versionOf(document);
 
-        // Convert List<String> of UUIDs from DB to List<UUID>
-        List<String> friendUuidsAsString = document.getList("friends", String.class);
-        if (friendUuidsAsString != null) {
-            this.friends = friendUuidsAsString.stream()
-                    .map(UUID::fromString)
-                    .collect(Collectors.toCollection(ArrayList::new));
+        // Friends are binary UUIDs (decoded directly, no string parsing) or strings in the legacy schema
+        List<Object> storedFriends = document.getList("friends", Object.class);
+        if (storedFriends != null) {
+            this.friends = new FriendSet(storedFriends.size());
+            for (Object friend : storedFriends) {
+                this.friends.add(PlayerDataMigrator.toUuid(friend));
+            }
         } else {
-            this.friends = new ArrayList<>();
+            this.friends = new FriendSet();
         }
     }
 
     /**
-     * Converts this PlayerData object into a MongoDB Document.
-     * This method is used when saving player data to the database.
+     * Converts this PlayerData object into a MongoDB Document in the current schema.
+     * UUIDs are stored as BSON binary subtype 4 (16 bytes) instead of 36-character strings.
      *
      * @param playerUuid The UUID of the player, used as the document's _id.
      * @return A MongoDB Document representing this player's data.
      */
-    public Document toDocument(UUID playerUuid) {
+    public synchronized Document toDocument(UUID playerUuid) {
         Document document = new Document();
-        document.append("_id", playerUuid.toString()); // MongoDB uses _id as primary key
-        document.append("player_uuid", playerUuid.toString()); // Also store as player_uuid for queries
+        document.append("_id", playerUuid); // MongoDB uses _id as primary key
         document.append("name", this.name);
         // Store Instant as epoch milliseconds (Long) for easier storage in MongoDB
         document.append("last_seen_millis", this.lastSeen.toEpochMilli());
 
-        // Convert List<UUID> to List<String> for storage
-        document.append("friends", this.friends.stream()
-                .map(UUID::toString)
-                .collect(Collectors.toList()));
+        List<UUID> friendUuids = new ArrayList<>(this.friends.size());
+        this.friends.forEach((msb, lsb) -> friendUuids.add(new UUID(msb, lsb)));
+        document.append("friends", friendUuids);
+        document.append("schema_version", PlayerDataMigrator.CURRENT_SCHEMA_VERSION);
+        document.append("version", this.version);
         return document;
     }
 
+    /**
+     * Reads the version of a stored document; documents written before versioning are version 0.
+     *
+     * @param document The stored document.
+     * @return The version.
+     */
+    public static long versionOf(Document document) {
+        Object version = document.get("version");
+        return version instanceof Number ? ((Number) version).longValue() : 0L;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Takes a snapshot of all changes made since the last call and resets the change tracking.
+     *
+     * @param playerUuid The UUID of the player this data belongs to.
+     * @return The pending changes; {@link PlayerDelta#isEmpty()} if nothing changed.
+     */
+    public synchronized PlayerDelta drainDelta(UUID playerUuid) {
+        PlayerDelta delta = new PlayerDelta(playerUuid, addedFriends, removedFriends,
+                nameDirty ? name : null,
+                lastSeenDirty ? lastSeen.toEpochMilli() : null,
+                version);
+        version += delta.getWriteCount(); // The version the document has once this delta is written
+        addedFriends = new HashSet<>();
+        removedFriends = new HashSet<>();
+        nameDirty = false;
+        lastSeenDirty = false;
+        if (!delta.isEmpty()) {
+            unacknowledged.add(delta);
+        }
+        return delta;
+    }
+
+    /**
+     * Gets every change that is not known to be written yet without draining anything: the deltas in flight,
+     * oldest first, followed by the pending changes. Used to journal the player's unsaved state.
+     *
+     * @param playerUuid The UUID of the player this data belongs to.
+     * @return The combined changes; {@link PlayerDelta#isEmpty()} if everything is written.
+     */
+    public synchronized PlayerDelta peekUnsaved(UUID playerUuid) {
+        Set<UUID> added = new HashSet<>();
+        Set<UUID> removed = new HashSet<>();
+        String changedName = null;
+        Long changedLastSeen = null;
+        for (PlayerDelta delta : unacknowledged) {
+            mergeFriends(added, removed, delta.getAddedFriends(), delta.getRemovedFriends());
+            if (delta.getName() != null) {
+                changedName = delta.getName();
+            }
+            if (delta.getLastSeenMillis() != null) {
+                changedLastSeen = delta.getLastSeenMillis();
+            }
+        }
+        mergeFriends(added, removed, addedFriends, removedFriends);
+        return new PlayerDelta(playerUuid, added, removed,
+                nameDirty ? name : changedName,
+                lastSeenDirty ? Long.valueOf(lastSeen.toEpochMilli()) : changedLastSeen,
+                version);
+    }
+
+    // Applies a later set of friend changes on top of earlier ones
+    private static void mergeFriends(Set<UUID> added, Set<UUID> removed, Set<UUID> laterAdded, Set<UUID> laterRemoved) {
+        for (UUID friend : laterAdded) {
+            removed.remove(friend);
+            added.add(friend);
+        }
+        for (UUID friend : laterRemoved) {
+            added.remove(friend);
+            removed.add(friend);
+        }
+    }
+
+    /**
+     * Confirms that a drained delta has been written.
+     *
+     * @param delta The delta returned by {@link #drainDelta(UUID)} whose write succeeded.
+     */
+    public synchronized void acknowledgeDelta(PlayerDelta delta) {
+        unacknowledged.remove(delta);
+    }
+
+    /**
+     * Checks whether this data has changes that have not been persisted yet: changes not drained for persistence,
+     * or drained deltas whose write has not been acknowledged (a failed write puts them back into this instance).
+     *
+     * @return true if a save is still needed or in flight.
+     */
+    public synchronized boolean hasPendingChanges() {
+        return nameDirty || lastSeenDirty || !addedFriends.isEmpty() || !removedFriends.isEmpty() || !unacknowledged.isEmpty();
+    }
+
+    /**
+     * Puts the changes of a delta that failed to persist back into the change tracking,
+     * unless they have been superseded by newer changes in the meantime.
+     *
+     * @param delta The delta returned by {@link #drainDelta(UUID)} whose write failed.
+     */
+    public synchronized void restoreDelta(PlayerDelta delta) {
+        unacknowledged.remove(delta);
+        // The write did not happen (or not completely); a wrong guess is corrected by the next conflict
+        version = delta.getExpectedVersion();
+        for (UUID friend : delta.getAddedFriends()) {
+            if (!removedFriends.contains(friend)) {
+                addedFriends.add(friend);
+            }
+        }
+        for (UUID friend : delta.getRemovedFriends()) {
+            if (!addedFriends.contains(friend)) {
+                removedFriends.add(friend);
+            }
+        }
+        nameDirty |= delta.getName() != null;
+        lastSeenDirty |= delta.getLastSeenMillis() != null;
+    }
+
+    /**
+     * Applies a newer version of this player's document, written by another server.
+     * Local changes that are not yet persisted (pending or in flight) are replayed on top of the stored
+     * friend list, so they are neither lost nor written twice. Name and last seen are only taken over
+     * when they have no pending local change. Nothing is marked dirty.
+     *
+     * @param document The stored document; only 'name', 'last_seen_millis', 'friends' and 'version' are read.
+     * @param addedOut Receives the friends that were added by this call.
+     * @param removedOut Receives the friends that were removed by this call.
+     */
+    public synchronized void applyRemote(Document document, List<UUID> addedOut, List<UUID> removedOut) {
+        List<Object> storedFriends = document.getList("friends", Object.class);
+        if (storedFriends != null) {
+            FriendSet target = new FriendSet(storedFriends.size());
+            for (Object friend : storedFriends) {
+                target.add(PlayerDataMigrator.toUuid(friend));
+            }
+            for (PlayerDelta delta : unacknowledged) {
+                delta.getAddedFriends().forEach(target::add);
+                delta.getRemovedFriends().forEach(target::remove);
+            }
+            addedFriends.forEach(target::add);
+            removedFriends.forEach(target::remove);
+
+            friends.forEach((msb, lsb) -> {
+                if (!target.contains(msb, lsb)) {
+                    removedOut.add(new UUID(msb, lsb));
+                }
+            });
+            target.forEach((msb, lsb) -> {
+                if (!friends.contains(msb, lsb)) {
+                    addedOut.add(new UUID(msb, lsb));
+                }
+            });
+            removedOut.forEach(friends::remove);
+            addedOut.forEach(friends::add);
+        }
+
+        String storedName = document.getString("name");
+        if (!nameDirty && storedName != null) {
+            this.name = storedName;
+        }
+        Long storedLastSeen = document.getLong("last_seen_millis");
+        if (!lastSeenDirty && storedLastSeen != null && storedLastSeen > lastSeen.toEpochMilli()) {
+            this.lastSeen = Instant.ofEpochMilli(storedLastSeen);
+        }
+        // With a write in flight the stored version may predate it; that write then conflicts and merges again
+        if (unacknowledged.isEmpty()) {
+            this.version = versionOf(document);
+        }
+    }
 
     public String getName() {
         return name;
     }
 
-    public List<UUID> getFriends() {
-        return friends;
+    public synchronized void setName(String name) {
+        if (name != null && !name.equals(this.name)) {
+            this.name = name;
+            this.nameDirty = true;
+        }
     }
 
-    public void addFriend(UUID friendUuid) {
-        if (!friends.contains(friendUuid)) {
-            friends.add(friendUuid);
+    /**
+     * Gets a snapshot of the friend list.
+     * Allocates a UUID per friend; use {@link #isFriend(UUID)} for membership checks.
+     *
+     * @return A new list containing the UUIDs of all friends.
+     */
+    public synchronized List<UUID> getFriends() {
+        return friends.toList();
+    }
+
+    /**
+     * Checks whether a player is on the friend list. O(1) and allocation-free.
+     *
+     * @param friendUuid The UUID of the player.
+     * @return true if they are friends.
+     */
+    public synchronized boolean isFriend(UUID friendUuid) {
+        return friends.contains(friendUuid);
+    }
+
+    public synchronized int getFriendCount() {
+        return friends.size();
+    }
+
+    public synchronized void addFriend(UUID friendUuid) {
+        if (friends.add(friendUuid)) {
+            // An add cancels a pending removal of the same friend
+            if (!removedFriends.remove(friendUuid)) {
+                addedFriends.add(friendUuid);
+            }
         }
     }
 
-    public void removeFriend(UUID friendUuid) {
-        friends.remove(friendUuid);
+    public synchronized void removeFriend(UUID friendUuid) {
+        if (friends.remove(friendUuid)) {
+            // A removal cancels a pending add of the same friend
+            if (!addedFriends.remove(friendUuid)) {
+                removedFriends.add(friendUuid);
+            }
+        }
     }
 
     public void setOnline(boolean online) {
@@ -116,7 +339,17 @@ public class PlayerData {
         if (online) {
             return "Online";
         }
+        return formatLastSeen(lastSeen);
+    }
 
+    /**
+     * Formats a last seen timestamp relative to now ("5 minutes ago"), or as a date if it is older than a week.
+     * Shared with {@link PlayerSummary}.
+     *
+     * @param lastSeen The last seen timestamp.
+     * @return The human-readable form.
+     */
+    static String formatLastSeen(Instant lastSeen) {
         Duration duration = Duration.between(lastSeen, Instant.now());
 
         if (duration.toMinutes() < 1) {
@@ -138,7 +371,12 @@ public class PlayerData {
         }
     }
 
-    public void setLastSeen(Instant lastSeen) {
+    public Instant getLastSeenInstant() {
+        return lastSeen;
+    }
+
+    public synchronized void setLastSeen(Instant lastSeen) {
         this.lastSeen = lastSeen;
+        this.lastSeenDirty = true;
     }
 }
\ No newline at end of file
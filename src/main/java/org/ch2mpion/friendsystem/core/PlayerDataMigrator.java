@@ -0,0 +1,194 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Upgrades 'player_data' documents to the current schema.
+ * <p>
+ * Schema 1 (legacy) stored {@code _id}, {@code player_uuid} and every friend as 36-character strings.
+ * Schema 2 stores {@code _id} and friends as BSON binary subtype 4 UUIDs, drops {@code player_uuid}
+ * and records {@code schema_version}.
+ * <p>
+ * Since {@code _id} is immutable, an upgrade inserts the new document and deletes the legacy one.
+ * Documents are upgraded lazily when a player is loaded, and a background task upgrades the rest
+ * in batches. The insert never overwrites an existing schema 2 document, so a stale legacy copy read
+ * by the background task can never replace newer data written after a lazy upgrade.
+ */
+public class PlayerDataMigrator {
+
+    public static final int CURRENT_SCHEMA_VERSION = 2;
+
+    private final MongoDBManager mongoDBManager;
+    private final Logger logger;
+    private final int batchSize;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * Constructs a new PlayerDataMigrator.
+     *
+     * @param mongoDBManager The MongoDB manager.
+     * @param logger The logger used to report progress.
+     * @param batchSize The number of legacy documents the background task reads per round trip.
+     */
+    public PlayerDataMigrator(MongoDBManager mongoDBManager, Logger logger, int batchSize) {
+        this.mongoDBManager = mongoDBManager;
+        this.logger = logger;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Checks whether a document still uses the legacy string-based schema.
+     *
+     * @param document The document as stored.
+     * @return true if the document must be upgraded.
+     */
+    public static boolean isLegacy(Document document) {
+        return !(document.get("_id") instanceof UUID);
+    }
+
+    /**
+     * Reads a UUID stored in either schema.
+     *
+     * @param value A binary UUID or its string form.
+     * @return The UUID.
+     */
+    public static UUID toUuid(Object value) {
+        return value instanceof UUID ? (UUID) value : UUID.fromString(value.toString());
+    }
+
+    /**
+     * Converts a legacy document to the current schema without touching the database.
+     *
+     * @param legacy The legacy document.
+     * @return The upgraded document.
+     */
+    public static Document upgrade(Document legacy) {
+        Document document = new Document("_id", toUuid(legacy.get("_id")));
+        document.append("name", legacy.getString("name"));
+        document.append("last_seen_millis", legacy.getLong("last_seen_millis"));
+
+        List<?> legacyFriends = legacy.getList("friends", Object.class);
+        List<UUID> friends = new ArrayList<>(legacyFriends != null ? legacyFriends.size() : 0);
+        if (legacyFriends != null) {
+            for (Object friend : legacyFriends) {
+                friends.add(toUuid(friend));
+            }
+        }
+        document.append("friends", friends);
+        document.append("schema_version", CURRENT_SCHEMA_VERSION);
+        return document;
+    }
+
+    /**
+     * Upgrades a legacy document in the database.
+     * If a schema 2 document for the player already exists (e.g. migrated concurrently), it is kept.
+     *
+     * @param collection The 'player_data' collection.
+     * @param legacy The legacy document as read.
+     * @return The upgraded document that was inserted, or null if a schema 2 document already existed.
+     */
+    public static Document migrate(MongoCollection<Document> collection, Document legacy) {
+        Document upgraded = upgrade(legacy);
+        Document inserted = upgraded;
+        try {
+            collection.insertOne(upgraded);
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            inserted = null; // Someone else upgraded first; their document may already hold newer changes
+        }
+        collection.deleteOne(Filters.eq("_id", legacy.get("_id")));
+        return inserted;
+    }
+
+    /**
+     * Resolves the documents found for one player into a single current-schema document,
+     * upgrading or cleaning up a legacy copy on the way (upgrade-on-read).
+     *
+     * @param collection The 'player_data' collection.
+     * @param current The schema 2 document found, or null.
+     * @param legacy The legacy document found, or null.
+     * @return The current-schema document, or null if the player has no document at all.
+     */
+    public static Document upgradeOnRead(MongoCollection<Document> collection, Document current, Document legacy) {
+        if (legacy == null) {
+            return current;
+        }
+        if (current != null) {
+            // Left over by an upgrade that was interrupted between insert and delete
+            collection.deleteOne(Filters.eq("_id", legacy.get("_id")));
+            return current;
+        }
+        Document upgraded = migrate(collection, legacy);
+        return upgraded != null ? upgraded : collection.find(Filters.eq("_id", toUuid(legacy.get("_id")))).first();
+    }
+
+    /**
+     * Builds a filter that matches a player's document in either schema.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The filter.
+     */
+    public static Bson idFilter(UUID playerUuid) {
+        return Filters.in("_id", playerUuid, playerUuid.toString());
+    }
+
+    /**
+     * Upgrades every remaining legacy document, in batches, until none is left or {@link #stop()} is called.
+     * Intended to run once on the background executor after startup.
+     */
+    public void migrateAll() {
+        MongoCollection<Document> collection = mongoDBManager.isConnected() ? mongoDBManager.getPlayerDataCollection() : null;
+        if (collection == null) {
+            return;
+        }
+
+        long migrated = 0;
+        try {
+            while (!stopped.get()) {
+                List<Document> batch = collection.find(Filters.type("_id", BsonType.STRING))
+                        .limit(batchSize)
+                        .into(new ArrayList<>(batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Document legacy : batch) {
+                    if (stopped.get()) {
+                        break;
+                    }
+                    migrate(collection, legacy);
+                    migrated++;
+                }
+                logger.fine("Migrated " + migrated + " player documents to schema " + CURRENT_SCHEMA_VERSION + " so far.");
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Player data migration stopped after " + migrated + " documents; it resumes on next startup.", e);
+            return;
+        }
+
+        if (migrated > 0) {
+            logger.info("Migrated " + migrated + " player documents to schema " + CURRENT_SCHEMA_VERSION + ".");
+        }
+    }
+
+    /**
+     * Asks a running {@link #migrateAll()} to stop after the current document.
+     */
+    public void stop() {
+        stopped.set(true);
+    }
+}
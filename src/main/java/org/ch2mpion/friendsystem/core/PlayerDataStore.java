@@ -0,0 +1,141 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Storage backend for player data documents.
+ * <p>
+ * Documents use the current schema of 'player_data' ({@code _id} binary UUID, {@code name},
+ * {@code last_seen_millis}, {@code friends}, {@code version}, ...), which is what {@link PlayerData} reads and writes,
+ * whatever the backend stores them as. Changes are written as {@link PlayerDelta}s with the same
+ * optimistic version check everywhere.
+ * <p>
+ * Implementations block and are called from the load and background executors, never from the main thread.
+ * They must be thread-safe.
+ */
+public interface PlayerDataStore {
+
+    /**
+     * The outcome of {@link #applyDeltas(List, String)} for the players whose write did not succeed.
+     */
+    final class WriteResult {
+
+        public static final WriteResult SUCCESS = new WriteResult(Collections.emptySet(), Collections.emptySet(), null);
+
+        private final Set<UUID> conflicted;
+        private final Set<UUID> failed;
+        private final String error;
+
+        /**
+         * Constructs a new WriteResult.
+         *
+         * @param conflicted Players whose stored version did not match.
+         * @param failed Players whose write failed for any other reason.
+         * @param error A description of the first failure, or null.
+         */
+        public WriteResult(Set<UUID> conflicted, Set<UUID> failed, String error) {
+            this.conflicted = conflicted;
+            this.failed = failed;
+            this.error = error;
+        }
+
+        public Set<UUID> getConflicted() {
+            return conflicted;
+        }
+
+        public Set<UUID> getFailed() {
+            return failed;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Gets the name of the backend, as used for {@code storage.type}.
+     *
+     * @return The backend name.
+     */
+    String getName();
+
+    /**
+     * Checks whether the backend can currently serve reads and writes.
+     *
+     * @return true if available.
+     */
+    boolean isAvailable();
+
+    /**
+     * Checks whether the backend answers right now, with a round trip for a remote backend.
+     * Unlike {@link #isAvailable()}, this notices an outage of a backend that is configured and connected.
+     * May block for a while; never call it on the main thread.
+     *
+     * @return true if reachable.
+     */
+    default boolean isReachable() {
+        return isAvailable();
+    }
+
+    /**
+     * Loads a player's document.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The document, or null if the player has none.
+     */
+    Document load(UUID playerUuid);
+
+    /**
+     * Loads the documents of several players at once.
+     *
+     * @param playerUuids The UUIDs of the players.
+     * @param fields The fields to read besides {@code _id}, or null for the whole document. Backends may return more.
+     * @return The documents by player; players without a document are absent.
+     */
+    Map<UUID, Document> loadAll(Collection<UUID> playerUuids, Collection<String> fields);
+
+    /**
+     * Finds the player with a name, ignoring case. If several players share it, the most recently seen one wins.
+     *
+     * @param name The name.
+     * @return The player's document (at least {@code _id} and {@code name}), or null if no player has that name.
+     */
+    Document findByName(String name);
+
+    /**
+     * Stores a player's whole document, replacing the stored one regardless of its version.
+     *
+     * @param document The document; its {@code _id} is the player's UUID.
+     */
+    void save(Document document);
+
+    /**
+     * Writes the changes of several players, each only if the stored version is the one the delta expects
+     * (see {@link PlayerDelta}). Deltas of different players are independent.
+     *
+     * @param deltas The changes to write; deltas of the same player are applied in order.
+     * @param serverId The id of the writing server, tagged onto every update, or null.
+     * @return Which players conflicted or failed; {@link WriteResult#SUCCESS} if all were written.
+     */
+    WriteResult applyDeltas(List<PlayerDelta> deltas, String serverId);
+
+    /**
+     * Writes changes unconditionally and in order, e.g. when replaying the {@link WriteAheadJournal}.
+     *
+     * @param deltas The changes to write.
+     * @throws RuntimeException If a write failed; the following changes were not written.
+     */
+    void replay(List<PlayerDelta> deltas);
+
+    /**
+     * Releases the backend's resources. Called on plugin disable, after all writes.
+     */
+    void close();
+}
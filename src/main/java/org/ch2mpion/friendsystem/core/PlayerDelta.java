@@ -0,0 +1,232 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A snapshot of the field-level changes made to a PlayerData since it was last persisted.
+ * Deltas are translated into targeted {@code $addToSet}, {@code $pull} and {@code $set}
+ * updates instead of replacing the whole document.
+ * <p>
+ * Every update is a compare-and-set on the document's {@code version}: it only matches the version the
+ * delta was drained against and increments it. All updates are upserts, so a version mismatch surfaces
+ * as a duplicate key error for exactly that update instead of a silent no-op.
+ */
+public final class PlayerDelta {
+
+    private final UUID playerUuid;
+    private final Set<UUID> addedFriends;
+    private final Set<UUID> removedFriends;
+    private final String name;          // null if unchanged
+    private final Long lastSeenMillis;  // null if unchanged
+    private final long expectedVersion; // The document version the changes were made against
+
+    /**
+     * Constructs a new PlayerDelta.
+     * This constructor is package-private, intended to be called by PlayerData.
+     *
+     * @param playerUuid The UUID of the player the delta belongs to.
+     * @param addedFriends Friends added since the last save.
+     * @param removedFriends Friends removed since the last save.
+     * @param name The new name, or null if it did not change.
+     * @param lastSeenMillis The new last seen timestamp, or null if it did not change.
+     * @param expectedVersion The stored document version the changes were made against; 0 if unknown or new.
+     */
+    PlayerDelta(UUID playerUuid, Set<UUID> addedFriends, Set<UUID> removedFriends, String name, Long lastSeenMillis,
+                long expectedVersion) {
+        this.playerUuid = playerUuid;
+        this.addedFriends = addedFriends;
+        this.removedFriends = removedFriends;
+        this.name = name;
+        this.lastSeenMillis = lastSeenMillis;
+        this.expectedVersion = expectedVersion;
+    }
+
+    public UUID getPlayerUuid() {
+        return playerUuid;
+    }
+
+    public Set<UUID> getAddedFriends() {
+        return addedFriends;
+    }
+
+    public Set<UUID> getRemovedFriends() {
+        return removedFriends;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Gets the number of updates this delta is written with, which is also how much it increments the version.
+     *
+     * @return 0, 1 or 2.
+     */
+    public int getWriteCount() {
+        int writes = name != null || lastSeenMillis != null || !addedFriends.isEmpty() ? 1 : 0;
+        return writes + (removedFriends.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Checks whether this delta carries any change at all.
+     *
+     * @return true if there is nothing to write.
+     */
+    public boolean isEmpty() {
+        return addedFriends.isEmpty() && removedFriends.isEmpty() && name == null && lastSeenMillis == null;
+    }
+
+    /**
+     * Converts this delta into MongoDB write models without a writer tag.
+     *
+     * @return The write models for this delta; empty if there is nothing to write.
+     */
+    public List<WriteModel<Document>> toWriteModels() {
+        return toWriteModels(null);
+    }
+
+    /**
+     * Converts this delta into MongoDB write models.
+     * With a server id, every update also sets {@code last_write} to a new {server, id} pair; the value
+     * changes on every write, so each change event carries it and servers can ignore their own writes.
+     * MongoDB rejects {@code $addToSet} and {@code $pull} on the same field in one update,
+     * so removals are emitted as a separate model. Both touch disjoint UUIDs; the second one
+     * expects the version written by the first.
+     *
+     * @param serverId The id of the writing server, or null to leave {@code last_write} untouched.
+     * @return The write models for this delta; empty if there is nothing to write.
+     */
+    public List<WriteModel<Document>> toWriteModels(String serverId) {
+        return toWriteModels(serverId, true);
+    }
+
+    /**
+     * Converts this delta into unconditional MongoDB write models, for changes replayed from the
+     * {@link WriteAheadJournal}. They apply to whatever version is stored and still increment it, so other
+     * servers' cached versions conflict and merge. Last seen never moves backwards.
+     *
+     * @return The write models for this delta; empty if there is nothing to write.
+     */
+    public List<WriteModel<Document>> toReplayModels() {
+        return toWriteModels(null, false);
+    }
+
+    private List<WriteModel<Document>> toWriteModels(String serverId, boolean versioned) {
+        List<WriteModel<Document>> models = new ArrayList<>(2);
+        long version = expectedVersion;
+
+        List<Bson> updates = new ArrayList<>(4);
+        if (name != null) {
+            updates.add(Updates.set("name", name));
+        }
+        if (lastSeenMillis != null) {
+            updates.add(versioned ? Updates.set("last_seen_millis", lastSeenMillis) : Updates.max("last_seen_millis", lastSeenMillis));
+        }
+        if (!addedFriends.isEmpty()) {
+            updates.add(Updates.addEachToSet("friends", new ArrayList<>(addedFriends)));
+        }
+        if (!updates.isEmpty()) {
+            if (serverId != null) {
+                updates.add(writeTag(serverId));
+            }
+            updates.add(Updates.inc("version", 1L));
+            updates.add(Updates.setOnInsert("schema_version", PlayerDataMigrator.CURRENT_SCHEMA_VERSION));
+            // Upsert so that the first save of a new player creates its document
+            models.add(new UpdateOneModel<>(filter(version, versioned), Updates.combine(updates), new UpdateOptions().upsert(true)));
+            version++;
+        }
+
+        if (!removedFriends.isEmpty()) {
+            List<Bson> pullUpdates = new ArrayList<>(4);
+            pullUpdates.add(Updates.pullAll("friends", new ArrayList<>(removedFriends)));
+            if (serverId != null) {
+                pullUpdates.add(writeTag(serverId));
+            }
+            pullUpdates.add(Updates.inc("version", 1L));
+            pullUpdates.add(Updates.setOnInsert("schema_version", PlayerDataMigrator.CURRENT_SCHEMA_VERSION));
+            // Upsert only so that a version mismatch fails with a duplicate key error
+            models.add(new UpdateOneModel<>(filter(version, versioned), Updates.combine(pullUpdates), new UpdateOptions().upsert(true)));
+        }
+        return models;
+    }
+
+    /**
+     * Applies this delta to a stored document the way its write models would be applied by MongoDB,
+     * for stores that keep documents themselves. The stored document is not modified.
+     *
+     * @param stored The stored document, or null if the player has none.
+     * @param serverId The id of the writing server, or null to leave {@code last_write} untouched.
+     * @param versioned false to apply regardless of the stored version, as {@link #toReplayModels()} does.
+     * @return The new document, or null if the stored version is not the expected one.
+     */
+    public Document applyTo(Document stored, String serverId, boolean versioned) {
+        long storedVersion = stored != null ? PlayerData.versionOf(stored) : 0L;
+        if (versioned && storedVersion != expectedVersion) {
+            return null;
+        }
+
+        Document document = stored != null ? new Document(stored)
+                : new Document("_id", playerUuid).append("schema_version", PlayerDataMigrator.CURRENT_SCHEMA_VERSION);
+        if (name != null) {
+            document.put("name", name);
+        }
+        if (lastSeenMillis != null) {
+            Long storedLastSeen = document.getLong("last_seen_millis");
+            if (versioned || storedLastSeen == null || storedLastSeen < lastSeenMillis) {
+                document.put("last_seen_millis", lastSeenMillis);
+            }
+        }
+        if (!addedFriends.isEmpty() || !removedFriends.isEmpty()) {
+            Set<UUID> friends = new LinkedHashSet<>();
+            List<Object> storedFriends = document.getList("friends", Object.class);
+            if (storedFriends != null) {
+                storedFriends.forEach(friend -> friends.add(PlayerDataMigrator.toUuid(friend)));
+            }
+            friends.addAll(addedFriends);
+            friends.removeAll(removedFriends);
+            document.put("friends", new ArrayList<>(friends));
+        }
+        if (serverId != null) {
+            document.put("last_write", new Document("server", serverId).append("id", new ObjectId()));
+        }
+        document.put("version", storedVersion + getWriteCount());
+        return document;
+    }
+
+    // Matches the player's document at the given version; documents written before versioning count as version 0
+    private Bson filter(long version, boolean versioned) {
+        Bson id = Filters.eq("_id", playerUuid);
+        if (!versioned) {
+            return id;
+        }
+        if (version == 0L) {
+            return Filters.and(id, Filters.or(Filters.eq("version", 0L), Filters.exists("version", false)));
+        }
+        return Filters.and(id, Filters.eq("version", version));
+    }
+
+    private static Bson writeTag(String serverId) {
+        return Updates.set("last_write", new Document("server", serverId).append("id", new ObjectId()));
+    }
+}
@@ -0,0 +1,99 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A read-only view of the fields needed to display a player in a list: name, online status and last seen.
+ * Summaries of offline players are read with a projection that skips the friend list, so showing
+ * a player never pulls their friends over the wire or onto the heap.
+ */
+public final class PlayerSummary {
+
+    private final UUID uuid;
+    private final String name;
+    private final long lastSeenMillis;
+    private final boolean online;
+    private final String server; // Only set for players online on another server of the network
+
+    /**
+     * Constructs a new PlayerSummary.
+     * This constructor is package-private, intended to be called by PlayersManager.
+     *
+     * @param uuid The UUID of the player.
+     * @param name The last known name of the player.
+     * @param lastSeenMillis The epoch millisecond the player was last seen.
+     * @param online Whether the player is online on this server.
+     */
+    PlayerSummary(UUID uuid, String name, long lastSeenMillis, boolean online) {
+        this(uuid, name, lastSeenMillis, online, null);
+    }
+
+    private PlayerSummary(UUID uuid, String name, long lastSeenMillis, boolean online, String server) {
+        this.uuid = uuid;
+        this.name = name;
+        this.lastSeenMillis = lastSeenMillis;
+        this.online = online;
+        this.server = server;
+    }
+
+    /**
+     * Marks this player as online on another server of the network.
+     *
+     * @param server The id of the server the player is on.
+     * @return A summary of the same player, online.
+     */
+    PlayerSummary onServer(String server) {
+        return new PlayerSummary(uuid, name, lastSeenMillis, true, server);
+    }
+
+    /**
+     * Creates a summary of data that is already loaded.
+     *
+     * @param uuid The UUID of the player.
+     * @param playerData The player's loaded data.
+     * @return The summary.
+     */
+    static PlayerSummary of(UUID uuid, PlayerData playerData) {
+        return new PlayerSummary(uuid, playerData.getName(), playerData.getLastSeenInstant().toEpochMilli(), playerData.isOnline());
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    /**
+     * Checks whether the player is online, on this server or another server of the network.
+     *
+     * @return true if online.
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * Gets the server of the network the player is online on.
+     *
+     * @return The server id, or null if the player is offline or on this server.
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the last seen time in the same format as {@link PlayerData#getLastSeen()}.
+     *
+     * @return "Online", or a human-readable time since the player was last seen.
+     */
+    public String getLastSeen() {
+        return online ? "Online" : PlayerData.formatLastSeen(Instant.ofEpochMilli(lastSeenMillis));
+    }
+}
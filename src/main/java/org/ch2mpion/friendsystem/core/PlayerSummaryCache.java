@@ -0,0 +1,78 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A small cache of {@link PlayerSummary} entries for offline players.
+ * Bounded in size with least-recently-used eviction, and entries expire a fixed time after they were read
+ * from the database, so names and last seen times shown in lists are at most that old.
+ */
+public class PlayerSummaryCache {
+
+    private static final class Entry {
+        private final PlayerSummary summary;
+        private final long loadedNanos;
+
+        private Entry(PlayerSummary summary, long loadedNanos) {
+            this.summary = summary;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+
+    private final long expireAfterWriteNanos;
+    // Access-ordered with a size bound; guarded by 'this'
+    private final LinkedHashMap<UUID, Entry> entries;
+
+    /**
+     * Constructs a new PlayerSummaryCache.
+     *
+     * @param maxEntries The maximum number of cached summaries.
+     * @param expireAfterWriteSeconds Seconds after which a summary is read from the database again.
+     */
+    public PlayerSummaryCache(int maxEntries, long expireAfterWriteSeconds) {
+        int bound = Math.max(1, maxEntries);
+        this.expireAfterWriteNanos = Math.max(1L, expireAfterWriteSeconds) * 1_000_000_000L;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > bound;
+            }
+        };
+    }
+
+    /**
+     * Gets a cached summary.
+     *
+     * @param uuid The UUID of the player.
+     * @return The summary, or null if absent or expired.
+     */
+    public synchronized PlayerSummary get(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedNanos > expireAfterWriteNanos) {
+            entries.remove(uuid);
+            return null;
+        }
+        return entry.summary;
+    }
+
+    public synchronized void put(PlayerSummary summary) {
+        entries.put(summary.getUuid(), new Entry(summary, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(UUID uuid) {
+        entries.remove(uuid);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
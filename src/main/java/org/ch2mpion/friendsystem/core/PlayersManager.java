@@ -1,67 +1,501 @@
 package org.ch2mpion.friendsystem.core;
 
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.ReplaceOptions;
 import org.bson.Document;
 import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.metrics.MetricsRegistry;
 
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService; // Add this import
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.logging.Level;
+import java.util.function.Supplier;
 
 /**
  * Manages all player-related data, including in-memory friend requests and
- * persistent player data (name, last seen, friend list) stored in MongoDB.
+ * persistent player data (name, last seen, friend list) kept in a {@link PlayerDataStore} (MongoDB by default).
  */
 public class PlayersManager {
 
-    // --- Configuration Constants ---
-    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(1);
+    /**
+     * The outcome of {@link #addFriend(UUID, PlayerData, UUID, PlayerData)} and {@link #removeFriend(UUID, PlayerData, UUID, PlayerData)}.
+     */
+    public enum FriendChange {
+        CHANGED,
+        // Already friends, or not friends to begin with
+        UNCHANGED,
+        // The data of one of the players is neither cached nor was it passed in
+        NOT_LOADED
+    }
+
+    // --- Configuration Defaults ---
+    private static final long DEFAULT_REQUEST_TIMEOUT_SECONDS = 60L;
+    private static final long DEFAULT_EXPIRY_TICK_MILLIS = 1000L;
+    // Prefetched data of logins that never reached the join event is dropped after this long
+    private static final long PREFETCH_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
 
     // --- Plugin Instance ---
     private final FriendSystem friendSystem;
+    private final MetricsRegistry metrics;
 
     // --- Data Storage (In-Memory) ---
+    // Primary tier: players online on this server. Pinned until they quit.
     private final Map<UUID, PlayerData> playerDataByUUID = new ConcurrentHashMap<>();
-    private final Map<UUID, Set<Request>> incomingRequests = new ConcurrentHashMap<>();
+    // Second tier: offline players loaded by commands. Bounded and evicting.
+    private final OfflinePlayerCache offlineCache;
+    // Case-insensitive name -> UUID lookups backed by the name index
+    private final NameResolver nameResolver;
+    // Display-only summaries of players that are not cached in full
+    private final PlayerSummaryCache summaryCache;
+    // Data loaded during login, handed over to the join event; see PreLoginEvent
+    private final Map<UUID, Prefetched> prefetched = new ConcurrentHashMap<>();
+    // Single-flight: loads currently running, shared by every concurrent caller for the same player
+    private final Map<UUID, CompletableFuture<PlayerData>> inFlightLoads = new ConcurrentHashMap<>();
+    // Pending requests, indexed by receiver and by sender
+    private final RequestStore requestStore;
+    // Expires requests close to their deadline without scanning pending requests
+    private final RequestExpiryWheel requestExpiryWheel;
+    // Tab completion: names of online players, and of each online player's friends and requesters
+    private final PrefixNameSet onlineNames = new PrefixNameSet();
+    private final NamePrefixIndex friendNames = new NamePrefixIndex();
+    private final NamePrefixIndex requesterNames = new NamePrefixIndex();
+    // Friend lists of cached players as an int-id graph, for mutual friends and suggestions
+    private final FriendGraph friendGraph = new FriendGraph();
+    private final int suggestLoadLimit;
+    private final int suggestScanLimit;
+    // Online players here who have X as a friend, and each one's count of friends online in the network
+    private final OnlineFriendsIndex onlineFriends = new OnlineFriendsIndex(this::isOnlineElsewhere);
+    // Announces friends coming online and going offline; null if disabled
+    private final FriendNotifier friendNotifier;
 
-    // --- Database Manager ---
+    // --- Storage ---
+    private final PlayerDataStore store;
+    // Coalesces dirty players into periodic bulk writes
+    private final WriteBehindQueue writeBehindQueue;
+    // Upgrades legacy string-UUID documents in the background; null for other backends
+    private final PlayerDataMigrator playerDataMigrator;
+    // One document per friendship, read for players who are not cached; null if disabled
+    private final FriendshipEdges friendships;
+    // The MongoDB connection of the store, to stamp the edge collection as unmaintained while it is disabled; null for other backends
     private final MongoDBManager mongoDBManager;
+    // Whether the store answered the last reachability check; only touched by the journal redrive task
+    private boolean storeReachable = true;
+
+    // --- Network (multi-server) ---
+    // Who is online on which server; null if network sync is disabled
+    private final PresenceRegistry presence;
+    // Applies other servers' changes to the caches; null if network sync is disabled
+    private final ChangeStreamWatcher changeStreamWatcher;
 
     /**
-     * Constructs a new PlayersManager.
+     * Constructs a new PlayersManager. Network sync starts with {@link #start()}.
      *
-     * @param mongoDBManager The MongoDBManager instance for persistent data.
+     * @param store The store player data is loaded from and written to.
+     * @param mongoDBManager The MongoDB connection of the store, or null if the store is not MongoDB.
+     *                       Schema migration and network sync need it.
      */
-    public PlayersManager(MongoDBManager mongoDBManager) {
+    public PlayersManager(PlayerDataStore store, MongoDBManager mongoDBManager) {
         this.friendSystem = FriendSystem.getInstance();
+        this.metrics = friendSystem.getMetrics();
+        this.store = store;
         this.mongoDBManager = mongoDBManager;
+
+        ConfigurationSection network = friendSystem.getConfig().getConfigurationSection("network");
+        // Presence and change streams live in MongoDB; other stores serve a single server
+        boolean networkEnabled = mongoDBManager != null && (network == null || network.getBoolean("enabled", true));
+        String serverId = network != null ? network.getString("server-id", "") : "";
+        if (serverId == null || serverId.isEmpty()) {
+            serverId = UUID.randomUUID().toString().substring(0, 8); // Unique per start, good enough to tell our own writes apart
+        }
+
+        ConfigurationSection persistence = friendSystem.getConfig().getConfigurationSection("persistence");
+        this.writeBehindQueue = new WriteBehindQueue(friendSystem, store, friendSystem.getExecutors().background(),
+                networkEnabled ? serverId : null, friendSystem.getJournal(),
+                persistence != null ? persistence.getLong("flush-interval-millis", 1000L) : 1000L,
+                persistence != null ? persistence.getInt("batch-size", 500) : 500,
+                persistence != null ? persistence.getInt("max-pending", 5000) : 5000);
+
+        ConfigurationSection offline = friendSystem.getConfig().getConfigurationSection("cache.offline");
+        this.offlineCache = new OfflinePlayerCache(
+                offline != null ? offline.getInt("max-entries", 2000) : 2000,
+                offline != null ? offline.getLong("max-weight", 200_000L) : 200_000L,
+                offline != null ? offline.getLong("expire-after-access-seconds", 600L) : 600L);
+
+        ConfigurationSection names = friendSystem.getConfig().getConfigurationSection("cache.names");
+        this.nameResolver = new NameResolver(store, friendSystem.getExecutors().loads(), friendSystem.getLogger(),
+                names != null ? names.getInt("max-entries", 10_000) : 10_000,
+                names != null ? names.getLong("expire-after-write-seconds", 600L) : 600L,
+                names != null ? names.getLong("unknown-expire-seconds", 30L) : 30L);
+
+        ConfigurationSection summary = friendSystem.getConfig().getConfigurationSection("cache.summary");
+        this.summaryCache = new PlayerSummaryCache(
+                summary != null ? summary.getInt("max-entries", 5000) : 5000,
+                summary != null ? summary.getLong("expire-after-write-seconds", 30L) : 30L);
+
+        ConfigurationSection requests = friendSystem.getConfig().getConfigurationSection("requests");
+        this.requestStore = new RequestStore(requests != null ? requests.getInt("max-outgoing", 20) : 20);
+        this.requestExpiryWheel = new RequestExpiryWheel(
+                1000L * (requests != null ? requests.getLong("timeout-seconds", DEFAULT_REQUEST_TIMEOUT_SECONDS) : DEFAULT_REQUEST_TIMEOUT_SECONDS),
+                getExpiryTickMillis(),
+                System.currentTimeMillis());
+
+        // Legacy documents are upgraded when loaded; the background migrator converts the rest without downtime
+        ConfigurationSection migration = friendSystem.getConfig().getConfigurationSection("migration");
+        this.playerDataMigrator = mongoDBManager != null ? new PlayerDataMigrator(mongoDBManager, friendSystem.getLogger(),
+                migration != null ? migration.getInt("batch-size", 500) : 500) : null;
+        boolean backgroundMigration = playerDataMigrator != null && (migration == null || migration.getBoolean("background", true));
+        // Friend lists are copied to the edge collection once the documents holding them are in the current schema
+        this.friendships = friendSystem.getFriendships();
+        if (backgroundMigration || friendships != null) {
+            friendSystem.getExecutors().background().execute(() -> {
+                if (backgroundMigration) {
+                    playerDataMigrator.migrateAll();
+                }
+                if (friendships != null) {
+                    friendships.backfill();
+                }
+            });
+        }
+        if (friendships == null && mongoDBManager != null) {
+            // Edges of other servers go stale from this server's first write on
+            friendSystem.getExecutors().background().execute(this::checkFriendships);
+        }
+
+        if (networkEnabled) {
+            this.presence = new PresenceRegistry(mongoDBManager, friendSystem.getExecutors().background(), friendSystem.getLogger(),
+                    serverId, network != null ? network.getLong("presence-ttl-seconds", 90L) : 90L);
+            presence.createIndexes();
+            this.changeStreamWatcher = new ChangeStreamWatcher(mongoDBManager, presence, new ChangeStreamWatcher.Listener() {
+                @Override
+                public void onPlayerDataChanged(UUID playerUuid, Document document) {
+                    applyRemoteChange(playerUuid, document);
+                }
+
+                @Override
+                public void onPresenceChanged(UUID playerUuid) {
+                    refreshOnlineFriend(playerUuid);
+                }
+
+                @Override
+                public void onResync() {
+                    resyncCaches();
+                }
+            }, friendSystem.getLogger(), serverId);
+            friendSystem.getLogger().info("Network sync enabled as server '" + serverId + "'.");
+            metrics.gauge("network_online_players", presence::getOnlineCount);
+        } else {
+            this.presence = null;
+            this.changeStreamWatcher = null;
+        }
+
+        ConfigurationSection graph = friendSystem.getConfig().getConfigurationSection("graph");
+        this.suggestLoadLimit = graph != null ? graph.getInt("suggest-load-limit", 100) : 100;
+        this.suggestScanLimit = Math.max(1, graph != null ? graph.getInt("suggest-scan-limit", 2000) : 2000);
+
+        ConfigurationSection notifications = friendSystem.getConfig().getConfigurationSection("notifications");
+        this.friendNotifier = notifications == null || notifications.getBoolean("enabled", true)
+                ? new FriendNotifier(friendSystem, this, onlineFriends,
+                        notifications != null ? notifications.getLong("debounce-millis", 2000L) : 2000L,
+                        notifications != null ? notifications.getLong("cooldown-seconds", 10L) : 10L,
+                        notifications != null ? notifications.getInt("max-per-tick", 200) : 200)
+                : null;
+
+        metrics.gauge("online_players", playerDataByUUID::size);
+        metrics.gauge("offline_cache_size", offlineCache::size);
+        metrics.gauge("offline_cache_hit_rate", offlineCache::getHitRate);
+        metrics.gauge("summary_cache_size", summaryCache::size);
+        metrics.gauge("pending_requests", requestStore::size);
+        metrics.gauge("pending_saves", writeBehindQueue::getPendingCount);
+        metrics.gauge("friend_graph_players", friendGraph::getPlayerCount);
+        metrics.gauge("friend_graph_edges", friendGraph::getEdgeCount);
+        metrics.gauge("online_friends_watched", onlineFriends::getWatchedCount);
+        if (friendNotifier != null) {
+            metrics.gauge("friend_notifications_queued", friendNotifier::getQueuedCount);
+        }
+    }
+
+    /**
+     * Starts applying other servers' changes. Must be called once, after construction: the watcher thread calls
+     * back into this manager right away, so it may only see a fully built instance.
+     * Does nothing if network sync is disabled.
+     */
+    public void start() {
+        if (changeStreamWatcher != null) {
+            changeStreamWatcher.start();
+        }
+    }
+
+    /**
+     * Gets the configured resolution of request expiry; the expiry task should run at this interval.
+     *
+     * @return The expiry tick length in milliseconds.
+     */
+    public long getExpiryTickMillis() {
+        ConfigurationSection requests = friendSystem.getConfig().getConfigurationSection("requests");
+        return Math.max(50L, requests != null ? requests.getLong("expiry-tick-millis", DEFAULT_EXPIRY_TICK_MILLIS) : DEFAULT_EXPIRY_TICK_MILLIS);
+    }
+
+    /**
+     * Flushes all pending writes. Must be called on plugin disable, before the store is closed.
+     */
+    public void shutdown() {
+        if (changeStreamWatcher != null) {
+            changeStreamWatcher.stop();
+        }
+        if (playerDataMigrator != null) {
+            playerDataMigrator.stop();
+        }
+        if (friendships != null) {
+            friendships.stop();
+        }
+        writeBehindQueue.shutdown();
+        if (presence != null) {
+            presence.clearServer();
+        }
+    }
+
+    /**
+     * Refreshes the heartbeat of this server's players in the presence collection.
+     * Called periodically from an asynchronous task; does nothing if network sync is disabled.
+     */
+    public void heartbeatPresence() {
+        if (presence != null) {
+            presence.heartbeat();
+        }
     }
 
-    // Helper to get the player_data collection
-    private MongoCollection<Document> getPlayerDataCollection() {
-        return mongoDBManager.getPlayerDataCollection();
+    /**
+     * Keeps the completed marker of the 'friendships' collection honest across servers: with the collection enabled,
+     * its state is re-checked and the backfill run again if another server stopped maintaining edges; on MongoDB with
+     * the collection disabled, this server stamps it as unmaintained. Called every minute from an asynchronous task.
+     */
+    public void checkFriendships() {
+        try {
+            if (friendships != null) {
+                friendships.checkState();
+            } else if (mongoDBManager != null) {
+                FriendshipEdges.markUnmaintained(mongoDBManager);
+            }
+        } catch (Exception e) {
+            friendSystem.getLogger().warning("Failed to check the state of the '" + FriendshipEdges.COLLECTION + "' collection: " + e.getMessage());
+        }
     }
 
-    // --- Player Data Management (Loading/Saving from MongoDB) ---
+    // --- Cache Coherence (changes made by other servers) ---
 
     /**
-     * Loads a player's data from MongoDB asynchronously.
+     * Applies a change another server made to a player's document.
+     * Cached data is updated in place (keeping local unsaved changes) or, for offline players without
+     * a new document, evicted; friend name indexes of local online players follow the change.
+     *
+     * @param playerUuid The UUID of the player whose document changed.
+     * @param document The document after the change, or null if it was deleted.
+     */
+    public void applyRemoteChange(UUID playerUuid, Document document) {
+        metrics.counter("remote_changes").increment();
+        summaryCache.invalidate(playerUuid);
+        PlayerData online = playerDataByUUID.get(playerUuid);
+        PlayerData playerData = online != null ? online : offlineCache.peek(playerUuid);
+        if (playerData == null) {
+            if (document != null && document.getString("name") != null) {
+                nameResolver.remember(playerUuid, document.getString("name"));
+            }
+            return;
+        }
+        if (document == null) {
+            if (online == null) {
+                offlineCache.remove(playerUuid);
+            }
+            return;
+        }
+
+        List<UUID> added = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        playerData.applyRemote(document, added, removed);
+        // The whole list, not just this diff: a conflict merge may already have applied the change without a diff
+        if (document.containsKey("friends")) {
+            friendGraph.load(playerUuid, playerData.getFriends());
+            offlineCache.reweigh(playerUuid);
+        }
+        String playerName = playerData.getName();
+        if (playerName != null) {
+            nameResolver.remember(playerUuid, playerName);
+        }
+
+        // The other side of every changed friendship, for friends online here
+        for (UUID friendUuid : added) {
+            friendNames.put(friendUuid, playerUuid, playerName);
+            onlineFriends.addFriend(friendUuid, playerUuid);
+        }
+        for (UUID friendUuid : removed) {
+            friendNames.remove(friendUuid, playerUuid);
+            onlineFriends.removeFriend(friendUuid, playerUuid);
+        }
+        if (online == null) {
+            return;
+        }
+        // This player is online here: keep their own friend indexes current
+        if (document.containsKey("friends")) {
+            onlineFriends.setFriends(playerUuid, online.getFriends());
+        }
+        for (UUID friendUuid : removed) {
+            friendNames.remove(playerUuid, friendUuid);
+        }
+        if (!added.isEmpty()) {
+            loadSummaries(added).thenAccept(summaries -> {
+                onlineFriends.updateLastSeen(lastSeenOf(summaries.values()));
+                for (PlayerSummary summary : summaries.values()) {
+                    if (online.isFriend(summary.getUuid())) {
+                        friendNames.put(playerUuid, summary.getUuid(), summary.getName());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the caches after changes of other servers may have been missed (first start of the
+     * change stream, or a stream that could not be resumed). Offline entries are evicted; online players'
+     * documents are read again and applied like remote changes.
+     */
+    public void resyncCaches() {
+        summaryCache.invalidateAll();
+        int evicted = offlineCache.invalidateAll();
+        friendGraph.retainLoaded(this::playerExists);
+
+        List<UUID> online = new ArrayList<>(playerDataByUUID.keySet());
+        if (!online.isEmpty() && store.isAvailable()) {
+            store.loadAll(online, List.of("name", "last_seen_millis", "friends", "version")).forEach(this::applyRemoteChange);
+        }
+        // The presence snapshot was reloaded just before; missed joins and quits are counted, not announced
+        onlineFriends.recount();
+        friendSystem.getLogger().fine("Resynchronized caches: evicted " + evicted + " offline players, refreshed " + online.size() + " online players.");
+    }
+
+    /**
+     * Gets the server of the network a player is online on.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The server id, or null if the player is offline or network sync is disabled.
+     */
+    public String getNetworkServer(UUID playerUuid) {
+        return presence != null ? presence.getServer(playerUuid) : null;
+    }
+
+    // Whether a player is online on another server; players online here are tracked by the online friends index
+    private boolean isOnlineElsewhere(UUID playerUuid) {
+        if (presence == null) {
+            return false;
+        }
+        String server = presence.getServer(playerUuid);
+        return server != null && !server.equals(presence.getServerId());
+    }
+
+    // Re-evaluates a player after their network presence changed and announces the transition to their friends here
+    private void refreshOnlineFriend(UUID playerUuid) {
+        if (onlineFriends.refresh(playerUuid) && friendNotifier != null) {
+            friendNotifier.post(playerUuid, onlineFriends.isOnline(playerUuid));
+        }
+    }
+
+    /**
+     * Gets how many friends of a player online on this server are online anywhere in the network.
+     * Maintained incrementally on joins, quits, presence and friendship changes; never touches a friend list.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The number of online friends, or -1 if the player is not online on this server.
+     */
+    public int getOnlineFriendCount(UUID playerUuid) {
+        return onlineFriends.getOnlineFriendCount(playerUuid);
+    }
+
+    /**
+     * Gets one page of the friend list of a player online on this server, online friends first, then the
+     * most recently seen first. Sliced from the order the online friends index maintains, so the cost is
+     * one page however many friends the player has; only the summaries of the page need to be loaded.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param page The page number, starting at 0; clamped to the last page.
+     * @param pageSize The number of friends per page.
+     * @return The page, or null if the player is not online on this server.
+     */
+    public FriendPage getOrderedFriendPage(UUID playerUuid, int page, int pageSize) {
+        return onlineFriends.page(playerUuid, page, pageSize);
+    }
+
+    private static Map<UUID, Long> lastSeenOf(Collection<PlayerSummary> summaries) {
+        Map<UUID, Long> lastSeen = new HashMap<>();
+        for (PlayerSummary summary : summaries) {
+            lastSeen.put(summary.getUuid(), summary.getLastSeenMillis());
+        }
+        return lastSeen;
+    }
+
+    /**
+     * Gets the notifier that announces friends coming online and going offline.
+     * Its {@link FriendNotifier#tick()} must run every tick on the main thread.
+     *
+     * @return The notifier, or null if notifications are disabled.
+     */
+    public FriendNotifier getFriendNotifier() {
+        return friendNotifier;
+    }
+
+    // Marks summaries of players online on another server as online
+    private PlayerSummary withPresence(PlayerSummary summary) {
+        if (presence == null || summary.isOnline()) {
+            return summary;
+        }
+        String server = presence.getServer(summary.getUuid());
+        return server != null ? summary.onServer(server) : summary;
+    }
+
+    // Looks a player up in both cache tiers; online players first.
+    private PlayerData getCached(UUID uuid) {
+        PlayerData playerData = playerDataByUUID.get(uuid);
+        if (playerData != null) {
+            metrics.counter("cache_lookups", "result", "online_hit").increment();
+            return playerData;
+        }
+        playerData = offlineCache.get(uuid);
+        metrics.counter("cache_lookups", "result", playerData != null ? "offline_hit" : "miss").increment();
+        return playerData;
+    }
+
+    // Caches a freshly loaded player in the offline tier, unless an instance is already cached.
+    private PlayerData cacheLoaded(UUID uuid, PlayerData playerData) {
+        PlayerData online = playerDataByUUID.get(uuid);
+        PlayerData cached = online != null ? online : offlineCache.putIfAbsent(uuid, playerData);
+        addToGraph(uuid, cached);
+        return cached;
+    }
+
+    // Adds a newly cached player's friend list to the friend graph
+    private void addToGraph(UUID uuid, PlayerData playerData) {
+        if (!friendGraph.isLoaded(uuid)) {
+            friendGraph.load(uuid, playerData.getFriends());
+        }
+    }
+
+    // --- Player Data Management (Loading/Saving through the PlayerDataStore) ---
+
+    /**
+     * Loads a player's data from the store asynchronously.
      * Prioritizes the in-memory cache. If data is not in cache, it attempts to load from DB.
      * If loaded from DB, it populates the in-memory cache. If not found in DB, a new PlayerData is created.
+     * Concurrent loads of the same player share a single database read and resolve to the same cached instance.
      *
      * @param playerUuid The UUID of the player to load.
      * @param playerName The current name of the player (used for new PlayerData if not found in DB, or for logging).
@@ -69,137 +503,519 @@ public class PlayersManager {
      */
     public CompletableFuture<PlayerData> loadPlayerData(UUID playerUuid, String playerName) {
         // 1. Check if data is already in cache (synchronous check)
-        PlayerData cachedData = playerDataByUUID.get(playerUuid);
+        PlayerData cachedData = getCached(playerUuid);
         if (cachedData != null) {
             return CompletableFuture.completedFuture(cachedData);
         }
 
-        // 2. If not in cache, asynchronously load from MongoDB using the custom executor
-        ExecutorService executor = friendSystem.getAsyncExecutor(); // Get the custom executor
+        // 2. Join a load that is already in flight, or become the single loader for this player
+        CompletableFuture<PlayerData> promise = new CompletableFuture<>();
+        CompletableFuture<PlayerData> inFlight = inFlightLoads.putIfAbsent(playerUuid, promise);
+        if (inFlight != null) {
+            // A bulk load completes with null for players without a document
+            return inFlight.thenApply(playerData -> playerData != null ? playerData : cacheLoaded(playerUuid, new PlayerData(playerName)));
+        }
+
+        // The previous loader may have cached the player between our cache check and putIfAbsent
+        cachedData = getCached(playerUuid);
+        if (cachedData != null) {
+            completeLoad(playerUuid, promise, cachedData, null);
+            return promise;
+        }
+
+        // 3. If not in cache, asynchronously load from the store using the bounded load executor
+        BoundedExecutor executor = friendSystem.getExecutors().loads();
         if (executor == null || executor.isShutdown()) {
             friendSystem.getLogger().severe("Asynchronous executor is not available or shut down. Cannot load player data for " + playerName + ".");
-            // Fallback: return a CompletableFuture that completes exceptionally or with empty data.
-            // For now, let's create a new PlayerData and complete the future immediately.
+            // Fallback: create a new PlayerData and complete the future immediately.
             // In a production environment, you might want a more robust error handling.
-            PlayerData newPlayerData = new PlayerData(playerName);
-            playerDataByUUID.put(playerUuid, newPlayerData); // Cache immediately as a fallback
-            return CompletableFuture.completedFuture(newPlayerData);
+            completeLoad(playerUuid, promise, cacheLoaded(playerUuid, new PlayerData(playerName)), null); // Cache immediately as a fallback
+            return promise;
         }
 
-
-        return CompletableFuture.supplyAsync(() -> {
-                    if (!mongoDBManager.isConnected()) {
-                        friendSystem.getLogger().warning("MongoDB not connected. Cannot load player data for " + playerName + ". Creating new in-memory data.");
-                        return new PlayerData(playerName);
-                    }
-
-                    MongoCollection<Document> collection = getPlayerDataCollection();
-                    if (collection == null) {
-                        friendSystem.getLogger().severe("Player data collection is null. Cannot load player data for " + playerName + ". Creating new in-memory data.");
+        MetricsRegistry.Timer loadTimer = metrics.startTimer("player_load");
+        executor.supply(() -> {
+                    if (!store.isAvailable()) {
+                        friendSystem.getLogger().warning("Player data store not available. Cannot load player data for " + playerName + ". Creating new in-memory data.");
                         return new PlayerData(playerName);
                     }
 
-                    // Find the document by its _id (which is the player's UUID string)
-                    Document doc = collection.find(Filters.eq("_id", playerUuid.toString())).first();
+                    Document doc = store.load(playerUuid);
 
                     PlayerData playerData;
                     if (doc != null) {
                         playerData = new PlayerData(doc);
-                        // Optionally update name if it changed (e.g., Mojang name change).
-                        // Ensure PlayerData.name is mutable or handle replacement.
-                        // For now, the DB's name is authoritative unless explicitly updated and saved.
-                        friendSystem.getLogger().fine("Loaded player data for " + playerData.getName() + " from MongoDB.");
+                        friendSystem.getLogger().fine("Loaded player data for " + playerData.getName() + " from the " + store.getName() + " store.");
                     } else {
                         playerData = new PlayerData(playerName); // Use provided playerName for new data
                         friendSystem.getLogger().fine("No existing player data found for " + playerName + ". Creating new in-memory data.");
                     }
                     return playerData; // Return the loaded/new PlayerData, don't cache it here yet.
-                }, executor) // Use the custom executor here
-                .thenApply(playerData -> {
-                    // 3. Cache the loaded/new PlayerData AFTER the asynchronous operation completes successfully.
-                    // This ensures thread safety and that data is only added when fully prepared.
-                    playerDataByUUID.put(playerUuid, playerData);
-                    return playerData;
+                }) // A saturated executor fails the future instead of spawning more threads
+                .whenComplete((playerData, error) -> {
+                    loadTimer.stop(); // Includes time spent waiting for a free load thread
+                    // 4. Cache the loaded/new PlayerData AFTER the asynchronous operation completes successfully.
+                    // Loads land in the offline tier; JoinEvent promotes the player via markOnline.
+                    completeLoad(playerUuid, promise, error == null ? cacheLoaded(playerUuid, playerData) : null, error);
                 });
+        return promise;
+    }
+
+    // Completes a single-flight promise and releases its slot so later cache misses start a fresh load.
+    private void completeLoad(UUID playerUuid, CompletableFuture<PlayerData> promise, PlayerData playerData, Throwable error) {
+        inFlightLoads.remove(playerUuid, promise);
+        if (error != null) {
+            promise.completeExceptionally(error);
+        } else {
+            promise.complete(playerData);
+        }
     }
 
     /**
-     * Saves a player's data to MongoDB asynchronously.
-     * Uses upsert to either insert new data or update existing data.
+     * Loads the data of several players at once.
+     * Cached entries are returned directly; all cache misses are fetched from the store
+     * with a single bulk read (one {@code $in} query in MongoDB) instead of one query per player.
+     * Players whose load is already in flight are not queried again; their pending load is awaited instead.
+     * Players that have no document in the database are absent from the returned map.
      *
-     * @param playerUuid The UUID of the player to save.
-     * @return A CompletableFuture that completes when the save operation is done.
+     * @param playerUuids The UUIDs of the players to load.
+     * @return A CompletableFuture that completes with a map of UUID to PlayerData for every player that was found.
      */
-    public CompletableFuture<Void> savePlayerData(UUID playerUuid) {
-        ExecutorService executor = friendSystem.getAsyncExecutor(); // Get the custom executor
+    public CompletableFuture<Map<UUID, PlayerData>> loadPlayerData(Collection<UUID> playerUuids) {
+        Map<UUID, PlayerData> result = new ConcurrentHashMap<>();
+        Map<UUID, CompletableFuture<PlayerData>> ownedLoads = new HashMap<>();
+        List<CompletableFuture<Void>> joinedLoads = new ArrayList<>();
+
+        // 1. Serve whatever we can from the cache, join loads in flight and claim the rest
+        for (UUID playerUuid : playerUuids) {
+            PlayerData cachedData = getCached(playerUuid);
+            if (cachedData != null) {
+                result.put(playerUuid, cachedData);
+                continue;
+            }
+            CompletableFuture<PlayerData> promise = new CompletableFuture<>();
+            CompletableFuture<PlayerData> inFlight = inFlightLoads.putIfAbsent(playerUuid, promise);
+            if (inFlight != null) {
+                joinedLoads.add(inFlight.thenAccept(playerData -> {
+                    if (playerData != null) {
+                        result.put(playerUuid, playerData);
+                    }
+                }));
+            } else {
+                ownedLoads.put(playerUuid, promise);
+            }
+        }
+
+        CompletableFuture<Void> bulkLoad = ownedLoads.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : bulkLoad(ownedLoads).thenAccept(result::putAll);
+
+        joinedLoads.add(bulkLoad);
+        return CompletableFuture.allOf(joinedLoads.toArray(new CompletableFuture[0])).thenApply(v -> result);
+    }
+
+    // Fetches every claimed player with one bulk read and completes their single-flight promises.
+    private CompletableFuture<Map<UUID, PlayerData>> bulkLoad(Map<UUID, CompletableFuture<PlayerData>> ownedLoads) {
+        BoundedExecutor executor = friendSystem.getExecutors().loads();
         if (executor == null || executor.isShutdown()) {
-            friendSystem.getLogger().severe("Asynchronous executor is not available or shut down. Cannot save player data for " + playerUuid + ".");
-            return CompletableFuture.completedFuture(null); // Return immediately if executor not ready
+            friendSystem.getLogger().severe("Asynchronous executor is not available or shut down. Cannot bulk load " + ownedLoads.size() + " players.");
+            ownedLoads.forEach((uuid, promise) -> completeLoad(uuid, promise, null, null));
+            return CompletableFuture.completedFuture(new HashMap<>());
         }
 
-        return CompletableFuture.runAsync(() -> {
-            if (!mongoDBManager.isConnected()) {
-                friendSystem.getLogger().warning("MongoDB not connected. Cannot save player data for " + playerUuid + ".");
-                return;
-            }
+        // 2. Fetch all cache misses with one round trip
+        MetricsRegistry.Timer loadTimer = metrics.startTimer("player_bulk_load");
+        return executor.supply(() -> {
+                    Map<UUID, PlayerData> loaded = new HashMap<>();
+                    if (!store.isAvailable()) {
+                        friendSystem.getLogger().warning("Player data store not available. Cannot bulk load " + ownedLoads.size() + " players.");
+                        return loaded;
+                    }
+
+                    store.loadAll(ownedLoads.keySet(), null).forEach((playerUuid, doc) -> loaded.put(playerUuid, new PlayerData(doc)));
+                    friendSystem.getLogger().fine("Bulk loaded " + loaded.size() + "/" + ownedLoads.size() + " players from the " + store.getName() + " store.");
+                    return loaded;
+                })
+                .handle((loaded, error) -> {
+                    loadTimer.stop();
+                    // 3. Cache the loaded entries; keep an instance that was cached meanwhile (e.g. by a join)
+                    Map<UUID, PlayerData> cached = new HashMap<>();
+                    ownedLoads.forEach((uuid, promise) -> {
+                        PlayerData playerData = loaded != null ? loaded.get(uuid) : null;
+                        if (playerData != null) {
+                            playerData = cacheLoaded(uuid, playerData);
+                            cached.put(uuid, playerData);
+                        }
+                        completeLoad(uuid, promise, playerData, error);
+                    });
+                    if (error != null) {
+                        throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+                    }
+                    return cached;
+                });
+    }
+
+    /**
+     * Resolves a player name (case-insensitive) to the UUID of a player who has joined before.
+     * Never blocks and never calls Mojang; unknown names are looked up in the store on the load executor.
+     *
+     * @param name The player name, in any case.
+     * @return A CompletableFuture with the resolved player, or with null if the name is unknown.
+     */
+    public CompletableFuture<NameResolver.ResolvedPlayer> resolvePlayer(String name) {
+        return nameResolver.resolve(name);
+    }
+
+    /**
+     * Remembers the current name of a player who joined, so resolving it needs no database lookup.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param playerName Their current name.
+     */
+    public void rememberName(UUID playerUuid, String playerName) {
+        nameResolver.remember(playerUuid, playerName);
+    }
+
+    /**
+     * Loads display-only summaries (name, online status, last seen) of several players.
+     * Players whose full data is cached are summarized from it; the rest are served from the summary cache
+     * or fetched with a single bulk read that skips the friend list.
+     * Nothing is added to the PlayerData caches.
+     * Players that have no document in the database are absent from the returned map.
+     *
+     * @param playerUuids The UUIDs of the players to summarize.
+     * @return A CompletableFuture that completes with a map of UUID to PlayerSummary for every player that was found.
+     */
+    public CompletableFuture<Map<UUID, PlayerSummary>> loadSummaries(Collection<UUID> playerUuids) {
+        Map<UUID, PlayerSummary> result = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
 
+        // 1. Fully cached players give fresh summaries for free; then try the summary cache
+        for (UUID playerUuid : playerUuids) {
             PlayerData playerData = playerDataByUUID.get(playerUuid);
             if (playerData == null) {
-                friendSystem.getLogger().warning("Attempted to save player data for " + playerUuid + " but it's not in memory cache. Skipping save.");
-                return;
+                playerData = offlineCache.peek(playerUuid);
+            }
+            if (playerData != null) {
+                result.put(playerUuid, withPresence(PlayerSummary.of(playerUuid, playerData)));
+                continue;
             }
+            PlayerSummary summary = summaryCache.get(playerUuid);
+            if (summary != null) {
+                result.put(playerUuid, withPresence(summary));
+                metrics.counter("summary_lookups", "result", "hit").increment();
+            } else {
+                missing.add(playerUuid);
+                metrics.counter("summary_lookups", "result", "miss").increment();
+            }
+        }
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
 
-            MongoCollection<Document> collection = getPlayerDataCollection();
-            if (collection == null) {
-                friendSystem.getLogger().severe("Player data collection is null. Cannot save player data for " + playerData.getName() + ".");
-                return;
+        BoundedExecutor executor = friendSystem.getExecutors().loads();
+        if (executor == null || executor.isShutdown()) {
+            friendSystem.getLogger().severe("Asynchronous executor is not available or shut down. Cannot load " + missing.size() + " player summaries.");
+            return CompletableFuture.completedFuture(result);
+        }
+
+        // 2. Fetch the rest with one round trip, reading only the displayed fields
+        MetricsRegistry.Timer loadTimer = metrics.startTimer("summary_load");
+        return executor.supply(() -> {
+            if (!store.isAvailable()) {
+                friendSystem.getLogger().warning("Player data store not available. Cannot load " + missing.size() + " player summaries.");
+                return result;
             }
 
-            // Convert PlayerData to a MongoDB Document
-            Document docToSave = playerData.toDocument(playerUuid);
+            for (Map.Entry<UUID, Document> entry : store.loadAll(missing, List.of("name", "last_seen_millis")).entrySet()) {
+                UUID playerUuid = entry.getKey();
+                Document doc = entry.getValue();
+                Long lastSeenMillis = doc.getLong("last_seen_millis");
+                PlayerSummary summary = new PlayerSummary(playerUuid, doc.getString("name"),
+                        lastSeenMillis != null ? lastSeenMillis : 0L, false);
+                summaryCache.put(summary); // Cached without presence, which changes far more often
+                result.put(playerUuid, withPresence(summary));
+            }
+            return result;
+        }).whenComplete((loaded, error) -> loadTimer.stop());
+    }
 
-            try {
-                collection.replaceOne(Filters.eq("_id", playerUuid.toString()), docToSave,
-                        new ReplaceOptions().upsert(true));
-                friendSystem.getLogger().fine("Saved player data for " + playerData.getName() + " to MongoDB.");
-            } catch (Exception e) {
-                friendSystem.getLogger().log(Level.SEVERE, "Failed to save player data for " + playerData.getName() + " to MongoDB.", e);
+    /**
+     * Marks a player's data as dirty so it is persisted by the write-behind queue.
+     * Several saves of the same player before the next flush are coalesced into a single write.
+     *
+     * @param playerUuid The UUID of the player to save.
+     * @return A CompletableFuture that completes once the player's data has been written to the store.
+     */
+    public CompletableFuture<Void> savePlayerData(UUID playerUuid) {
+        PlayerData playerData = getCached(playerUuid);
+        if (playerData == null) {
+            friendSystem.getLogger().warning("Attempted to save player data for " + playerUuid + " but it's not in memory cache. Skipping save.");
+            return CompletableFuture.completedFuture(null);
+        }
+        // Measured until the data is durable, i.e. including the write-behind delay
+        MetricsRegistry.Timer saveTimer = metrics.startTimer("player_save");
+        return writeBehindQueue.enqueue(playerUuid, playerData).whenComplete((v, error) -> saveTimer.stop());
+    }
+
+    /**
+     * Queues every player again whose journaled changes are still unsaved, e.g. because their save
+     * gave up while the store was unreachable. While there are such changes the store is checked with a
+     * round trip first: nothing is queued during an outage, and everything is queued as soon as it is reachable again.
+     * Called periodically from an asynchronous task.
+     */
+    public void redriveJournal() {
+        WriteAheadJournal journal = friendSystem.getJournal();
+        if (journal == null || journal.getUnsavedPlayerCount() == 0) {
+            return;
+        }
+        if (!store.isReachable()) {
+            if (storeReachable) {
+                storeReachable = false;
+                friendSystem.getLogger().warning("The " + store.getName() + " store is unreachable. Unsaved changes of "
+                        + journal.getUnsavedPlayerCount() + " players are kept in the write-ahead journal until it is back.");
             }
-        }, executor); // Use the custom executor here
+            return;
+        }
+        // Players saved within the last flush interval are still on their normal way
+        ConfigurationSection persistence = friendSystem.getConfig().getConfigurationSection("persistence");
+        long minAgeMillis = 2 * (persistence != null ? persistence.getLong("flush-interval-millis", 1000L) : 1000L);
+        if (!storeReachable) {
+            storeReachable = true;
+            minAgeMillis = 0L; // Nothing got through during the outage
+            friendSystem.getLogger().info("The " + store.getName() + " store is reachable again. Saving the journaled changes of "
+                    + journal.getUnsavedPlayerCount() + " players.");
+        }
+        for (UUID playerUuid : journal.getUnsavedPlayers(minAgeMillis)) {
+            PlayerData online = playerDataByUUID.get(playerUuid);
+            PlayerData playerData = online != null ? online : offlineCache.peek(playerUuid);
+            if (playerData != null && !writeBehindQueue.isPending(playerUuid)) {
+                metrics.counter("journal_redrives").increment();
+                writeBehindQueue.resubmit(playerUuid, playerData);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of players waiting in the write-behind queue.
+     *
+     * @return The number of dirty players not yet written to the store.
+     */
+    public int getPendingSaveCount() {
+        return writeBehindQueue.getPendingCount();
+    }
+
+    /**
+     * Pins a player's data in the online tier so it is never evicted while they are on this server.
+     *
+     * @param playerUuid The UUID of the player who joined.
+     * @param playerData The player's loaded data.
+     * @return The canonical cached instance for the player.
+     */
+    public PlayerData markOnline(UUID playerUuid, PlayerData playerData) {
+        PlayerData cached = offlineCache.remove(playerUuid);
+        PlayerData canonical = cached != null ? cached : playerData;
+        PlayerData existing = playerDataByUUID.putIfAbsent(playerUuid, canonical);
+        addToGraph(playerUuid, existing != null ? existing : canonical);
+        summaryCache.invalidate(playerUuid); // Summarized from the online tier from now on
+        if (presence != null) {
+            presence.markOnline(playerUuid);
+        }
+        PlayerData result = existing != null ? existing : canonical;
+        if (onlineFriends.join(playerUuid, result.getFriends()) && friendNotifier != null) {
+            friendNotifier.post(playerUuid, true);
+        }
+        return result;
     }
 
     /**
-     * Removes a player's data from the in-memory cache.
-     * This should be called after saving on quit or after temporary loads for offline players.
+     * Hands over data that was loaded while a player was logging in.
+     * The join event takes it with {@link #takePrefetched(UUID)}.
      *
-     * @param playerUuid The UUID of the player to remove.
+     * @param playerUuid The UUID of the player logging in.
+     * @param playerData The player's loaded data.
      */
-    public void removePlayerFromCache(UUID playerUuid) {
-        playerDataByUUID.remove(playerUuid);
+    public void putPrefetched(UUID playerUuid, PlayerData playerData) {
+        prefetched.put(playerUuid, new Prefetched(playerData, System.nanoTime()));
+    }
+
+    /**
+     * Takes the data loaded while a player was logging in.
+     *
+     * @param playerUuid The UUID of the player who joined.
+     * @return The prefetched data, or null if none was loaded in time.
+     */
+    public PlayerData takePrefetched(UUID playerUuid) {
+        Prefetched entry = prefetched.remove(playerUuid);
+        return entry != null ? entry.playerData : null;
+    }
+
+    /**
+     * Takes a player who is quitting out of the online friends index and announces it to their friends here.
+     * Called when they quit, before their data is saved, so friends are told without waiting for the write.
+     *
+     * @param playerUuid The UUID of the player who quit.
+     */
+    public void markLeaving(UUID playerUuid) {
+        if (onlineFriends.leave(playerUuid) && friendNotifier != null) {
+            friendNotifier.post(playerUuid, false);
+        }
+    }
+
+    /**
+     * Moves a player who left from the online tier into the evicting offline tier.
+     * Their data stays warm for friends' commands but no longer counts against the online set.
+     * Must be called on the main thread, so it cannot race with the player joining again.
+     *
+     * @param playerUuid The UUID of the player who quit.
+     */
+    public void moveToOfflineCache(UUID playerUuid) {
+        PlayerData playerData = playerDataByUUID.remove(playerUuid);
+        if (playerData != null) {
+            offlineCache.putIfAbsent(playerUuid, playerData);
+        }
         // Also remove any pending incoming requests for this player
-        incomingRequests.remove(playerUuid);
-        friendSystem.getLogger().fine("Removed player " + playerUuid + " from in-memory cache.");
+        requestStore.removeIncoming(playerUuid);
+        unindexOnlinePlayer(playerUuid);
+        if (presence != null) {
+            presence.markOffline(playerUuid);
+        }
+        friendSystem.getLogger().fine("Moved player " + playerUuid + " to the offline cache.");
+    }
+
+    /**
+     * Adds a player who joined to the tab completion indexes.
+     * Their own friend and requester sets are filled with names from the caches or one projected query;
+     * from then on they are maintained incrementally by friend and request operations.
+     * Must be called after {@link #markOnline(UUID, PlayerData)} and after the player's name was updated.
+     *
+     * @param playerUuid The UUID of the player who joined.
+     * @param playerData The player's cached data.
+     */
+    public void indexOnlinePlayer(UUID playerUuid, PlayerData playerData) {
+        String playerName = playerData.getName();
+        onlineNames.put(playerUuid, playerName);
+        friendNames.track(playerUuid);
+        requesterNames.track(playerUuid);
+
+        // Their current name in the sets of online friends and of players they sent requests to
+        List<UUID> friends = playerData.getFriends();
+        for (UUID friendUuid : friends) {
+            friendNames.put(friendUuid, playerUuid, playerName);
+        }
+        for (Request request : requestStore.getOutgoing(playerUuid)) {
+            requesterNames.put(request.getRequestedId(), playerUuid, playerName);
+        }
+
+        List<UUID> named = new ArrayList<>(friends);
+        for (Request request : requestStore.getIncoming(playerUuid)) {
+            named.add(request.getRequester());
+        }
+        if (named.isEmpty()) {
+            return;
+        }
+        loadSummaries(named).thenAccept(summaries -> {
+            // The same summaries order the friend list, so paging it never loads the whole list again
+            onlineFriends.updateLastSeen(lastSeenOf(summaries.values()));
+            for (PlayerSummary summary : summaries.values()) {
+                UUID uuid = summary.getUuid();
+                // Relationships that ended while the names were loading are skipped
+                if (playerData.isFriend(uuid)) {
+                    friendNames.put(playerUuid, uuid, summary.getName());
+                }
+                if (requestStore.contains(uuid, playerUuid)) {
+                    requesterNames.put(playerUuid, uuid, summary.getName());
+                }
+            }
+        }).exceptionally(e -> {
+            friendSystem.getLogger().warning("Could not load friend names of " + playerName + " for tab completion: " + e.getMessage());
+            return null;
+        });
+    }
+
+    private void unindexOnlinePlayer(UUID playerUuid) {
+        onlineNames.remove(playerUuid);
+        friendNames.untrack(playerUuid);
+        requesterNames.untrack(playerUuid);
+    }
+
+    /**
+     * Completes the names of players online on this server.
+     *
+     * @param prefix The typed prefix, in any case.
+     * @param limit The maximum number of names.
+     * @return The matching names in alphabetical order.
+     */
+    public List<String> completeOnlineNames(String prefix, int limit) {
+        return onlineNames.complete(prefix, limit, null);
+    }
+
+    /**
+     * Completes the names of a player's friends from the in-memory index.
+     *
+     * @param playerUuid The UUID of the online player completing.
+     * @param prefix The typed prefix, in any case.
+     * @param limit The maximum number of names.
+     * @param onlineOnly Whether only friends online on this server are returned.
+     * @return The matching names in alphabetical order; empty if the player is not online.
+     */
+    public List<String> completeFriendNames(UUID playerUuid, String prefix, int limit, boolean onlineOnly) {
+        return friendNames.complete(playerUuid, prefix, limit, onlineOnly ? playerDataByUUID::containsKey : null);
+    }
+
+    /**
+     * Completes the names of players with a pending request to a player, from the in-memory index.
+     *
+     * @param playerUuid The UUID of the online player completing.
+     * @param prefix The typed prefix, in any case.
+     * @param limit The maximum number of names.
+     * @return The matching names in alphabetical order; empty if the player is not online.
+     */
+    public List<String> completeRequesterNames(UUID playerUuid, String prefix, int limit) {
+        return requesterNames.complete(playerUuid, prefix, limit, null);
+    }
+
+    /**
+     * Evicts expired offline entries and unclaimed prefetched data. Called periodically from an asynchronous task.
+     */
+    public void cleanUpOfflineCache() {
+        offlineCache.cleanUp();
+        // Players evicted from the offline tier since the last run leave the friend graph
+        friendGraph.retainLoaded(this::playerExists);
+        // Logins that were denied later or disconnected during the handshake
+        long now = System.nanoTime();
+        prefetched.values().removeIf(entry -> now - entry.prefetchedNanos > PREFETCH_RETENTION_NANOS);
+    }
+
+    /**
+     * Gets the offline cache tier, e.g. to report its size and hit/miss statistics.
+     *
+     * @return The OfflinePlayerCache.
+     */
+    public OfflinePlayerCache getOfflineCache() {
+        return offlineCache;
     }
 
     // --- In-Memory Player Data Access ---
 
     public boolean playerExists(UUID uuid) {
-        return playerDataByUUID.containsKey(uuid);
+        return playerDataByUUID.containsKey(uuid) || offlineCache.peek(uuid) != null;
     }
 
     public void addPlayer(UUID uuid, PlayerData playerData) {
         playerDataByUUID.put(uuid, playerData);
+        friendGraph.load(uuid, playerData.getFriends());
     }
 
     public PlayerData getPlayerData(UUID uuid) {
-        return playerDataByUUID.get(uuid);
+        return getCached(uuid);
     }
 
     public void updatePlayerData(UUID uuid, Consumer<PlayerData> updateAction) {
-        playerDataByUUID.computeIfPresent(uuid, (k, oldData) -> {
-            updateAction.accept(oldData);
-            return oldData;
-        });
+        PlayerData playerData = getCached(uuid);
+        if (playerData != null) {
+            updateAction.accept(playerData);
+        }
     }
 
     // --- In-Memory Friend Request Management ---
@@ -210,20 +1026,45 @@ public class PlayersManager {
      *
      * @param requesterId The UUID of the player sending the request.
      * @param requestedId The UUID of the player receiving the request.
+     * @return The outcome; a sender may only have a limited number of pending requests.
      */
-    public void addRequest(UUID requesterId, UUID requestedId) {
-        incomingRequests.computeIfAbsent(requestedId, k -> ConcurrentHashMap.newKeySet())
-                .add(new Request(requesterId, requestedId, Instant.now()));
+    public RequestStore.AddResult addRequest(UUID requesterId, UUID requestedId) {
+        RequestStore.AddResult result = requestStore.add(requesterId, requestedId, System.currentTimeMillis());
+        if (result == RequestStore.AddResult.ADDED) {
+            requestExpiryWheel.schedule(requestStore.get(requesterId, requestedId));
+            PlayerData requester = getCached(requesterId);
+            requesterNames.put(requestedId, requesterId, requester != null ? requester.getName() : null);
+        }
+        return result;
     }
 
     /**
      * Gets all incoming friend requests for a specific player.
      *
      * @param uuid The UUID of the player whose requests are to be retrieved.
-     * @return A Set of Request objects, or an empty set if none.
+     * @return A Collection of Request objects, or an empty collection if none.
+     */
+    public Collection<Request> getRequests(UUID uuid) {
+        return requestStore.getIncoming(uuid);
+    }
+
+    /**
+     * Gets all friend requests a specific player has sent and that are still pending.
+     *
+     * @param uuid The UUID of the player whose sent requests are to be retrieved.
+     * @return A Collection of Request objects, or an empty collection if none.
+     */
+    public Collection<Request> getOutgoingRequests(UUID uuid) {
+        return requestStore.getOutgoing(uuid);
+    }
+
+    /**
+     * Gets the maximum number of pending requests a player may have sent.
+     *
+     * @return The outgoing request limit; 0 or less if unlimited.
      */
-    public Set<Request> getRequests(UUID uuid) {
-        return incomingRequests.getOrDefault(uuid, Collections.emptySet());
+    public int getMaxOutgoingRequests() {
+        return requestStore.getMaxOutgoing();
     }
 
     /**
@@ -234,122 +1075,163 @@ public class PlayersManager {
      * @return true if the request exists, false otherwise.
      */
     public boolean hasIncomingRequest(UUID requesterId, UUID requestedId) {
-        Set<Request> requestsForTarget = incomingRequests.get(requestedId);
-        if (requestsForTarget == null || requestsForTarget.isEmpty()) {
-            return false;
-        }
-        for (Request request : requestsForTarget) {
-            if (request.getRequester().equals(requesterId)) {
-                return true;
-            }
-        }
-        return false;
+        return requestStore.contains(requesterId, requestedId);
     }
 
     /**
      * Removes a specific friend request from the in-memory store.
+     * Its entry in the expiry wheel is cancelled lazily.
      *
      * @param requesterId The UUID of the player who sent the request.
      * @param requestedId The UUID of the player who received the request.
      * @return true if the request was successfully removed, false otherwise.
      */
     public boolean removeRequest(UUID requesterId, UUID requestedId) {
-        Set<Request> requestsForRequested = incomingRequests.get(requestedId);
-        if (requestsForRequested == null) {
+        if (requestStore.remove(requesterId, requestedId) == null) {
             return false;
         }
-        // Create a dummy Request object for removal; Request's equals() must check requester/requested
-        Request requestToRemove = new Request(requesterId, requestedId, Instant.now()); // Time doesn't matter for equals
-        boolean removed = requestsForRequested.remove(requestToRemove);
-        if (requestsForRequested.isEmpty()) {
-            incomingRequests.remove(requestedId); // Clean up empty sets
-        }
-        return removed;
+        requesterNames.remove(requestedId, requesterId);
+        return true;
+    }
+
+    /**
+     * Gets the total number of pending friend requests.
+     *
+     * @return The pending request count.
+     */
+    public int getPendingRequestCount() {
+        return requestStore.size();
     }
 
     /**
-     * Cleans up expired friend requests from the in-memory store.
-     * Notifies players if they are online.
-     * Note : this method is deprecated , the bungeecord version will use caffeine / Individual runTaskLater ( to avoid bad memory usage )
-                      But it's kept because a spigot server will never reach the same pressure as bungeecord
+     * Expires friend requests whose timeout has passed by advancing the expiry wheel.
+     * Only due requests are touched. All notifications of one run are sent in a single main-thread task.
+     * Called every expiry tick from an asynchronous task.
      */
     public void cleanUpExpiredRequests() {
-        Instant now = Instant.now();
-        Iterator<Map.Entry<UUID, Set<Request>>> mapIterator = incomingRequests.entrySet().iterator();
-        while (mapIterator.hasNext()) {
-            Map.Entry<UUID, Set<Request>> entry = mapIterator.next();
-            Set<Request> requests = entry.getValue();
-
-            Iterator<Request> requestIterator = requests.iterator();
-            while (requestIterator.hasNext()) {
-                Request request = requestIterator.next();
-                if (Duration.between(request.getRequestTime(), now).compareTo(REQUEST_TIMEOUT) > 0) {
-                    requestIterator.remove();
-
-                    // Notify players on the main thread
-                    Bukkit.getScheduler().runTask(friendSystem, () -> {
-                        Player requesterPlayer = Bukkit.getPlayer(request.getRequester());
-                        Player requestedPlayer = Bukkit.getPlayer(request.getRequestedId());
-
-                        if (requesterPlayer != null && requesterPlayer.isOnline()) {
-                            String targetName = (requestedPlayer != null) ? requestedPlayer.getName() : "a player";
-                            requesterPlayer.sendMessage(friendSystem.color("&7Your friend request to &b&l" + targetName + "&7 has expired and was automatically removed."));
-                        }
-                        if (requestedPlayer != null && requestedPlayer.isOnline()) {
-                            String requesterName = (requesterPlayer != null) ? requesterPlayer.getName() : "a player";
-                            requestedPlayer.sendMessage(friendSystem.color("&7The friend request from &b&l" + requesterName + "&7 has expired and was automatically removed."));
-                        }
-                    });
-                }
-            }
-            if (requests.isEmpty()) {
-                mapIterator.remove();
+        List<Request> due = requestExpiryWheel.advance(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            return;
+        }
+
+        List<Request> expired = new ArrayList<>(due.size());
+        for (Request request : due) {
+            // Requests that were accepted, rejected or re-sent meanwhile are skipped
+            if (requestStore.removeIfSame(request)) {
+                requesterNames.remove(request.getRequestedId(), request.getRequester());
+                expired.add(request);
             }
         }
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        // Notify players on the main thread, batched into one task per tick
+        Bukkit.getScheduler().runTask(friendSystem, () -> {
+            MessageCatalog messages = friendSystem.getMessages();
+            for (Request request : expired) {
+                Player requesterPlayer = Bukkit.getPlayer(request.getRequester());
+                Player requestedPlayer = Bukkit.getPlayer(request.getRequestedId());
+
+                if (requesterPlayer != null && requesterPlayer.isOnline()) {
+                    String targetName = (requestedPlayer != null) ? requestedPlayer.getName() : messages.get("request.unknown-player");
+                    requesterPlayer.sendMessage(messages.get("request.expired", "player", targetName));
+                }
+                if (requestedPlayer != null && requestedPlayer.isOnline()) {
+                    String requesterName = (requesterPlayer != null) ? requesterPlayer.getName() : messages.get("request.unknown-player");
+                    requestedPlayer.sendMessage(messages.get("request.expired-target", "player", requesterName));
+                }
+            }
+        });
     }
 
-    // --- Friend Relationship Operations (Operating on in-memory cache, then saved via savePlayerData) ---
+    // --- Friend Relationship Operations (Operating on in-memory cache, persisted by the write-behind queue) ---
 
     /**
      * Adds two players as friends in the in-memory cache.
-     * This change must be followed by a call to savePlayerData for both players to persist.
+     * Both players are marked dirty; call savePlayerData to obtain a future for the write.
+     * Data a command loaded beforehand is passed along, as the offline tier may have evicted it since.
      *
      * @param player1Id The UUID of the first player.
+     * @param player1Data The first player's loaded data, cached again if it was evicted; or null to use the cache only.
      * @param player2Id The UUID of the second player.
+     * @param player2Data The second player's loaded data, cached again if it was evicted; or null to use the cache only.
+     * @return The outcome; nothing changed unless it is {@link FriendChange#CHANGED}.
      */
-    public void addFriend(UUID player1Id, UUID player2Id) {
-        PlayerData data1 = playerDataByUUID.get(player1Id);
-        PlayerData data2 = playerDataByUUID.get(player2Id);
+    public FriendChange addFriend(UUID player1Id, PlayerData player1Data, UUID player2Id, PlayerData player2Data) {
+        PlayerData data1 = getCachedOrRecache(player1Id, player1Data);
+        PlayerData data2 = getCachedOrRecache(player2Id, player2Data);
 
         if (data1 == null || data2 == null) {
             friendSystem.getLogger().warning("Attempted to add friends but PlayerData not found for one or both in cache: " + player1Id + ", " + player2Id);
-            return;
+            return FriendChange.NOT_LOADED;
+        }
+        if (data1.isFriend(player2Id) && data2.isFriend(player1Id)) {
+            return FriendChange.UNCHANGED;
         }
 
         data1.addFriend(player2Id);
         data2.addFriend(player1Id);
+        offlineCache.reweigh(player1Id);
+        offlineCache.reweigh(player2Id);
+        friendNames.put(player1Id, player2Id, data2.getName());
+        friendNames.put(player2Id, player1Id, data1.getName());
+        friendGraph.addEdge(player1Id, player2Id);
+        onlineFriends.addFriend(player1Id, player2Id);
+        onlineFriends.addFriend(player2Id, player1Id);
+        onlineFriends.updateLastSeen(Map.of(player1Id, data1.getLastSeenInstant().toEpochMilli(),
+                player2Id, data2.getLastSeenInstant().toEpochMilli()));
+        writeBehindQueue.enqueue(player1Id, data1);
+        writeBehindQueue.enqueue(player2Id, data2);
         friendSystem.getLogger().fine(data1.getName() + " and " + data2.getName() + " are now friends (in-memory).");
+        return FriendChange.CHANGED;
     }
 
     /**
      * Removes friendship between two players in the in-memory cache.
-     * This change must be followed by a call to savePlayerData for both players to persist.
+     * Both players are marked dirty; call savePlayerData to obtain a future for the write.
+     * Data a command loaded beforehand is passed along, as the offline tier may have evicted it since.
      *
      * @param player1Id The UUID of the first player.
+     * @param player1Data The first player's loaded data, cached again if it was evicted; or null to use the cache only.
      * @param player2Id The UUID of the second player.
+     * @param player2Data The second player's loaded data, cached again if it was evicted; or null to use the cache only.
+     * @return The outcome; nothing changed unless it is {@link FriendChange#CHANGED}.
      */
-    public void removeFriend(UUID player1Id, UUID player2Id) {
-        PlayerData data1 = playerDataByUUID.get(player1Id);
-        PlayerData data2 = playerDataByUUID.get(player2Id);
+    public FriendChange removeFriend(UUID player1Id, PlayerData player1Data, UUID player2Id, PlayerData player2Data) {
+        PlayerData data1 = getCachedOrRecache(player1Id, player1Data);
+        PlayerData data2 = getCachedOrRecache(player2Id, player2Data);
 
         if (data1 == null || data2 == null) {
             friendSystem.getLogger().warning("Attempted to remove friends but PlayerData not found for one or both in cache: " + player1Id + ", " + player2Id);
-            return;
+            return FriendChange.NOT_LOADED;
+        }
+        if (!data1.isFriend(player2Id) && !data2.isFriend(player1Id)) {
+            return FriendChange.UNCHANGED;
         }
 
         data1.removeFriend(player2Id);
         data2.removeFriend(player1Id);
+        offlineCache.reweigh(player1Id);
+        offlineCache.reweigh(player2Id);
+        friendNames.remove(player1Id, player2Id);
+        friendNames.remove(player2Id, player1Id);
+        friendGraph.removeEdge(player1Id, player2Id);
+        onlineFriends.removeFriend(player1Id, player2Id);
+        onlineFriends.removeFriend(player2Id, player1Id);
+        writeBehindQueue.enqueue(player1Id, data1);
+        writeBehindQueue.enqueue(player2Id, data2);
         friendSystem.getLogger().fine(data1.getName() + " and " + data2.getName() + " are no longer friends (in-memory).");
+        return FriendChange.CHANGED;
+    }
+
+    // The cached instance of a player; loaded data that was evicted since is cached again instead of changed on the side
+    private PlayerData getCachedOrRecache(UUID uuid, PlayerData loaded) {
+        PlayerData cached = getCached(uuid);
+        if (cached != null || loaded == null) {
+            return cached;
+        }
+        return cacheLoaded(uuid, loaded);
     }
 
     /**
@@ -359,7 +1241,7 @@ public class PlayersManager {
      * @return A List of friend UUIDs, or an empty list if data not found or no friends.
      */
     public List<UUID> getFriendList(UUID playerId) {
-        PlayerData data = playerDataByUUID.get(playerId);
+        PlayerData data = getCached(playerId);
         if (data != null) {
             return data.getFriends();
         }
@@ -375,8 +1257,169 @@ public class PlayersManager {
      * @return true if they are friends, false otherwise or if player data is not loaded.
      */
     public boolean areFriendsInCache(UUID player1Id, UUID player2Id) {
-        PlayerData data1 = playerDataByUUID.get(player1Id);
+        PlayerData data1 = getCached(player1Id);
         // Only need to check one direction if friendship is always reciprocal in the list
-        return data1 != null && data1.getFriends().contains(player2Id);
+        return data1 != null && data1.isFriend(player2Id);
+    }
+
+    // --- Friend Reads (without caching the player) ---
+
+    /**
+     * Loads one page of a player's friend list without caching the player.
+     * Cached players are paged in memory. Otherwise the page is read from the 'friendships' collection,
+     * touching only the edges on it, or, if that is disabled, from the player's loaded data.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param after The cursor of the page ({@link FriendPage#getNext()} of the previous page), or null for the first page.
+     * @param limit The maximum number of friends on the page.
+     * @return A CompletableFuture with the page; empty if the player has no document.
+     */
+    public CompletableFuture<FriendPage> loadFriendPage(UUID playerUuid, UUID after, int limit) {
+        int pageSize = Math.max(1, limit);
+        PlayerData cached = getCached(playerUuid);
+        if (cached != null) {
+            metrics.counter("friend_reads", "source", "cache").increment();
+            return CompletableFuture.completedFuture(FriendPage.of(playerUuid, cached.getFriends(), after, pageSize));
+        }
+        if (friendships == null || !friendships.isReady()) {
+            metrics.counter("friend_reads", "source", "document").increment();
+            return loadPlayerData(List.of(playerUuid)).thenApply(loaded -> {
+                PlayerData playerData = loaded.get(playerUuid);
+                return FriendPage.of(playerUuid, playerData != null ? playerData.getFriends() : List.of(), after, pageSize);
+            });
+        }
+
+        metrics.counter("friend_reads", "source", "edges").increment();
+        return supplyRead("friendship_read", () -> {
+            // One extra edge tells whether another page follows
+            List<UUID> friends = friendships.page(playerUuid, after, pageSize + 1);
+            boolean more = friends.size() > pageSize;
+            if (more) {
+                friends = new ArrayList<>(friends.subList(0, pageSize));
+            }
+            return new FriendPage(friends, more ? friends.get(pageSize - 1) : null, friendships.count(playerUuid));
+        });
+    }
+
+    /**
+     * Counts a player's friends without caching the player.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return A CompletableFuture with the number of friends; 0 if the player has no document.
+     */
+    public CompletableFuture<Integer> countFriends(UUID playerUuid) {
+        PlayerData cached = getCached(playerUuid);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.getFriendCount());
+        }
+        if (friendships == null || !friendships.isReady()) {
+            return loadPlayerData(List.of(playerUuid)).thenApply(loaded -> {
+                PlayerData playerData = loaded.get(playerUuid);
+                return playerData != null ? playerData.getFriendCount() : 0;
+            });
+        }
+        return supplyRead("friendship_read", () -> friendships.count(playerUuid));
+    }
+
+    /**
+     * Checks whether two players are friends, from whichever of them is cached or with a single edge lookup.
+     * Neither player is cached by this call if the 'friendships' collection is enabled.
+     *
+     * @param player1Id The UUID of the first player.
+     * @param player2Id The UUID of the second player.
+     * @return A CompletableFuture with true if they are friends.
+     */
+    public CompletableFuture<Boolean> areFriends(UUID player1Id, UUID player2Id) {
+        PlayerData cached = playerDataByUUID.get(player1Id);
+        UUID other = player2Id;
+        if (cached == null) {
+            cached = playerDataByUUID.get(player2Id);
+            other = player1Id;
+        }
+        if (cached == null) {
+            cached = offlineCache.peek(player1Id);
+            other = player2Id;
+        }
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.isFriend(other));
+        }
+        if (friendships == null || !friendships.isReady()) {
+            return loadPlayerData(List.of(player1Id)).thenApply(loaded -> {
+                PlayerData playerData = loaded.get(player1Id);
+                return playerData != null && playerData.isFriend(player2Id);
+            });
+        }
+        return supplyRead("friendship_read", () -> friendships.areFriends(player1Id, player2Id));
+    }
+
+    // Runs a read (of the 'friendships' collection or the friend graph) on the load executor
+    private <T> CompletableFuture<T> supplyRead(String metric, Supplier<T> read) {
+        BoundedExecutor executor = friendSystem.getExecutors().loads();
+        if (executor == null || executor.isShutdown()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Asynchronous executor is not available or shut down."));
+        }
+        MetricsRegistry.Timer timer = metrics.startTimer(metric);
+        return executor.supply(read).whenComplete((result, error) -> timer.stop());
+    }
+
+    // --- Friend Graph (mutual friends and suggestions) ---
+
+    /**
+     * Gets the friends two players have in common, from the friend graph.
+     * Both players are loaded first (one bulk read for those not cached), so both friend lists are in the graph.
+     *
+     * @param player1Id The UUID of the first player.
+     * @param player2Id The UUID of the second player.
+     * @return A CompletableFuture with the shared friends.
+     */
+    public CompletableFuture<List<UUID>> getMutualFriends(UUID player1Id, UUID player2Id) {
+        return loadPlayerData(List.of(player1Id, player2Id))
+                .thenCompose(loaded -> supplyRead("friend_mutual", () -> friendGraph.mutualFriends(player1Id, player2Id)));
+    }
+
+    /**
+     * Suggests new friends: friends of the player's friends, ranked by the number of friends they share with
+     * the player. Friends whose lists are not in the friend graph yet are loaded first, at most the configured
+     * number in one bulk read. Current friends, the player and players with a pending request either way are skipped.
+     *
+     * @param playerUuid The UUID of the player, who must be cached.
+     * @param limit The maximum number of suggestions.
+     * @return A CompletableFuture with the suggestions, most mutual friends first; empty if the player is not cached.
+     */
+    public CompletableFuture<List<FriendGraph.Suggestion>> suggestFriends(UUID playerUuid, int limit) {
+        PlayerData playerData = getCached(playerUuid);
+        if (playerData == null) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        List<UUID> missing = new ArrayList<>();
+        for (UUID friendUuid : playerData.getFriends()) {
+            if (missing.size() >= suggestLoadLimit) {
+                break;
+            }
+            if (!friendGraph.isLoaded(friendUuid)) {
+                missing.add(friendUuid);
+            }
+        }
+
+        Set<UUID> excluded = new HashSet<>();
+        for (Request request : requestStore.getIncoming(playerUuid)) {
+            excluded.add(request.getRequester());
+        }
+        for (Request request : requestStore.getOutgoing(playerUuid)) {
+            excluded.add(request.getRequestedId());
+        }
+        CompletableFuture<?> loads = missing.isEmpty() ? CompletableFuture.completedFuture(null) : loadPlayerData(missing);
+        return loads.thenCompose(loaded -> supplyRead("friend_suggest",
+                () -> friendGraph.suggest(playerUuid, limit, suggestScanLimit, excluded)));
+    }
+
+    private static final class Prefetched {
+        private final PlayerData playerData;
+        private final long prefetchedNanos;
+
+        private Prefetched(PlayerData playerData, long prefetchedNanos) {
+            this.playerData = playerData;
+            this.prefetchedNanos = prefetchedNanos;
+        }
     }
 }
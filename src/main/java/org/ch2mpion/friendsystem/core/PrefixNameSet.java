@@ -0,0 +1,97 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * A set of player names sorted case-insensitively, for prefix completion.
+ * Names are keyed by their lower-case form followed by the player's UUID, so a prefix query is a
+ * range scan of the sorted map that touches only matching entries, and two players sharing a name
+ * (after a name change) never overwrite each other.
+ * <p>
+ * Thread-safe; every method is synchronized on the instance.
+ */
+public class PrefixNameSet {
+
+    // Sorts after every character that can appear in a Minecraft name
+    private static final char RANGE_END = '\uffff';
+
+    private static final class Entry {
+        private final UUID uuid;
+        private final String name;
+
+        private Entry(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+    }
+
+    // "<lower-case name>\0<uuid>" -> entry
+    private final NavigableMap<String, Entry> byKey = new TreeMap<>();
+    // uuid -> its current key, to replace or remove an entry by player
+    private final Map<UUID, String> keyOf = new HashMap<>();
+
+    private static String lower(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a player, replacing their previous name if they were present.
+     *
+     * @param uuid The UUID of the player.
+     * @param name Their name.
+     */
+    public synchronized void put(UUID uuid, String name) {
+        String key = lower(name) + '\0' + uuid;
+        String previous = keyOf.put(uuid, key);
+        if (previous != null && !previous.equals(key)) {
+            byKey.remove(previous);
+        }
+        byKey.put(key, new Entry(uuid, name));
+    }
+
+    /**
+     * Removes a player.
+     *
+     * @param uuid The UUID of the player.
+     */
+    public synchronized void remove(UUID uuid) {
+        String key = keyOf.remove(uuid);
+        if (key != null) {
+            byKey.remove(key);
+        }
+    }
+
+    /**
+     * Gets the names starting with a prefix, ignoring case, in alphabetical order.
+     *
+     * @param prefix The typed prefix; empty matches every name.
+     * @param limit The maximum number of names returned.
+     * @param filter Only players accepted by the filter are returned; null accepts all.
+     * @return The matching names, in their original case.
+     */
+    public synchronized List<String> complete(String prefix, int limit, Predicate<UUID> filter) {
+        String from = lower(prefix);
+        List<String> names = new ArrayList<>(Math.min(limit, byKey.size()));
+        for (Entry entry : byKey.subMap(from, true, from + RANGE_END, false).values()) {
+            if (names.size() >= limit) {
+                break;
+            }
+            if (filter == null || filter.test(entry.uuid)) {
+                names.add(entry.name);
+            }
+        }
+        return names;
+    }
+
+    public synchronized int size() {
+        return byKey.size();
+    }
+}
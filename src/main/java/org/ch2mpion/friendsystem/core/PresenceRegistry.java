@@ -0,0 +1,218 @@
+package org.ch2mpion.friendsystem.core;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Network-wide presence: which player is online on which server.
+ * <p>
+ * Every server writes one document per local player to 'player_presence'
+ * ({@code _id} = player UUID, {@code server}, {@code heartbeat}) and refreshes the heartbeat of all its
+ * players periodically. A TTL index removes the documents of a server that stopped without cleaning up.
+ * The local view of all servers' players is loaded once and then kept current by the
+ * {@link ChangeStreamWatcher}, so presence checks never query the database.
+ */
+public class PresenceRegistry {
+
+    public static final String COLLECTION = "player_presence";
+
+    private final MongoDBManager mongoDBManager;
+    private final BoundedExecutor backgroundExecutor;
+    private final Logger logger;
+    private final String serverId;
+    private final long ttlSeconds;
+
+    // Player -> server they are online on, for every server of the network
+    private final Map<UUID, String> serverByPlayer = new ConcurrentHashMap<>();
+    // Tail of the serialized presence writes; guarded by 'this'
+    private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+
+    /**
+     * Constructs a new PresenceRegistry.
+     *
+     * @param mongoDBManager The MongoDB manager.
+     * @param backgroundExecutor The executor presence writes run on.
+     * @param logger The logger used to report failed writes.
+     * @param serverId The unique id of this server.
+     * @param ttlSeconds How long a presence document outlives its last heartbeat.
+     */
+    public PresenceRegistry(MongoDBManager mongoDBManager, BoundedExecutor backgroundExecutor, Logger logger,
+                            String serverId, long ttlSeconds) {
+        this.mongoDBManager = mongoDBManager;
+        this.backgroundExecutor = backgroundExecutor;
+        this.logger = logger;
+        this.serverId = serverId;
+        this.ttlSeconds = Math.max(10L, ttlSeconds);
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoDBManager.isConnected() ? mongoDBManager.getMongoDatabase().getCollection(COLLECTION) : null;
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    /**
+     * Creates the TTL index on {@code heartbeat} and the index on {@code server}.
+     */
+    public void createIndexes() {
+        MongoCollection<Document> collection = getCollection();
+        if (collection == null) {
+            return;
+        }
+        try {
+            collection.createIndex(new Document("heartbeat", 1),
+                    new IndexOptions().name("heartbeat_ttl").expireAfter(ttlSeconds, TimeUnit.SECONDS));
+            collection.createIndex(new Document("server", 1));
+        } catch (Exception e) {
+            // An existing TTL index with another expiry keeps working; the documents just live longer or shorter
+            logger.log(Level.WARNING, "Failed to create indexes for '" + COLLECTION + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the local view with the presence documents currently stored.
+     * Called when the change stream (re)starts without a resume token, after it is open, so no change is missed.
+     */
+    public void loadSnapshot() {
+        MongoCollection<Document> collection = getCollection();
+        if (collection == null) {
+            return;
+        }
+        Map<UUID, String> snapshot = new ConcurrentHashMap<>();
+        for (Document doc : collection.find()) {
+            snapshot.put(PlayerDataMigrator.toUuid(doc.get("_id")), doc.getString("server"));
+        }
+        serverByPlayer.keySet().retainAll(snapshot.keySet());
+        serverByPlayer.putAll(snapshot);
+    }
+
+    /**
+     * Publishes that a player is online on this server.
+     *
+     * @param playerUuid The UUID of the player who joined.
+     */
+    public void markOnline(UUID playerUuid) {
+        serverByPlayer.put(playerUuid, serverId);
+        writeAsync(collection -> collection.replaceOne(Filters.eq("_id", playerUuid),
+                new Document("_id", playerUuid).append("server", serverId).append("heartbeat", new Date()),
+                new ReplaceOptions().upsert(true)));
+    }
+
+    /**
+     * Publishes that a player left this server. A newer document of another server they moved to is kept.
+     *
+     * @param playerUuid The UUID of the player who quit.
+     */
+    public void markOffline(UUID playerUuid) {
+        serverByPlayer.remove(playerUuid, serverId);
+        writeAsync(collection -> collection.deleteOne(Filters.and(Filters.eq("_id", playerUuid), Filters.eq("server", serverId))));
+    }
+
+    /**
+     * Refreshes the heartbeat of every player on this server. Called periodically from an asynchronous task.
+     */
+    public void heartbeat() {
+        MongoCollection<Document> collection = getCollection();
+        if (collection == null) {
+            return;
+        }
+        try {
+            collection.updateMany(Filters.eq("server", serverId), Updates.set("heartbeat", new Date()));
+        } catch (Exception e) {
+            logger.warning("Failed to refresh presence heartbeat: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the presence of every player on this server. Called on shutdown, while MongoDB is still connected.
+     */
+    public void clearServer() {
+        MongoCollection<Document> collection = getCollection();
+        if (collection == null) {
+            return;
+        }
+        try {
+            CompletableFuture<Void> pending;
+            synchronized (this) {
+                pending = writes;
+            }
+            pending.get(5, TimeUnit.SECONDS); // A late join must not be written after the cleanup
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            // Clean up anyway; a presence written afterwards still expires
+        }
+        try {
+            collection.deleteMany(Filters.eq("server", serverId));
+        } catch (Exception e) {
+            logger.warning("Failed to clear presence of server " + serverId + "; it expires after " + ttlSeconds + "s: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a change of another server's presence document.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param server The server they are now online on, or null if their document was deleted.
+     */
+    void apply(UUID playerUuid, String server) {
+        if (server != null) {
+            serverByPlayer.put(playerUuid, server);
+        } else {
+            serverByPlayer.remove(playerUuid);
+        }
+    }
+
+    /**
+     * Gets the server a player is online on, anywhere in the network.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The server id, or null if the player is offline.
+     */
+    public String getServer(UUID playerUuid) {
+        return serverByPlayer.get(playerUuid);
+    }
+
+    /**
+     * Gets the number of players online across the network.
+     *
+     * @return The network-wide online count.
+     */
+    public int getOnlineCount() {
+        return serverByPlayer.size();
+    }
+
+    // Presence writes run one after another, so a quick join/quit can never be stored as join after quit
+    private synchronized void writeAsync(Consumer<MongoCollection<Document>> write) {
+        writes = writes.thenRunAsync(() -> {
+            MongoCollection<Document> collection = getCollection();
+            if (collection == null) {
+                return;
+            }
+            try {
+                write.accept(collection);
+            } catch (Exception e) {
+                logger.warning("Failed to update player presence: " + e.getMessage());
+            }
+        }, backgroundExecutor).exceptionally(e -> {
+            logger.warning("Could not run presence update: " + e.getMessage());
+            return null;
+        });
+    }
+}
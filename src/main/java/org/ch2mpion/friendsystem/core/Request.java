@@ -9,25 +9,26 @@ import java.util.UUID;
  * Equality and hashing are based solely on the requester and requested player UUIDs,
  * meaning a unique request exists between a specific sender and receiver,
  * regardless of when it was sent.
+ * The timestamp is kept as a primitive so each pending request costs a single object.
  */
 public class Request {
 
     private final UUID requesterId;
     private final UUID requestedId;
-    private final Instant requestTime; // Timestamp when the request was made
+    private final long requestTimeMillis; // Epoch millisecond when the request was made
 
     /**
      * Constructs a new friend request.
-     * This constructor is package-private, intended to be called by PlayersManager.
+     * This constructor is package-private, intended to be called by RequestStore.
      *
      * @param requesterId The UUID of the player who sent the request.
      * @param requestedId The UUID of the player who received the request.
-     * @param requestTime The Instant when the request was created.
+     * @param requestTimeMillis The epoch millisecond when the request was created.
      */
-    Request(UUID requesterId, UUID requestedId, Instant requestTime) {
+    Request(UUID requesterId, UUID requestedId, long requestTimeMillis) {
         this.requesterId = requesterId;
         this.requestedId = requestedId;
-        this.requestTime = requestTime;
+        this.requestTimeMillis = requestTimeMillis;
     }
 
     /**
@@ -55,7 +56,16 @@ public class Request {
      * @return The Instant timestamp of the request.
      */
     public Instant getRequestTime() {
-        return requestTime;
+        return Instant.ofEpochMilli(requestTimeMillis);
+    }
+
+    /**
+     * Gets the timestamp when this friend request was created, without allocating an Instant.
+     *
+     * @return The epoch millisecond timestamp of the request.
+     */
+    public long getRequestTimeMillis() {
+        return requestTimeMillis;
     }
 
     /**
@@ -0,0 +1,122 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel that expires friend requests close to their deadline.
+ * Each slot covers one tick; a request is placed in the slot of the tick its timeout ends in.
+ * The wheel has more slots than the timeout has ticks, so every entry in a slot that is
+ * reached is due and advancing the wheel costs O(expired), without scanning pending requests.
+ * <p>
+ * Removing a request from the store does not touch the wheel; the caller checks on expiry
+ * whether the expired instance is still the one stored (lazy cancellation).
+ */
+public class RequestExpiryWheel {
+
+    private final long tickMillis;
+    private final long timeoutMillis;
+    private final List<Request>[] slots;
+    private final int mask;
+
+    // The last tick that has been processed. Guarded by 'this'.
+    private long currentTick;
+    private int size;
+
+    /**
+     * Constructs a new RequestExpiryWheel.
+     *
+     * @param timeoutMillis How long a request lives.
+     * @param tickMillis The wheel resolution; requests expire at most one tick late.
+     * @param nowMillis The current time.
+     */
+    @SuppressWarnings("unchecked")
+    public RequestExpiryWheel(long timeoutMillis, long tickMillis, long nowMillis) {
+        this.tickMillis = Math.max(1L, tickMillis);
+        this.timeoutMillis = Math.max(0L, timeoutMillis);
+
+        // One revolution must be longer than the timeout, so that no entry needs more than one lap
+        long ticksPerTimeout = this.timeoutMillis / this.tickMillis + 2;
+        int wheelSize = Integer.highestOneBit((int) Math.min(1 << 20, ticksPerTimeout) - 1) << 1;
+        this.slots = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.mask = wheelSize - 1;
+        this.currentTick = nowMillis / this.tickMillis;
+    }
+
+    /**
+     * Gets the deadline of a request.
+     *
+     * @param request The request.
+     * @return The epoch millisecond at which the request expires.
+     */
+    public long deadlineOf(Request request) {
+        return request.getRequestTimeMillis() + timeoutMillis;
+    }
+
+    /**
+     * Schedules a request for expiry.
+     *
+     * @param request The request that was just stored.
+     */
+    public synchronized void schedule(Request request) {
+        long deadlineTick = (deadlineOf(request) + tickMillis - 1) / tickMillis;
+        if (deadlineTick <= currentTick) {
+            deadlineTick = currentTick + 1; // Already due; expire on the next advance
+        }
+        slots[(int) (deadlineTick & mask)].add(request);
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the given time and returns every request whose deadline has passed.
+     *
+     * @param nowMillis The current time.
+     * @return The expired requests, possibly including ones that were already removed from the store.
+     */
+    public synchronized List<Request> advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        if (nowTick <= currentTick) {
+            return List.of();
+        }
+
+        List<Request> expired = new ArrayList<>();
+        // After a full revolution every slot has been visited once; more iterations would only repeat them
+        long ticks = Math.min(nowTick - currentTick, slots.length);
+        for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+            List<Request> slot = slots[(int) (tick & mask)];
+            if (slot.isEmpty()) {
+                continue;
+            }
+            int before = slot.size();
+            List<Request> notDue = null;
+            for (Request request : slot) {
+                // Only entries that landed here after a lag longer than one revolution are not due yet
+                if (deadlineOf(request) <= nowMillis) {
+                    expired.add(request);
+                } else {
+                    if (notDue == null) notDue = new ArrayList<>();
+                    notDue.add(request);
+                }
+            }
+            slot.clear();
+            if (notDue != null) {
+                slot.addAll(notDue);
+            }
+            size -= before - slot.size();
+        }
+        currentTick = nowTick;
+        return expired;
+    }
+
+    /**
+     * Gets the number of scheduled entries, including lazily cancelled ones.
+     *
+     * @return The scheduled entry count.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
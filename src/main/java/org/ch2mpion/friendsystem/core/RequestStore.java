@@ -0,0 +1,197 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory store of pending friend requests, indexed in both directions.
+ * Every request is one {@link Request} object referenced from an incoming index
+ * (requested -> requester -> request) and an outgoing index (requester -> requested -> request),
+ * so pair lookups, "requests received by X" and "requests sent by X" are all constant-time.
+ * The same object is also the entry scheduled in the {@link RequestExpiryWheel}.
+ * <p>
+ * Reads are lock-free; mutations are synchronized so both indexes always agree.
+ */
+public class RequestStore {
+
+    /**
+     * The outcome of {@link #add(UUID, UUID, long)}.
+     */
+    public enum AddResult {
+        ADDED,
+        DUPLICATE,
+        OUTGOING_LIMIT_REACHED
+    }
+
+    private final Map<UUID, Map<UUID, Request>> incoming = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<UUID, Request>> outgoing = new ConcurrentHashMap<>();
+    private final int maxOutgoing;
+    private int size;
+
+    /**
+     * Constructs a new RequestStore.
+     *
+     * @param maxOutgoing The maximum number of pending requests one player may have sent; 0 or less for no limit.
+     */
+    public RequestStore(int maxOutgoing) {
+        this.maxOutgoing = maxOutgoing;
+    }
+
+    /**
+     * Stores a new request, unless the pair already has one or the sender reached the outgoing limit.
+     *
+     * @param requesterId The UUID of the player sending the request.
+     * @param requestedId The UUID of the player receiving the request.
+     * @param nowMillis The time the request is made.
+     * @return The outcome.
+     */
+    public synchronized AddResult add(UUID requesterId, UUID requestedId, long nowMillis) {
+        Map<UUID, Request> sent = outgoing.get(requesterId);
+        if (sent != null) {
+            if (sent.containsKey(requestedId)) {
+                return AddResult.DUPLICATE;
+            }
+            if (maxOutgoing > 0 && sent.size() >= maxOutgoing) {
+                return AddResult.OUTGOING_LIMIT_REACHED;
+            }
+        }
+        Request request = new Request(requesterId, requestedId, nowMillis);
+        outgoing.computeIfAbsent(requesterId, k -> new ConcurrentHashMap<>()).put(requestedId, request);
+        incoming.computeIfAbsent(requestedId, k -> new ConcurrentHashMap<>()).put(requesterId, request);
+        size++;
+        return AddResult.ADDED;
+    }
+
+    /**
+     * Gets the request between two players.
+     *
+     * @param requesterId The UUID of the player who sent the request.
+     * @param requestedId The UUID of the player who received the request.
+     * @return The request, or null if there is none.
+     */
+    public Request get(UUID requesterId, UUID requestedId) {
+        Map<UUID, Request> received = incoming.get(requestedId);
+        return received != null ? received.get(requesterId) : null;
+    }
+
+    /**
+     * Checks if a request exists from a requester to a requested player.
+     *
+     * @param requesterId The UUID of the player who sent the request.
+     * @param requestedId The UUID of the player who received the request.
+     * @return true if the request exists.
+     */
+    public boolean contains(UUID requesterId, UUID requestedId) {
+        return get(requesterId, requestedId) != null;
+    }
+
+    /**
+     * Removes the request between two players.
+     *
+     * @param requesterId The UUID of the player who sent the request.
+     * @param requestedId The UUID of the player who received the request.
+     * @return The removed request, or null if there was none.
+     */
+    public synchronized Request remove(UUID requesterId, UUID requestedId) {
+        Request request = get(requesterId, requestedId);
+        if (request != null) {
+            unlink(request);
+        }
+        return request;
+    }
+
+    /**
+     * Removes exactly this request instance; a newer request between the same players is kept.
+     *
+     * @param request The request to remove.
+     * @return true if this instance was stored and has been removed.
+     */
+    public synchronized boolean removeIfSame(Request request) {
+        if (get(request.getRequester(), request.getRequestedId()) != request) {
+            return false;
+        }
+        unlink(request);
+        return true;
+    }
+
+    /**
+     * Removes every request a player has received.
+     *
+     * @param requestedId The UUID of the player.
+     */
+    public synchronized void removeIncoming(UUID requestedId) {
+        Map<UUID, Request> received = incoming.get(requestedId);
+        if (received == null) {
+            return;
+        }
+        for (Request request : received.values().toArray(new Request[0])) {
+            unlink(request);
+        }
+    }
+
+    // Removes a request from both indexes. Caller must hold the monitor.
+    private void unlink(Request request) {
+        removeFrom(incoming, request.getRequestedId(), request.getRequester());
+        removeFrom(outgoing, request.getRequester(), request.getRequestedId());
+        size--;
+    }
+
+    private static void removeFrom(Map<UUID, Map<UUID, Request>> index, UUID owner, UUID other) {
+        Map<UUID, Request> requests = index.get(owner);
+        if (requests != null) {
+            requests.remove(other);
+            if (requests.isEmpty()) {
+                index.remove(owner); // Clean up empty maps
+            }
+        }
+    }
+
+    /**
+     * Gets all requests a player has received.
+     *
+     * @param requestedId The UUID of the player.
+     * @return A live view of the incoming requests; empty if none.
+     */
+    public Collection<Request> getIncoming(UUID requestedId) {
+        Map<UUID, Request> received = incoming.get(requestedId);
+        return received != null ? received.values() : Collections.emptyList();
+    }
+
+    /**
+     * Gets all requests a player has sent.
+     *
+     * @param requesterId The UUID of the player.
+     * @return A live view of the outgoing requests; empty if none.
+     */
+    public Collection<Request> getOutgoing(UUID requesterId) {
+        Map<UUID, Request> sent = outgoing.get(requesterId);
+        return sent != null ? sent.values() : Collections.emptyList();
+    }
+
+    /**
+     * Gets how many pending requests a player has sent.
+     *
+     * @param requesterId The UUID of the player.
+     * @return The outgoing request count.
+     */
+    public int getOutgoingCount(UUID requesterId) {
+        Map<UUID, Request> sent = outgoing.get(requesterId);
+        return sent != null ? sent.size() : 0;
+    }
+
+    public int getMaxOutgoing() {
+        return maxOutgoing;
+    }
+
+    /**
+     * Gets the total number of pending requests.
+     *
+     * @return The pending request count.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
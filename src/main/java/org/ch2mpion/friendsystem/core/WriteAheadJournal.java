@@ -0,0 +1,508 @@
+package org.ch2mpion.friendsystem.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of player data changes that are not confirmed as written to the store yet.
+ * <p>
+ * The write-behind queue appends a player's unsaved changes (see {@link PlayerData#peekUnsaved(UUID)}) before
+ * the change is acknowledged to anyone, and acknowledges the journal once the write succeeded. Acknowledgements
+ * are journaled too, as a per-player watermark: only records above it are replayed, so changes that were already
+ * written never overwrite what other servers changed since. Whatever was never acknowledged, because the store
+ * was unreachable or the server stopped or crashed first, is replayed to the {@link PlayerDataStore} on the next
+ * start before anything else is written. Replayed records are idempotent field updates written unconditionally,
+ * so a change of another server to the same fields between the crash and the replay is overwritten.
+ * <p>
+ * Appends only copy the record into the mapping, so they are cheap enough for the main thread, and writes to the
+ * mapping survive a crash of the server process. With {@code fsync} the change records are also forced to disk in
+ * batches by {@link #force()}, which the write-behind queue calls before it writes them to the store
+ * (acknowledgement records are not forced: losing one only replays changes again). Once every record is
+ * acknowledged the journal is emptied in place; if it fills up, the unacknowledged records are rewritten to a new
+ * file that atomically replaces the old one. {@link #ensureHeadroom()} does that ahead of time off the main thread.
+ * <p>
+ * Record layout: {@code int length, int crc32, long sequence, long uuidMsb, long uuidLsb, byte flags,} then either
+ * {@code long acknowledgedSequence} for an acknowledgement or {@code [short nameLength, name], [long lastSeenMillis],
+ * int added, added UUIDs, int removed, removed UUIDs} for a change. A length of 0 marks the end of the journal.
+ * <p>
+ * Thread-safe; every method is synchronized on the instance, except that {@link #force()} waits for the disk
+ * outside the lock so appends never wait for it.
+ */
+public class WriteAheadJournal {
+
+    private static final int MAGIC = 0x46534A31; // "FSJ1"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8; // length + crc
+    private static final byte HAS_NAME = 1;
+    private static final byte HAS_LAST_SEEN = 2;
+    private static final byte ACKNOWLEDGEMENT = 4;
+    // Offsets within a record
+    private static final int SEQUENCE_OFFSET = RECORD_HEADER_SIZE;
+    private static final int UUID_OFFSET = SEQUENCE_OFFSET + 8;
+    private static final int FLAGS_OFFSET = UUID_OFFSET + 16;
+
+    private final File file;
+    private final boolean fsync;
+    private final Logger logger;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position = HEADER_SIZE;
+    // Everything before this position is forced to disk, or was handed to a running force()
+    private int forcedPosition = HEADER_SIZE;
+    private long nextSequence = 1L;
+
+    // Player -> {first unacknowledged sequence, last appended sequence, last append time}
+    private final Map<UUID, long[]> unsaved = new HashMap<>();
+
+    /**
+     * Constructs a new WriteAheadJournal. Nothing is opened until {@link #open(int)}.
+     *
+     * @param file The journal file.
+     * @param fsync Whether change records are forced to disk by {@link #force()}.
+     * @param logger The logger used to report recovery.
+     */
+    public WriteAheadJournal(File file, boolean fsync, Logger logger) {
+        this.file = file;
+        this.fsync = fsync;
+        this.logger = logger;
+    }
+
+    /**
+     * Opens or creates the journal file and maps it.
+     *
+     * @param initialSizeBytes The size of a new journal; an existing larger file keeps its size.
+     * @throws IOException If the file cannot be created or mapped, or is not a journal; such a file is left untouched.
+     */
+    public synchronized void open(int initialSizeBytes) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean exists = channel.size() > 0;
+        if (exists && !hasMagic()) {
+            // Checked before mapping, which would grow a truncated file; unreplayed changes must never be overwritten
+            channel.close();
+            channel = null;
+            throw new IOException(file + " is not a FriendSystem write-ahead journal.");
+        }
+        int size = (int) Math.max(Math.max(HEADER_SIZE * 2, initialSizeBytes), Math.min(Integer.MAX_VALUE, channel.size()));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (!exists) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(HEADER_SIZE, 0);
+            position = HEADER_SIZE;
+            forcedPosition = position;
+            return;
+        }
+
+        // Find the end of the records left by the previous run
+        position = scan(new ArrayList<>());
+        forcedPosition = position;
+    }
+
+    // Whether the file starts with the journal magic; false for a file too short to hold it
+    private boolean hasMagic() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        return header.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Writes every record left unacknowledged by a previous run to the store, in order, then empties the journal.
+     * Must be called before anything else writes player data.
+     *
+     * @param store The store player data is written to.
+     * @return true if the journal was empty or fully replayed; false if the store rejected a write and the records are kept.
+     */
+    public synchronized boolean replay(PlayerDataStore store) {
+        List<PlayerDelta> records = new ArrayList<>();
+        scan(records);
+        if (records.isEmpty()) {
+            reset();
+            return true;
+        }
+
+        logger.warning("Replaying " + records.size() + " player data changes from the write-ahead journal that were not saved before the last shutdown.");
+        try {
+            store.replay(records);
+        } catch (Exception e) {
+            logger.severe("Failed to replay the write-ahead journal: " + e.getMessage());
+            return false;
+        }
+        reset();
+        logger.info("Write-ahead journal replayed.");
+        return true;
+    }
+
+    /**
+     * Appends a player's unsaved changes. The record is only copied into the mapping; see {@link #force()}.
+     *
+     * @param delta The changes; nothing is appended if it is empty.
+     * @return The sequence number of the record, or 0 if nothing was appended.
+     * @throws IOException If the journal is full and could neither be compacted nor grown.
+     */
+    public synchronized long append(PlayerDelta delta) throws IOException {
+        if (delta.isEmpty() || buffer == null) {
+            return 0L;
+        }
+        long sequence = nextSequence++;
+        write(encode(sequence, delta));
+
+        long[] state = unsaved.get(delta.getPlayerUuid());
+        if (state == null) {
+            unsaved.put(delta.getPlayerUuid(), new long[]{sequence, sequence, System.currentTimeMillis()});
+        } else {
+            state[1] = sequence;
+            state[2] = System.currentTimeMillis();
+        }
+        return sequence;
+    }
+
+    /**
+     * Gets the sequence number of the last record appended for a player.
+     * Read before the player's delta is drained, it names the records that write covers.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return The sequence number, or 0 if the player has no unacknowledged records.
+     */
+    public synchronized long lastSequence(UUID playerUuid) {
+        long[] state = unsaved.get(playerUuid);
+        return state != null ? state[1] : 0L;
+    }
+
+    /**
+     * Confirms that a player's records up to a sequence number are written to the store.
+     * The journal is emptied once no player has unacknowledged records left; otherwise the acknowledgement is
+     * journaled, so those records are not replayed after a crash.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param sequence The value of {@link #lastSequence(UUID)} read before the written delta was drained.
+     */
+    public synchronized void acknowledge(UUID playerUuid, long sequence) {
+        long[] state = unsaved.get(playerUuid);
+        if (state == null || sequence <= 0L) {
+            return;
+        }
+        if (state[1] <= sequence) {
+            unsaved.remove(playerUuid);
+            if (unsaved.isEmpty()) {
+                reset();
+                return;
+            }
+        } else {
+            state[0] = Math.max(state[0], sequence + 1);
+        }
+        if (buffer == null) {
+            return;
+        }
+        try {
+            write(encodeAcknowledgement(nextSequence++, playerUuid, sequence));
+        } catch (IOException e) {
+            // The records stay in the journal and would be replayed once more after a crash
+            logger.warning("Failed to journal an acknowledgement for " + playerUuid + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forces every record appended since the last call to disk, if {@code fsync} is enabled.
+     * Called by the write-behind flusher before the changes of a batch are written to the store,
+     * so one disk flush covers every change since the previous batch. Never call it on the main thread.
+     */
+    public void force() {
+        MappedByteBuffer target;
+        int from;
+        int to;
+        synchronized (this) {
+            if (!fsync || buffer == null || position <= forcedPosition) {
+                return;
+            }
+            target = buffer;
+            from = forcedPosition;
+            to = position;
+            forcedPosition = position;
+        }
+        // A mapping replaced by compaction meanwhile was forced in full by it; forcing the old one is harmless
+        target.force(from, to - from);
+    }
+
+    /**
+     * Compacts or grows the journal once less than a quarter of it is free, so appends on the main thread
+     * practically never have to. Called by the write-behind flusher.
+     *
+     * @throws IOException If the journal could neither be compacted nor grown.
+     */
+    public synchronized void ensureHeadroom() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        int headroom = buffer.capacity() / 4;
+        if (buffer.capacity() - position < headroom) {
+            makeRoom(headroom);
+        }
+    }
+
+    /**
+     * Gets the players whose last record is older than the given age and still unacknowledged,
+     * i.e. whose save failed or never ran.
+     *
+     * @param minAgeMillis The minimum age of the player's last record.
+     * @return The players to save again.
+     */
+    public synchronized Set<UUID> getUnsavedPlayers(long minAgeMillis) {
+        long before = System.currentTimeMillis() - minAgeMillis;
+        Set<UUID> players = new HashSet<>();
+        for (Map.Entry<UUID, long[]> entry : unsaved.entrySet()) {
+            if (entry.getValue()[2] <= before) {
+                players.add(entry.getKey());
+            }
+        }
+        return players;
+    }
+
+    public synchronized int getUnsavedPlayerCount() {
+        return unsaved.size();
+    }
+
+    public synchronized int getSizeBytes() {
+        return position;
+    }
+
+    /**
+     * Forces the journal to disk and unmaps it. Unacknowledged records stay for the next start.
+     */
+    public synchronized void close() {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("Failed to close the write-ahead journal: " + e.getMessage());
+        }
+    }
+
+    // Empties the journal; the sequence keeps counting so acknowledgements of older records stay harmless
+    private void reset() {
+        buffer.putInt(HEADER_SIZE, 0);
+        if (fsync) {
+            buffer.force(HEADER_SIZE, 4);
+        }
+        position = HEADER_SIZE;
+        forcedPosition = position;
+    }
+
+    // Appends an encoded record
+    private void write(byte[] record) throws IOException {
+        if (position + record.length + 4 > buffer.capacity()) {
+            makeRoom(record.length + 4);
+        }
+
+        buffer.putInt(position + record.length, 0); // The end marker goes first, so a torn record is never followed by stale ones
+        buffer.put(position, record, 0, record.length);
+        position += record.length;
+    }
+
+    // Reads the records from the start, collecting the unacknowledged changes into 'out'. Returns the end position.
+    private int scan(List<PlayerDelta> out) {
+        int offset = HEADER_SIZE;
+        long lastSequence = 0L;
+        List<PlayerDelta> changes = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        Map<UUID, Long> acknowledged = new HashMap<>();
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(offset + RECORD_HEADER_SIZE, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break; // Torn write of the last record before a crash
+            }
+            ByteBuffer in = ByteBuffer.wrap(body);
+            long sequence = in.getLong();
+            if (sequence <= lastSequence) {
+                break; // Left over from before the journal was last emptied
+            }
+            lastSequence = sequence;
+            UUID playerUuid = getUuid(in);
+            byte flags = in.get();
+            if ((flags & ACKNOWLEDGEMENT) != 0) {
+                acknowledged.merge(playerUuid, in.getLong(), Math::max);
+            } else {
+                changes.add(decode(playerUuid, flags, in));
+                sequences.add(sequence);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        // Acknowledgements always follow the records they cover
+        for (int i = 0; i < changes.size(); i++) {
+            if (sequences.get(i) > acknowledged.getOrDefault(changes.get(i).getPlayerUuid(), 0L)) {
+                out.add(changes.get(i));
+            }
+        }
+        nextSequence = Math.max(nextSequence, lastSequence + 1);
+        return offset;
+    }
+
+    // Drops acknowledged records by rewriting the rest to a new file, growing it if the rest does not leave enough room
+    private void makeRoom(int needed) throws IOException {
+        // Only unacknowledged changes are still needed; acknowledgement records then have nothing left to cover
+        ByteBuffer live = ByteBuffer.allocate(position - HEADER_SIZE);
+        for (int offset = HEADER_SIZE; offset < position; offset += RECORD_HEADER_SIZE + buffer.getInt(offset)) {
+            long[] state = unsaved.get(new UUID(buffer.getLong(offset + UUID_OFFSET), buffer.getLong(offset + UUID_OFFSET + 8)));
+            if (state != null && (buffer.get(offset + FLAGS_OFFSET) & ACKNOWLEDGEMENT) == 0
+                    && buffer.getLong(offset + SEQUENCE_OFFSET) >= state[0]) {
+                live.put(buffer.slice(offset, RECORD_HEADER_SIZE + buffer.getInt(offset)));
+            }
+        }
+        int liveBytes = live.position();
+        int size = sizeFor(HEADER_SIZE + liveBytes + needed);
+
+        // Write the new journal next to the old one and swap them atomically, so a crash keeps one of the two intact
+        File compacted = new File(file.getPath() + ".tmp");
+        Files.deleteIfExists(compacted.toPath());
+        FileChannel newChannel = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            newBuffer.putInt(0, MAGIC);
+            newBuffer.put(HEADER_SIZE, live.array(), 0, liveBytes);
+            newBuffer.putInt(HEADER_SIZE + liveBytes, 0);
+            newBuffer.force();
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            channel.close();
+            channel = newChannel;
+            buffer = newBuffer;
+            position = HEADER_SIZE + liveBytes;
+            forcedPosition = position; // The new file was forced in full
+            logger.fine("Compacted the write-ahead journal to " + liveBytes + " bytes (capacity " + size + ").");
+        } catch (IOException e) {
+            // Some platforms cannot replace a mapped file; keep every record and grow the current file instead
+            newChannel.close();
+            Files.deleteIfExists(compacted.toPath());
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(position + needed));
+            logger.fine("Grew the write-ahead journal to " + buffer.capacity() + " bytes: " + e.getMessage());
+        }
+    }
+
+    // The current capacity, doubled until it holds the given number of bytes
+    private int sizeFor(int bytes) throws IOException {
+        long size = buffer.capacity();
+        while (size < bytes) {
+            size *= 2;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Write-ahead journal is full.");
+        }
+        return (int) size;
+    }
+
+    private static byte[] encode(long sequence, PlayerDelta delta) {
+        byte[] name = delta.getName() != null ? delta.getName().getBytes(StandardCharsets.UTF_8) : null;
+        int bodyLength = 8 + 16 + 1
+                + (name != null ? 2 + name.length : 0)
+                + (delta.getLastSeenMillis() != null ? 8 : 0)
+                + 4 + 16 * delta.getAddedFriends().size()
+                + 4 + 16 * delta.getRemovedFriends().size();
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.putLong(sequence);
+        putUuid(body, delta.getPlayerUuid());
+        body.put((byte) ((name != null ? HAS_NAME : 0) | (delta.getLastSeenMillis() != null ? HAS_LAST_SEEN : 0)));
+        if (name != null) {
+            body.putShort((short) name.length);
+            body.put(name);
+        }
+        if (delta.getLastSeenMillis() != null) {
+            body.putLong(delta.getLastSeenMillis());
+        }
+        body.putInt(delta.getAddedFriends().size());
+        delta.getAddedFriends().forEach(friend -> putUuid(body, friend));
+        body.putInt(delta.getRemovedFriends().size());
+        delta.getRemovedFriends().forEach(friend -> putUuid(body, friend));
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength);
+        record.putInt(bodyLength);
+        record.putInt((int) crc.getValue());
+        record.put(body.array());
+        return record.array();
+    }
+
+    private static byte[] encodeAcknowledgement(long sequence, UUID playerUuid, long acknowledgedSequence) {
+        ByteBuffer body = ByteBuffer.allocate(8 + 16 + 1 + 8);
+        body.putLong(sequence);
+        putUuid(body, playerUuid);
+        body.put(ACKNOWLEDGEMENT);
+        body.putLong(acknowledgedSequence);
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.capacity());
+        record.putInt(body.capacity());
+        record.putInt((int) crc.getValue());
+        record.put(body.array());
+        return record.array();
+    }
+
+    // Reads the rest of a change record body after its flags
+    private static PlayerDelta decode(UUID playerUuid, byte flags, ByteBuffer in) {
+        String name = null;
+        if ((flags & HAS_NAME) != 0) {
+            byte[] bytes = new byte[in.getShort()];
+            in.get(bytes);
+            name = new String(bytes, StandardCharsets.UTF_8);
+        }
+        Long lastSeenMillis = (flags & HAS_LAST_SEEN) != 0 ? in.getLong() : null;
+        Set<UUID> added = new HashSet<>();
+        for (int i = in.getInt(); i > 0; i--) {
+            added.add(getUuid(in));
+        }
+        Set<UUID> removed = new HashSet<>();
+        for (int i = in.getInt(); i > 0; i--) {
+            removed.add(getUuid(in));
+        }
+        return new PlayerDelta(playerUuid, added, removed, name, lastSeenMillis, 0L);
+    }
+
+    private static void putUuid(ByteBuffer out, UUID uuid) {
+        out.putLong(uuid.getMostSignificantBits());
+        out.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+}
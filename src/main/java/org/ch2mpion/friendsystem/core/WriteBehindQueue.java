@@ -0,0 +1,515 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+import org.bukkit.Bukkit;
+import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Write-behind persistence stage for PlayerData.
+ * Players are marked dirty instead of being saved immediately; a flusher running on the
+ * background executor coalesces all dirty players into one batched write to the {@link PlayerDataStore} per interval, or as soon as the
+ * batch size threshold is reached. A player that is marked dirty several times before the
+ * next flush is only written once, and only the fields that changed are written
+ * (see {@link PlayerDelta}).
+ * <p>
+ * Writes are optimistic: each update only applies to the document version the player's data was based on.
+ * On a conflict (another server or an earlier unacknowledged write changed the document), the document is
+ * read again, merged with the local changes, and the save is retried with the next flush.
+ * <p>
+ * With a {@link WriteAheadJournal}, a player's unsaved changes are journaled before they are queued and the
+ * journal is acknowledged once they are written, so changes that never reach the store are replayed on the next start.
+ * Journaling on the caller's thread (often the main thread) only copies the record into the mapping; forcing it
+ * to disk and making room in the journal are done by the flusher, once per batch.
+ */
+public class WriteBehindQueue {
+
+    // How many times a failed write is retried before its future completes exceptionally
+    private static final int MAX_ATTEMPTS = 3;
+    // How many version conflicts in a row a save may hit before it gives up
+    private static final int MAX_CONFLICTS = 10;
+    // How many flush intervals an asynchronous caller waits for room in a full queue before it is let in anyway
+    private static final int MAX_BACKPRESSURE_INTERVALS = 3;
+    // The fields PlayerData.applyRemote reads
+    private static final List<String> CACHED_FIELDS = List.of("name", "last_seen_millis", "friends", "version");
+
+    private final FriendSystem friendSystem;
+    private final PlayerDataStore store;
+    private final BoundedExecutor backgroundExecutor;
+    // Tags every write so change stream listeners can skip their own server's writes; null if untagged
+    private final String serverId;
+    // Records unsaved changes before they are queued; null if disabled
+    private final WriteAheadJournal journal;
+
+    private final long flushIntervalMillis;
+    private final int batchSize;
+    private final int maxPending;
+
+    // Dirty players in the order they were first marked; guarded by 'lock'
+    private final Map<UUID, PendingSave> pending = new LinkedHashMap<>();
+    private final Object lock = new Object();
+
+    // Only triggers flushes; the writes themselves run on the background executor
+    private final ScheduledExecutorService flusher;
+    private boolean flushScheduled;
+    // At most one flush runs at a time so that the deltas of one player are written in order
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private volatile boolean shutdown;
+
+    /**
+     * A coalesced save for one player. Every caller that marks the player dirty before the
+     * next flush shares the same future.
+     */
+    private static final class PendingSave {
+        private PlayerData playerData;
+        private PlayerDelta delta; // Drained at flush time; restored into playerData if the write fails
+        private long journalSequence; // The last journal record covered by 'delta'
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int attempts;
+        private int conflicts;
+
+        private PendingSave(PlayerData playerData) {
+            this.playerData = playerData;
+        }
+    }
+
+    /**
+     * Constructs a new WriteBehindQueue and starts its periodic flusher.
+     *
+     * @param friendSystem The plugin instance, used for logging.
+     * @param store The store player data is written to.
+     * @param backgroundExecutor The executor the bulk writes run on.
+     * @param serverId The id of this server written with every update (see {@link PlayerDelta#toWriteModels(String)}), or null.
+     * @param journal The journal unsaved changes are recorded in first, or null.
+     * @param flushIntervalMillis The maximum time a dirty player waits before being flushed.
+     * @param batchSize The number of dirty players that triggers an early flush, and the size of one bulkWrite.
+     * @param maxPending The maximum number of dirty players before writers are slowed down.
+     */
+    public WriteBehindQueue(FriendSystem friendSystem, PlayerDataStore store, BoundedExecutor backgroundExecutor,
+                            String serverId, WriteAheadJournal journal, long flushIntervalMillis, int batchSize, int maxPending) {
+        this.friendSystem = friendSystem;
+        this.store = store;
+        this.backgroundExecutor = backgroundExecutor;
+        this.serverId = serverId;
+        this.journal = journal;
+        this.flushIntervalMillis = Math.max(50L, flushIntervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FriendSystem-WriteBehind-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::submitFlush, this.flushIntervalMillis, this.flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks a player as dirty. The player is written by the next flush.
+     * <p>
+     * If the queue is full, asynchronous callers block until the flusher catches up, but for a few flush intervals
+     * at most: while the store is down, flushes put their saves back and the queue does not drain, so callers are
+     * then let in over the limit instead of holding their threads. The main thread is never blocked; it only
+     * triggers an immediate flush.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param playerData The PlayerData to persist.
+     * @return A CompletableFuture that completes once the player's data has been written.
+     */
+    public CompletableFuture<Void> enqueue(UUID playerUuid, PlayerData playerData) {
+        journalChanges(playerUuid, playerData);
+        return schedule(playerUuid, playerData);
+    }
+
+    /**
+     * Queues a player whose unsaved changes are already journaled, e.g. to retry a save that gave up.
+     *
+     * @param playerUuid The UUID of the player.
+     * @param playerData The PlayerData to persist.
+     * @return A CompletableFuture that completes once the player's data has been written.
+     */
+    public CompletableFuture<Void> resubmit(UUID playerUuid, PlayerData playerData) {
+        return schedule(playerUuid, playerData);
+    }
+
+    /**
+     * Checks whether a player is waiting for the next flush.
+     *
+     * @param playerUuid The UUID of the player.
+     * @return true if the player is queued.
+     */
+    public boolean isPending(UUID playerUuid) {
+        synchronized (lock) {
+            return pending.containsKey(playerUuid);
+        }
+    }
+
+    // Records the player's unsaved changes before anyone is told they were made
+    private void journalChanges(UUID playerUuid, PlayerData playerData) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            // Pairs with the drain in writeBatch: a record is either covered by a drained delta or appended after it
+            synchronized (playerData) {
+                journal.append(playerData.peekUnsaved(playerUuid));
+            }
+        } catch (Exception e) {
+            friendSystem.getMetrics().counter("journal_failures").increment();
+            friendSystem.getLogger().log(Level.SEVERE, "Failed to journal the changes of " + playerUuid + "; they are only kept in memory until saved.", e);
+        }
+    }
+
+    private CompletableFuture<Void> schedule(UUID playerUuid, PlayerData playerData) {
+        synchronized (lock) {
+            PendingSave existing = pending.get(playerUuid);
+            if (existing != null) {
+                // Coalesce: the next flush writes the latest state once for every caller
+                existing.playerData = playerData;
+                return existing.future;
+            }
+
+            if (!shutdown) {
+                return enqueueLocked(playerUuid, playerData);
+            }
+        }
+        // Late writes after shutdown are written synchronously by the caller's thread
+        return writeDirectly(playerUuid, playerData);
+    }
+
+    // Adds a new pending save, applying backpressure. Caller must hold 'lock'.
+    private CompletableFuture<Void> enqueueLocked(UUID playerUuid, PlayerData playerData) {
+        // --- Backpressure ---
+        long deadline = System.currentTimeMillis() + MAX_BACKPRESSURE_INTERVALS * flushIntervalMillis;
+        while (pending.size() >= maxPending && !shutdown) {
+            requestFlushLocked();
+            if (Bukkit.isPrimaryThread()) {
+                friendSystem.getLogger().warning("Write-behind queue is full (" + pending.size() + " pending). Flushing early.");
+                break;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+                friendSystem.getMetrics().counter("save_backpressure_timeouts").increment();
+                // Fine only: during an outage every caller gets here, and the failing flushes are logged already
+                friendSystem.getLogger().fine("Write-behind queue is still full (" + pending.size() + " pending) after "
+                        + (MAX_BACKPRESSURE_INTERVALS * flushIntervalMillis) + " ms. Queueing over the limit.");
+                break;
+            }
+            try {
+                lock.wait(Math.min(flushIntervalMillis, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        PendingSave save = pending.get(playerUuid);
+        if (save != null) {
+            // Queued by another caller while we were waiting
+            save.playerData = playerData;
+            return save.future;
+        }
+        save = new PendingSave(playerData);
+        pending.put(playerUuid, save);
+        if (pending.size() >= batchSize) {
+            requestFlushLocked();
+        }
+        return save.future;
+    }
+
+    /**
+     * Gets the number of players currently waiting to be flushed.
+     *
+     * @return The pending player count.
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Stops the periodic flusher and synchronously writes everything that is still pending.
+     * Must be called before the store is closed.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+            // Let a flush that is already running on the background executor finish first
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (flushing.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        // Drain on the calling thread; retries are exhausted here since there is no later flush
+        int rounds = 0;
+        while (getPendingCount() > 0 && rounds++ < MAX_ATTEMPTS * 2) {
+            flushSafely();
+        }
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                friendSystem.getLogger().severe("Write-behind queue shut down with " + pending.size() + " unsaved players."
+                        + (journal != null ? " Their changes are kept in the write-ahead journal and replayed on the next start." : ""));
+                pending.values().forEach(save -> save.future.completeExceptionally(new IllegalStateException("Write-behind queue shut down before save completed.")));
+                pending.clear();
+            }
+        }
+    }
+
+    // Schedules an immediate flush unless one is already queued. Caller must hold 'lock'.
+    private void requestFlushLocked() {
+        if (flushScheduled || flusher.isShutdown()) {
+            return;
+        }
+        flushScheduled = true;
+        flusher.execute(this::submitFlush);
+    }
+
+    // Hands a flush to the background executor unless one is already running.
+    private void submitFlush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return; // The running flush keeps going while a full batch is pending
+        }
+        try {
+            backgroundExecutor.execute(() -> {
+                try {
+                    flushSafely();
+                } finally {
+                    flushing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Saturated; the next interval tries again
+            flushing.set(false);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            friendSystem.getLogger().log(Level.SEVERE, "Unexpected error while flushing the write-behind queue.", e);
+        }
+    }
+
+    // Writes all pending players in bulkWrite batches of at most 'batchSize'.
+    private void flush() {
+        while (true) {
+            Map<UUID, PendingSave> batch = new LinkedHashMap<>();
+            synchronized (lock) {
+                flushScheduled = false;
+                Iterator<Map.Entry<UUID, PendingSave>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    Map.Entry<UUID, PendingSave> entry = iterator.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+                lock.notifyAll(); // Wake writers blocked by backpressure
+            }
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            writeBatch(batch);
+
+            synchronized (lock) {
+                if (pending.size() < batchSize) {
+                    return; // The rest waits for the next interval
+                }
+            }
+        }
+    }
+
+    private void writeBatch(Map<UUID, PendingSave> batch) {
+        maintainJournal();
+        if (!store.isAvailable()) {
+            friendSystem.getLogger().warning("Player data store not available. Deferring save of " + batch.size() + " players.");
+            requeue(batch, batch.keySet(), false);
+            return;
+        }
+
+        // Collect the delta of every player
+        List<PlayerDelta> deltas = new ArrayList<>(batch.size());
+        for (Map.Entry<UUID, PendingSave> entry : batch.entrySet()) {
+            PendingSave save = entry.getValue();
+            synchronized (save.playerData) {
+                // Read first: every record up to this sequence holds changes that are drained now or were written before
+                save.journalSequence = journal != null ? journal.lastSequence(entry.getKey()) : 0L;
+                save.delta = save.playerData.drainDelta(entry.getKey());
+            }
+            if (!save.delta.isEmpty()) {
+                deltas.add(save.delta);
+            }
+        }
+
+        Set<UUID> failed = new HashSet<>();
+        Set<UUID> conflicted = new HashSet<>();
+        if (!deltas.isEmpty()) {
+            MetricsRegistry.Timer batchTimer = friendSystem.getMetrics().startTimer("save_batch");
+            try {
+                PlayerDataStore.WriteResult result = store.applyDeltas(deltas, serverId);
+                conflicted.addAll(result.getConflicted());
+                failed.addAll(result.getFailed());
+                if (!failed.isEmpty()) {
+                    friendSystem.getLogger().warning("Bulk save partially failed for " + failed.size() + "/" + batch.size() + " players: " + result.getError());
+                } else {
+                    friendSystem.getLogger().fine("Flushed " + batch.size() + " players (" + deltas.size() + " deltas) to the " + store.getName() + " store.");
+                }
+            } catch (Exception e) {
+                failed.addAll(batch.keySet());
+                friendSystem.getLogger().log(Level.WARNING, "Bulk save of " + batch.size() + " players failed.", e);
+            } finally {
+                batchTimer.stop();
+            }
+            friendSystem.getMetrics().counter("saved_players").add(batch.size() - failed.size() - conflicted.size());
+            friendSystem.getMetrics().counter("save_conflicts").add(conflicted.size());
+        }
+
+        for (Map.Entry<UUID, PendingSave> entry : batch.entrySet()) {
+            if (!failed.contains(entry.getKey()) && !conflicted.contains(entry.getKey())) {
+                PendingSave save = entry.getValue();
+                save.playerData.acknowledgeDelta(save.delta);
+                if (journal != null) {
+                    journal.acknowledge(entry.getKey(), save.journalSequence);
+                }
+                save.future.complete(null);
+            }
+        }
+        if (!conflicted.isEmpty()) {
+            mergeConflicts(batch, conflicted, failed);
+            requeue(batch, conflicted, true);
+        }
+        if (!failed.isEmpty()) {
+            requeue(batch, failed, false);
+        }
+    }
+
+    // Forces the records appended since the last batch to disk in one go and makes room for the next ones,
+    // both off the threads that append them
+    private void maintainJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.force();
+            journal.ensureHeadroom();
+        } catch (Exception e) {
+            friendSystem.getMetrics().counter("journal_failures").increment();
+            friendSystem.getLogger().log(Level.WARNING, "Failed to maintain the write-ahead journal.", e);
+        }
+    }
+
+    // Re-reads the documents of conflicted players and merges them under their local changes.
+    // Players whose document cannot be read are moved to 'failed'.
+    private void mergeConflicts(Map<UUID, PendingSave> batch, Set<UUID> conflicted, Set<UUID> failed) {
+        Map<UUID, Document> stored;
+        try {
+            stored = store.loadAll(conflicted, CACHED_FIELDS);
+        } catch (Exception e) {
+            friendSystem.getLogger().warning("Could not re-read player data of " + conflicted.size() + " players after a version conflict: " + e.getMessage());
+            stored = null;
+        }
+        Iterator<UUID> iterator = conflicted.iterator();
+        while (iterator.hasNext()) {
+            UUID uuid = iterator.next();
+            PendingSave save = batch.get(uuid);
+            // Restore first: the merge replays pending changes on top of the stored document
+            save.playerData.restoreDelta(save.delta);
+            save.delta = null;
+            if (stored == null) {
+                iterator.remove();
+                failed.add(uuid);
+            } else if (stored.get(uuid) != null) {
+                save.playerData.applyRemote(stored.get(uuid), new ArrayList<>(), new ArrayList<>());
+            }
+        }
+    }
+
+    // Puts failed or conflicted saves back in the queue, unless they ran out of attempts.
+    private void requeue(Map<UUID, PendingSave> batch, Set<UUID> failed, boolean conflict) {
+        synchronized (lock) {
+            for (UUID uuid : failed) {
+                PendingSave save = batch.get(uuid);
+                if (save.delta != null) {
+                    // Hand the unwritten changes back to the player so no later save loses them
+                    save.playerData.restoreDelta(save.delta);
+                    save.delta = null;
+                }
+                if (conflict ? ++save.conflicts >= MAX_CONFLICTS : ++save.attempts >= MAX_ATTEMPTS) {
+                    friendSystem.getLogger().severe("Giving up saving player data for " + uuid + " after "
+                            + (conflict ? save.conflicts + " version conflicts." : save.attempts + " attempts."));
+                    friendSystem.getMetrics().counter("save_failures").increment();
+                    save.future.completeExceptionally(new IllegalStateException("Failed to save player data for " + uuid));
+                    continue;
+                }
+                PendingSave newer = pending.get(uuid);
+                if (newer != null) {
+                    // A newer save was queued meanwhile; it drains the restored changes as well
+                    newer.future.whenComplete((v, ex) -> {
+                        if (ex != null) save.future.completeExceptionally(ex);
+                        else save.future.complete(null);
+                    });
+                } else {
+                    pending.put(uuid, save);
+                }
+            }
+        }
+    }
+
+    // Fallback used after shutdown: the delta is written with blocking updates.
+    private CompletableFuture<Void> writeDirectly(UUID playerUuid, PlayerData playerData) {
+        if (!store.isAvailable()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Player data store not available."));
+        }
+        maintainJournal();
+        PlayerDelta delta;
+        long journalSequence;
+        synchronized (playerData) {
+            journalSequence = journal != null ? journal.lastSequence(playerUuid) : 0L;
+            delta = playerData.drainDelta(playerUuid);
+        }
+        try {
+            PlayerDataStore.WriteResult result = store.applyDeltas(List.of(delta), serverId);
+            if (!result.getConflicted().isEmpty() || !result.getFailed().isEmpty()) {
+                throw new IllegalStateException("Failed to save player data for " + playerUuid
+                        + (result.getError() != null ? ": " + result.getError() : " (version conflict)."));
+            }
+            playerData.acknowledgeDelta(delta);
+            if (journal != null) {
+                journal.acknowledge(playerUuid, journalSequence);
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            playerData.restoreDelta(delta);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
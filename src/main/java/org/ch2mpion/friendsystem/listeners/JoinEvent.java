@@ -1,5 +1,6 @@
 package org.ch2mpion.friendsystem.listeners;
 
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -13,13 +14,15 @@ import java.util.UUID;
 
 /**
  * Handles player join events, managing their PlayerData and online status.
- * Data is loaded from MongoDB on join.
+ * Data is usually prefetched during login; otherwise it is loaded from MongoDB on join.
  */
 public class JoinEvent implements Listener {
 
     /**
      * Handles the PlayerJoinEvent.
-     * When a player joins, this method asynchronously loads their PlayerData from MongoDB.
+     * Data prefetched during login (see {@link PreLoginEvent}) is put online right away on the main thread,
+     * so commands find it from the first tick. Otherwise the data is loaded asynchronously from MongoDB,
+     * joining a login-time load that is still running, and put online in a main-thread task if the player is still connected.
      * After loading, their online status is set to true and lastSeen timestamp is refreshed.
      *
      * @param event The PlayerJoinEvent.
@@ -31,30 +34,41 @@ public class JoinEvent implements Listener {
         String playerName = player.getName();
         PlayersManager playersManager = FriendSystem.getInstance().getPlayersManager();
 
-        // Load player data asynchronously
-        playersManager.loadPlayerData(playerUuid, playerName).thenAccept(playerData -> {
-            // This code runs when the Future completes, potentially on an async thread.
-            // Bukkit API calls (like setOnline, setLastSeen on an online player) might need to be on main thread.
-            // However, PlayerData is a custom object, so modifying it async is generally fine.
-            // The PlayerData object itself can't directly interact with Bukkit API.
-            // The updates to PlayerData are safe as it's within the CompletableFuture's thread.
-
-            // Ensure the PlayerData in the cache is updated with current online status and last seen
-            // (PlayerData constructor might set lastSeen, but this ensures it's fresh for existing players)
-            // This update is already handled by `loadPlayerData` adding it to `playerDataByUUID`,
-            // we just need to ensure the online/lastSeen status is correct after it's in the cache.
-            playerData.setOnline(true);
-            playerData.setLastSeen(Instant.now());
+        // Still in the join event on the main thread, so the player cannot have quit yet
+        PlayerData prefetched = playersManager.takePrefetched(playerUuid);
+        if (prefetched != null) {
+            FriendSystem.getInstance().getMetrics().counter("join_data", "source", "prefetched").increment();
+            setOnline(playersManager, playerUuid, playerName, prefetched);
+            return;
+        }
 
-            // You might want to run this task on the main thread if you send messages or
-            // interact with Bukkit API based on successful load:
-            // Bukkit.getScheduler().runTask(FriendSystem.getInstance(), () -> {
-            //    player.sendMessage(FriendSystem.color("&aYour data has been loaded!"));
-            // });
+        // Load player data asynchronously
+        FriendSystem.getInstance().getMetrics().counter("join_data", "source", "loaded").increment();
+        playersManager.loadPlayerData(playerUuid, playerName).thenAccept(loadedData -> {
+            // Back on the main thread, where quits run: a player who left while loading must not be put online,
+            // since their quit already moved them to the offline tier and nothing would take them out again
+            Bukkit.getScheduler().runTask(FriendSystem.getInstance(), () -> {
+                if (!player.isOnline()) {
+                    return;
+                }
+                setOnline(playersManager, playerUuid, playerName, loadedData);
+            });
         }).exceptionally(e -> {
             // Handle any exceptions during data loading
             FriendSystem.getInstance().getLogger().severe("Error loading player data for " + playerName + ": " + e.getMessage());
             return null; // Return null to complete the exceptionally stage
         });
     }
-}
\ No newline at end of file
+
+    private void setOnline(PlayersManager playersManager, UUID playerUuid, String playerName, PlayerData loadedData) {
+        // `loadPlayerData` caches the data in the offline tier; `markOnline` pins it in the
+        // online tier for as long as the player is connected.
+        PlayerData playerData = playersManager.markOnline(playerUuid, loadedData);
+        playerData.setOnline(true);
+        playerData.setLastSeen(Instant.now());
+        // Keep the stored name in sync with Mojang name changes; persisted as a $set delta
+        playerData.setName(playerName);
+        playersManager.rememberName(playerUuid, playerName);
+        playersManager.indexOnlinePlayer(playerUuid, playerData);
+    }
+}
@@ -0,0 +1,101 @@
+package org.ch2mpion.friendsystem.listeners;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.ch2mpion.friendsystem.FriendSystem;
+import org.ch2mpion.friendsystem.core.PlayerData;
+import org.ch2mpion.friendsystem.core.PlayersManager;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Starts loading a player's data while they log in, so it is ready when they join.
+ * The event runs on a login thread, not the main thread, so it may wait for the load;
+ * the wait is bounded and its outcome is decided by the configured {@link FailurePolicy}.
+ * Loaded data is handed to {@link JoinEvent} through {@link PlayersManager#putPrefetched(UUID, PlayerData)}.
+ */
+public class PreLoginEvent implements Listener {
+
+    /**
+     * What happens to a login whose data did not load within the timeout or failed to load.
+     */
+    public enum FailurePolicy {
+        /** Let the player join; the load continues and JoinEvent awaits it as before. */
+        ALLOW,
+        /** Disconnect the player with the configured message, so they can retry once the database is healthy. */
+        DENY
+    }
+
+    private final boolean enabled;
+    private final long timeoutMillis;
+    private final FailurePolicy failurePolicy;
+    private final String kickMessage;
+
+    /**
+     * Constructs a new PreLoginEvent listener from the 'prefetch' configuration section.
+     */
+    public PreLoginEvent() {
+        ConfigurationSection section = FriendSystem.getInstance().getConfig().getConfigurationSection("prefetch");
+        this.enabled = section == null || section.getBoolean("enabled", true);
+        this.timeoutMillis = Math.max(1L, section != null ? section.getLong("timeout-millis", 2000L) : 2000L);
+        FailurePolicy policy = FailurePolicy.ALLOW;
+        if (section != null && section.getString("on-failure") != null) {
+            try {
+                policy = FailurePolicy.valueOf(section.getString("on-failure").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+                // Keep the default for unknown values
+            }
+        }
+        this.failurePolicy = policy;
+        this.kickMessage = section != null
+                ? section.getString("kick-message", "&cYour friend data could not be loaded. Please try again in a moment.")
+                : "&cYour friend data could not be loaded. Please try again in a moment.";
+    }
+
+    /**
+     * Handles the AsyncPlayerPreLoginEvent.
+     * Runs late so logins already denied by other plugins are not loaded.
+     *
+     * @param event The AsyncPlayerPreLoginEvent.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        FriendSystem plugin = FriendSystem.getInstance();
+        PlayersManager playersManager = plugin.getPlayersManager();
+        if (!enabled || playersManager == null || event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        UUID playerUuid = event.getUniqueId();
+        String playerName = event.getName();
+        String result;
+        try {
+            // Shares the single-flight load, so a load started here is joined (not repeated) by JoinEvent
+            PlayerData playerData = playersManager.loadPlayerData(playerUuid, playerName).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            playersManager.putPrefetched(playerUuid, playerData);
+            plugin.getMetrics().counter("prefetch", "result", "loaded").increment();
+            return;
+        } catch (TimeoutException e) {
+            result = "timeout";
+            plugin.getLogger().warning("Loading player data for " + playerName + " took longer than " + timeoutMillis + "ms during login.");
+        } catch (ExecutionException e) {
+            result = "failed";
+            plugin.getLogger().warning("Error loading player data for " + playerName + " during login: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = "failed";
+        }
+        plugin.getMetrics().counter("prefetch", "result", result).increment();
+
+        if (failurePolicy == FailurePolicy.DENY) {
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, plugin.color(kickMessage));
+        }
+    }
+}
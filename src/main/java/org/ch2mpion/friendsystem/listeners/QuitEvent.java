@@ -19,8 +19,9 @@ public class QuitEvent implements Listener {
     /**
      * Handles the PlayerQuitEvent.
      * When a player quits, this method first updates their in-memory PlayerData
-     * (setting offline and recording last seen), then asynchronously saves this data to MongoDB.
-     * Finally, it removes the player's data from the in-memory cache.
+     * (setting offline and recording last seen), then queues this data to be saved to MongoDB asynchronously.
+     * Finally, it moves the player's data from the online tier to the offline cache tier without waiting for the save;
+     * entries with unsaved changes are never evicted from the offline tier.
      *
      * @param event The PlayerQuitEvent.
      */
@@ -30,6 +31,9 @@ public class QuitEvent implements Listener {
         UUID playerUuid = player.getUniqueId();
         PlayersManager playersManager = FriendSystem.getInstance().getPlayersManager();
 
+        // Friends are told right away; the save below may take up to a write-behind interval
+        playersManager.markLeaving(playerUuid);
+
         // First, update the in-memory PlayerData (set offline and update last seen)
         // This is done synchronously to ensure the in-memory data is ready for saving.
         playersManager.updatePlayerData(playerUuid, (playerData) -> {
@@ -37,17 +41,17 @@ public class QuitEvent implements Listener {
             playerData.setLastSeen(Instant.now());
         });
 
-        // Now, asynchronously save the updated PlayerData to MongoDB
-        playersManager.savePlayerData(playerUuid).thenRun(() -> {
-            // This code runs when the save operation completes, on an async thread.
-            // After successful save, remove the player's data from the in-memory cache.
-            playersManager.removePlayerFromCache(playerUuid);
-        }).exceptionally(e -> {
+        // Now, asynchronously save the updated PlayerData to MongoDB.
+        // The data to write is taken right away, so the player can leave the online tier before the write completes.
+        playersManager.savePlayerData(playerUuid).exceptionally(e -> {
             // Handle any exceptions during data saving
             FriendSystem.getInstance().getLogger().severe("Error saving player data for " + player.getName() + " on quit: " + e.getMessage());
-            // Even if save fails, remove from cache to prevent stale data for next join, or log more severely.
-            playersManager.removePlayerFromCache(playerUuid);
+            // The unsaved changes stay pinned in the offline cache (and journaled) and are retried until written
             return null; // Complete the exceptionally stage
         });
+
+        // Move the player's data to the evicting offline cache tier now, on the main thread. Waiting for the save
+        // (up to a write-behind interval, longer while the store is down) could demote a player who relogged meanwhile.
+        playersManager.moveToOfflineCache(playerUuid);
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package org.ch2mpion.friendsystem.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets.
+ * Values are recorded in microseconds; every power of two is split into {@value #SUB_BUCKETS}
+ * linear sub-buckets, so percentiles are accurate to within 12.5% from 1 microsecond up to about 19 hours
+ * while the whole histogram is a single array of a few hundred counters.
+ * Recording is wait-free and allocation-free, so it can be used on the main thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36; // 2^36 microseconds, about 19 hours; larger values land in the last bucket
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0L, nanos / 1_000L);
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    // Values below SUB_BUCKETS map to themselves; above, the top bits select exponent and sub-bucket
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value that maps to the given bucket
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of all recorded durations.
+     *
+     * @param unit The unit of the result.
+     * @return The total recorded time.
+     */
+    public double getSum(TimeUnit unit) {
+        return sumMicros.sum() / (double) unit.toMicros(1L);
+    }
+
+    /**
+     * Gets the largest recorded duration.
+     *
+     * @param unit The unit of the result.
+     * @return The maximum, or 0 if nothing was recorded.
+     */
+    public double getMax(TimeUnit unit) {
+        return maxMicros.get() / (double) unit.toMicros(1L);
+    }
+
+    /**
+     * Gets a percentile of the recorded durations, rounded up to its bucket's upper bound.
+     *
+     * @param quantile The quantile between 0 and 1, e.g. 0.99 for p99.
+     * @param unit The unit of the result.
+     * @return The percentile, or 0 if nothing was recorded.
+     */
+    public double getPercentile(double quantile, TimeUnit unit) {
+        long total = 0L;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0.0;
+        }
+
+        long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * total);
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1L, rank)) {
+                // Never report more than was actually observed
+                return Math.min(upperBoundOf(i), maxMicros.get()) / (double) unit.toMicros(1L);
+            }
+        }
+        return getMax(unit);
+    }
+}
@@ -0,0 +1,126 @@
+package org.ch2mpion.friendsystem.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.RuntimeOperationsException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes the {@link MetricsRegistry} over JMX as {@code org.ch2mpion.friendsystem:type=Metrics}.
+ * The bean is dynamic: every metric in the registry becomes a read-only numeric attribute,
+ * so metrics added later show up without changing this class.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    private static final String OBJECT_NAME = "org.ch2mpion.friendsystem:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private ObjectName objectName;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registers the bean with the platform MBean server.
+     *
+     * @param logger The logger used to report failures.
+     */
+    public void register(Logger logger) {
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                // Left over by a previous instance after /reload
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to register the metrics MBean.", e);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Unregisters the bean, if it was registered.
+     */
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception ignored) {
+            // Already gone
+        }
+        objectName = null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Double value = registry.flatten().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Double> values = registry.flatten();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Double value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        // The contract has no checked exception here; the rejected names are reported like setAttribute does
+        if (attributes != null && !attributes.isEmpty()) {
+            StringJoiner names = new StringJoiner(", ");
+            for (Attribute attribute : attributes.asList()) {
+                names.add(attribute.getName());
+            }
+            throw new RuntimeOperationsException(new IllegalArgumentException("Metrics are read-only: " + names),
+                    "Metrics are read-only: " + names);
+        }
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // The bean has no operations
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No such operation: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Double> values = registry.flatten();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "FriendSystem runtime metrics", attributes, null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,174 @@
+package org.ch2mpion.friendsystem.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Central registry for the plugin's runtime metrics.
+ * Three kinds of metrics are supported:
+ * <ul>
+ *     <li>Latency histograms ({@link LatencyHistogram}), e.g. player loads and saves.</li>
+ *     <li>Counters, e.g. cache hits or MongoDB errors.</li>
+ *     <li>Gauges, sampled on read, e.g. queue depths.</li>
+ * </ul>
+ * Every metric has a name and at most one label (e.g. {@code command="add"}).
+ * Metrics are created on first use; the hot path is a single map lookup.
+ * The registry is read by {@code /friend stats}, JMX and the Prometheus endpoint.
+ */
+public class MetricsRegistry {
+
+    /**
+     * Identifies a metric by name and optional label.
+     *
+     * @param name The metric name, e.g. {@code player_load}.
+     * @param labelName The label name, or null.
+     * @param labelValue The label value, or null.
+     */
+    public record Key(String name, String labelName, String labelValue) implements Comparable<Key> {
+
+        @Override
+        public int compareTo(Key other) {
+            // Name first, so all series of one metric family are adjacent
+            int byName = name.compareTo(other.name);
+            return byName != 0 ? byName : String.valueOf(labelValue).compareTo(String.valueOf(other.labelValue));
+        }
+
+        @Override
+        public String toString() {
+            return labelName == null ? name : name + "{" + labelName + "=\"" + labelValue + "\"}";
+        }
+    }
+
+    /**
+     * Measures one operation. {@link #stop()} records the elapsed time once; later calls are ignored,
+     * so a timer can be stopped on every exit path of an asynchronous command.
+     */
+    public static final class Timer {
+        private final LatencyHistogram histogram;
+        private final long startNanos = System.nanoTime();
+        private volatile boolean stopped;
+
+        private Timer(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        public void stop() {
+            if (!stopped) {
+                stopped = true;
+                histogram.recordNanos(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private final Map<Key, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<Key, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    public LatencyHistogram histogram(String name) {
+        return histogram(name, null, null);
+    }
+
+    /**
+     * Gets or creates a labelled latency histogram.
+     *
+     * @param name The metric name.
+     * @param labelName The label name, or null.
+     * @param labelValue The label value, or null.
+     * @return The histogram.
+     */
+    public LatencyHistogram histogram(String name, String labelName, String labelValue) {
+        return histograms.computeIfAbsent(new Key(name, labelName, labelValue), k -> new LatencyHistogram());
+    }
+
+    public Timer startTimer(String name) {
+        return new Timer(histogram(name));
+    }
+
+    public Timer startTimer(String name, String labelName, String labelValue) {
+        return new Timer(histogram(name, labelName, labelValue));
+    }
+
+    public LongAdder counter(String name) {
+        return counter(name, null, null);
+    }
+
+    /**
+     * Gets or creates a labelled counter.
+     *
+     * @param name The metric name.
+     * @param labelName The label name, or null.
+     * @param labelValue The label value, or null.
+     * @return The counter.
+     */
+    public LongAdder counter(String name, String labelName, String labelValue) {
+        return counters.computeIfAbsent(new Key(name, labelName, labelValue), k -> new LongAdder());
+    }
+
+    public void gauge(String name, DoubleSupplier supplier) {
+        gauge(name, null, null, supplier);
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same key.
+     *
+     * @param name The metric name.
+     * @param labelName The label name, or null.
+     * @param labelValue The label value, or null.
+     * @param supplier Samples the current value.
+     */
+    public void gauge(String name, String labelName, String labelValue, DoubleSupplier supplier) {
+        gauges.put(new Key(name, labelName, labelValue), supplier);
+    }
+
+    // --- Snapshots (sorted by key, for stable output) ---
+
+    public void forEachHistogram(BiConsumer<Key, LatencyHistogram> consumer) {
+        new TreeMap<>(histograms).forEach(consumer);
+    }
+
+    public void forEachCounter(BiConsumer<Key, Long> consumer) {
+        new TreeMap<>(counters).forEach((key, counter) -> consumer.accept(key, counter.sum()));
+    }
+
+    public void forEachGauge(BiConsumer<Key, Double> consumer) {
+        new TreeMap<>(gauges).forEach((key, supplier) -> consumer.accept(key, sample(supplier)));
+    }
+
+    // A failing gauge must not break the whole export
+    private static double sample(DoubleSupplier supplier) {
+        try {
+            return supplier.getAsDouble();
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Flattens every metric into name/value pairs, e.g. {@code player_load.p99_ms}.
+     * Used by the JMX bean, whose attributes are plain numbers.
+     *
+     * @return The flattened metrics, sorted by name.
+     */
+    public Map<String, Double> flatten() {
+        Map<String, Double> values = new TreeMap<>();
+        forEachHistogram((key, histogram) -> {
+            String prefix = attributeName(key);
+            values.put(prefix + ".count", (double) histogram.getCount());
+            values.put(prefix + ".p50_ms", histogram.getPercentile(0.50, TimeUnit.MILLISECONDS));
+            values.put(prefix + ".p99_ms", histogram.getPercentile(0.99, TimeUnit.MILLISECONDS));
+            values.put(prefix + ".max_ms", histogram.getMax(TimeUnit.MILLISECONDS));
+        });
+        forEachCounter((key, value) -> values.put(attributeName(key), (double) value));
+        forEachGauge((key, value) -> values.put(attributeName(key), value));
+        return values;
+    }
+
+    private static String attributeName(Key key) {
+        return key.labelName() == null ? key.name() : key.name() + "." + key.labelValue();
+    }
+}
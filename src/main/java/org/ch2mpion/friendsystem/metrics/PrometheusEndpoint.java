@@ -0,0 +1,139 @@
+package org.ch2mpion.friendsystem.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the {@link MetricsRegistry} in the Prometheus text exposition format on {@code /metrics}.
+ * Histograms are exported as summaries with p50, p90, p99 and p999 quantiles in seconds.
+ * The server runs on its own daemon thread and should be bound to a local address.
+ */
+public class PrometheusEndpoint {
+
+    private static final String PREFIX = "friendsystem_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final MetricsRegistry registry;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public PrometheusEndpoint(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts the HTTP server.
+     *
+     * @param host The address to bind to, e.g. 127.0.0.1.
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public void start(String host, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::handle);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FriendSystem-Prometheus");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops the HTTP server, if it was started.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format.
+     *
+     * @return The exposition text.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        String[] lastType = {null}; // # TYPE is written once per metric family
+
+        registry.forEachHistogram((key, histogram) -> {
+            String family = PREFIX + key.name() + "_seconds";
+            writeType(out, lastType, family, "summary");
+            for (double quantile : QUANTILES) {
+                out.append(family).append('{').append(labels(key)).append(key.labelName() != null ? "," : "")
+                        .append("quantile=\"").append(quantile).append("\"} ")
+                        .append(format(histogram.getPercentile(quantile, TimeUnit.SECONDS))).append('\n');
+            }
+            out.append(family).append("_sum").append(braced(key)).append(' ')
+                    .append(format(histogram.getSum(TimeUnit.SECONDS))).append('\n');
+            out.append(family).append("_count").append(braced(key)).append(' ')
+                    .append(histogram.getCount()).append('\n');
+        });
+
+        registry.forEachCounter((key, value) -> {
+            String family = PREFIX + key.name() + "_total";
+            writeType(out, lastType, family, "counter");
+            out.append(family).append(braced(key)).append(' ').append(value).append('\n');
+        });
+
+        registry.forEachGauge((key, value) -> {
+            String family = PREFIX + key.name();
+            writeType(out, lastType, family, "gauge");
+            out.append(family).append(braced(key)).append(' ').append(format(value)).append('\n');
+        });
+        return out.toString();
+    }
+
+    private static void writeType(StringBuilder out, String[] lastType, String family, String type) {
+        if (!family.equals(lastType[0])) {
+            out.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+            lastType[0] = family;
+        }
+    }
+
+    private static String labels(MetricsRegistry.Key key) {
+        return key.labelName() == null ? "" : key.labelName() + "=\"" + key.labelValue().replace("\"", "\\\"") + "\"";
+    }
+
+    private static String braced(MetricsRegistry.Key key) {
+        return key.labelName() == null ? "" : "{" + labels(key) + "}";
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
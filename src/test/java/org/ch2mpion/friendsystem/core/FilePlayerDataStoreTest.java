@@ -0,0 +1,194 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilePlayerDataStoreTest {
+
+    private static final Logger LOGGER = Logger.getLogger("FilePlayerDataStoreTest");
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private File file;
+    private FilePlayerDataStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = directory.resolve("players.dat").toFile();
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void reopensAfterAWrite() throws IOException {
+        UUID player = UUID.randomUUID();
+        UUID friend = UUID.randomUUID();
+        store.save(document(player, "Steve", 1L).append("friends", List.of(friend)));
+        store.close();
+
+        store = open();
+        Document loaded = store.load(player);
+        assertNotNull(loaded);
+        assertEquals("Steve", loaded.getString("name"));
+        assertEquals(List.of(friend), loaded.getList("friends", UUID.class));
+        assertEquals(player, store.findByName("steve").get("_id", UUID.class));
+    }
+
+    @Test
+    void latestRecordWinsAfterReopen() throws IOException {
+        UUID player = UUID.randomUUID();
+        store.save(document(player, "Steve", 1L));
+        store.save(document(player, "Steve", 2L));
+        store.close();
+
+        store = open();
+        assertEquals(2L, PlayerData.versionOf(store.load(player)));
+    }
+
+    @Test
+    void discardsATruncatedLastRecord() throws IOException {
+        UUID intact = UUID.randomUUID();
+        UUID truncated = UUID.randomUUID();
+        store.save(document(intact, "Intact", 1L));
+        int intactEnd = store.getSizeBytes();
+        store.save(document(truncated, "Truncated", 1L));
+        int end = store.getSizeBytes();
+        store.close();
+
+        // Cut the file in the middle of the last record, as if the process died while writing it
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(end - 5);
+        }
+
+        store = open();
+        assertNotNull(store.load(intact));
+        assertNull(store.load(truncated));
+        assertNull(store.findByName("Truncated"));
+        assertEquals(intactEnd, store.getSizeBytes());
+
+        // Writes continue where the intact records end and survive the next reopen
+        UUID next = UUID.randomUUID();
+        store.save(document(next, "Next", 1L));
+        store.close();
+        store = open();
+        assertNotNull(store.load(intact));
+        assertNotNull(store.load(next));
+    }
+
+    @Test
+    void compactionKeepsTheLatestRecords() throws IOException {
+        List<UUID> players = Arrays.asList(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        String padding = "x".repeat(16 * 1024);
+        int rounds = 200; // About 10 MB of records, almost all of them superseded
+        for (int round = 1; round <= rounds; round++) {
+            for (UUID player : players) {
+                store.save(document(player, "Player" + players.indexOf(player), round).append("padding", padding));
+            }
+        }
+        assertTrue(store.getSizeBytes() < 2 * 1024 * 1024, "The file was not compacted: " + store.getSizeBytes() + " bytes");
+        for (UUID player : players) {
+            assertEquals((long) rounds, PlayerData.versionOf(store.load(player)));
+        }
+
+        // The offsets rewritten by the compaction stay valid for further writes and after a reopen
+        store.save(document(players.get(0), "Renamed", rounds + 1));
+        store.close();
+        store = open();
+        assertEquals((long) rounds + 1, PlayerData.versionOf(store.load(players.get(0))));
+        assertEquals("Renamed", store.load(players.get(0)).getString("name"));
+        assertEquals((long) rounds, PlayerData.versionOf(store.load(players.get(1))));
+        assertEquals((long) rounds, PlayerData.versionOf(store.load(players.get(2))));
+    }
+
+    @Test
+    void renameUpdatesFindByName() throws IOException {
+        UUID player = UUID.randomUUID();
+        store.save(document(player, "Steve", 1L));
+        PlayerDelta rename = new PlayerDelta(player, Collections.emptySet(), Collections.emptySet(), "Alex", null, 1L);
+        assertEquals(PlayerDataStore.WriteResult.SUCCESS, store.applyDeltas(List.of(rename), null));
+
+        assertNull(store.findByName("steve"));
+        assertEquals(player, store.findByName("ALEX").get("_id", UUID.class));
+
+        store.close();
+        store = open();
+        assertNull(store.findByName("Steve"));
+        assertEquals(player, store.findByName("alex").get("_id", UUID.class));
+    }
+
+    @Test
+    void findByNamePrefersTheMostRecentlySeenPlayer() {
+        UUID older = UUID.randomUUID();
+        UUID newer = UUID.randomUUID();
+        store.save(document(older, "Steve", 1L).append("last_seen_millis", 1_000L));
+        store.save(document(newer, "steve", 1L).append("last_seen_millis", 2_000L));
+
+        assertEquals(newer, store.findByName("STEVE").get("_id", UUID.class));
+    }
+
+    @Test
+    void applyDeltasReportsVersionConflicts() {
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        UUID friend = UUID.randomUUID();
+        store.save(document(player, "Steve", 3L));
+        store.save(document(other, "Alex", 1L));
+
+        PlayerDelta stale = new PlayerDelta(player, Set.of(friend), Collections.emptySet(), null, null, 2L);
+        PlayerDelta afterStale = new PlayerDelta(player, Collections.emptySet(), Collections.emptySet(), "Renamed", null, 3L);
+        PlayerDelta current = new PlayerDelta(other, Set.of(friend), Collections.emptySet(), null, null, 1L);
+        PlayerDataStore.WriteResult result = store.applyDeltas(List.of(stale, afterStale, current), null);
+
+        // The conflicting player is left untouched, including their later deltas of the same batch
+        assertEquals(Set.of(player), result.getConflicted());
+        assertTrue(result.getFailed().isEmpty());
+        Document unchanged = store.load(player);
+        assertEquals(3L, PlayerData.versionOf(unchanged));
+        assertEquals("Steve", unchanged.getString("name"));
+        assertNull(unchanged.getList("friends", UUID.class));
+
+        // Other players of the batch are written and their version incremented
+        Document written = store.load(other);
+        assertEquals(2L, PlayerData.versionOf(written));
+        assertEquals(List.of(friend), written.getList("friends", UUID.class));
+    }
+
+    private FilePlayerDataStore open() throws IOException {
+        FilePlayerDataStore opened = new FilePlayerDataStore(file, LOGGER);
+        opened.open(INITIAL_SIZE);
+        return opened;
+    }
+
+    private static Document document(UUID player, String name, long version) {
+        return new Document("_id", player)
+                .append("name", name)
+                .append("last_seen_millis", 0L)
+                .append("version", version)
+                .append("schema_version", PlayerDataMigrator.CURRENT_SCHEMA_VERSION);
+    }
+}
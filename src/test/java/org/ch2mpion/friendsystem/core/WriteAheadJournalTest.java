@@ -0,0 +1,268 @@
+package org.ch2mpion.friendsystem.core;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadJournalTest {
+
+    private static final Logger LOGGER = Logger.getLogger("WriteAheadJournalTest");
+    private static final int HEADER_SIZE = 16;
+
+    @TempDir
+    Path directory;
+
+    private File file;
+    private WriteAheadJournal journal;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = directory.resolve("journal.dat").toFile();
+        journal = open(4096);
+    }
+
+    @AfterEach
+    void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    void replaysUnacknowledgedRecordsAfterReopen() throws IOException {
+        UUID player = UUID.randomUUID();
+        UUID friend = UUID.randomUUID();
+        journal.append(delta(player, "Steve", friend));
+        journal.close();
+
+        journal = open(4096);
+        MemoryPlayerDataStore store = new MemoryPlayerDataStore();
+        assertTrue(journal.replay(store));
+
+        Document document = store.load(player);
+        assertNotNull(document);
+        assertEquals("Steve", document.getString("name"));
+        assertEquals(1, document.getList("friends", Object.class).size());
+        // Replayed records are gone
+        assertEquals(HEADER_SIZE, journal.getSizeBytes());
+    }
+
+    @Test
+    void doesNotReplayAcknowledgedRecords() throws IOException {
+        UUID saved = UUID.randomUUID();
+        UUID unsaved = UUID.randomUUID();
+        long sequence = journal.append(delta(saved, "Saved", null));
+        journal.append(delta(unsaved, "Unsaved", null));
+        journal.acknowledge(saved, sequence);
+        journal.close();
+
+        journal = open(4096);
+        MemoryPlayerDataStore store = new MemoryPlayerDataStore();
+        assertTrue(journal.replay(store));
+
+        assertNull(store.load(saved), "An acknowledged record was replayed");
+        assertNotNull(store.load(unsaved));
+    }
+
+    @Test
+    void replaysOnlyRecordsAboveAPartialAcknowledgement() throws IOException {
+        UUID player = UUID.randomUUID();
+        UUID friend = UUID.randomUUID();
+        long first = journal.append(delta(player, "OldName", null));
+        journal.append(delta(player, null, friend));
+        journal.acknowledge(player, first);
+        journal.close();
+
+        journal = open(4096);
+        MemoryPlayerDataStore store = new MemoryPlayerDataStore();
+        assertTrue(journal.replay(store));
+
+        Document document = store.load(player);
+        assertNotNull(document);
+        assertNull(document.getString("name"), "The acknowledged rename was replayed");
+        assertEquals(1, document.getList("friends", Object.class).size());
+    }
+
+    @Test
+    void emptiesOnceEverythingIsAcknowledged() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        long firstSequence = journal.append(delta(first, "First", null));
+        long secondSequence = journal.append(delta(second, "Second", null));
+        journal.acknowledge(first, firstSequence);
+        assertTrue(journal.getSizeBytes() > HEADER_SIZE);
+
+        journal.acknowledge(second, secondSequence);
+        assertEquals(HEADER_SIZE, journal.getSizeBytes());
+        assertEquals(0, journal.getUnsavedPlayerCount());
+    }
+
+    @Test
+    void discardsATornLastRecord() throws IOException {
+        UUID intact = UUID.randomUUID();
+        UUID torn = UUID.randomUUID();
+        journal.append(delta(intact, "Intact", null));
+        int tornOffset = journal.getSizeBytes();
+        journal.append(delta(torn, "Torn", null));
+        int end = journal.getSizeBytes();
+        journal.close();
+
+        // Flip the last byte of the second record, as if the process died while writing it
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(end - 1);
+            int last = raf.read();
+            raf.seek(end - 1);
+            raf.write(last ^ 0xFF);
+        }
+
+        journal = open(4096);
+        assertEquals(tornOffset, journal.getSizeBytes(), "The torn record was not cut off");
+        MemoryPlayerDataStore store = new MemoryPlayerDataStore();
+        assertTrue(journal.replay(store));
+        assertNotNull(store.load(intact));
+        assertNull(store.load(torn));
+    }
+
+    @Test
+    void compactionKeepsOnlyUnacknowledgedRecords() throws IOException {
+        journal.close();
+        assertTrue(file.delete());
+        journal = open(256);
+
+        // One player stays unsaved at the start of the journal while many others are written and acknowledged
+        UUID pinned = UUID.randomUUID();
+        journal.append(delta(pinned, "Pinned", null));
+        for (int i = 0; i < 200; i++) {
+            UUID player = UUID.randomUUID();
+            journal.acknowledge(player, journal.append(delta(player, "Player" + i, null)));
+        }
+        UUID last = UUID.randomUUID();
+        journal.append(delta(last, "Last", null));
+        assertTrue(journal.getSizeBytes() <= 256, "The journal grew instead of compacting: " + journal.getSizeBytes());
+        assertEquals(2, journal.getUnsavedPlayerCount());
+        journal.close();
+
+        journal = open(256);
+        CountingStore store = new CountingStore();
+        assertTrue(journal.replay(store));
+        assertEquals(2, store.replayed);
+        assertNotNull(store.load(pinned));
+        assertNotNull(store.load(last));
+    }
+
+    @Test
+    void ensureHeadroomCompactsBeforeTheJournalFills() throws IOException {
+        journal.close();
+        assertTrue(file.delete());
+        journal = open(1024);
+
+        UUID pinned = UUID.randomUUID();
+        journal.append(delta(pinned, "Pinned", null));
+        for (int i = 0; journal.getSizeBytes() <= 800; i++) {
+            UUID player = UUID.randomUUID();
+            journal.acknowledge(player, journal.append(delta(player, "Player" + i, null)));
+        }
+        journal.ensureHeadroom();
+        assertTrue(journal.getSizeBytes() < 200, "The journal was not compacted: " + journal.getSizeBytes());
+        journal.close();
+
+        journal = open(1024);
+        CountingStore store = new CountingStore();
+        assertTrue(journal.replay(store));
+        assertEquals(1, store.replayed);
+        assertNotNull(store.load(pinned));
+    }
+
+    @Test
+    void forcedRecordsAreReplayedWithFsync() throws IOException {
+        journal.close();
+        journal = new WriteAheadJournal(file, true, LOGGER);
+        journal.open(4096);
+
+        UUID player = UUID.randomUUID();
+        journal.append(delta(player, "Steve", null));
+        journal.force();
+        journal.force(); // Nothing new to force
+        journal.close();
+
+        journal = open(4096);
+        MemoryPlayerDataStore store = new MemoryPlayerDataStore();
+        assertTrue(journal.replay(store));
+        assertNotNull(store.load(player));
+    }
+
+    @Test
+    void refusesAndKeepsAFileWithABadHeader() throws IOException {
+        journal.append(delta(UUID.randomUUID(), "Steve", null));
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0xCAFEBABE);
+        }
+        long length = file.length();
+
+        WriteAheadJournal unreadable = new WriteAheadJournal(file, false, LOGGER);
+        assertThrows(IOException.class, () -> unreadable.open(4096));
+        // Nothing was overwritten
+        assertEquals(length, file.length());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            assertEquals(0xCAFEBABE, raf.readInt());
+            raf.seek(HEADER_SIZE);
+            assertTrue(raf.readInt() > 0, "The records were erased");
+        }
+
+        // The journal of tearDown; the damaged file stays as it is
+        journal = new WriteAheadJournal(directory.resolve("other.dat").toFile(), false, LOGGER);
+        journal.open(4096);
+    }
+
+    @Test
+    void sequencesContinueAfterReopen() throws IOException {
+        UUID player = UUID.randomUUID();
+        long before = journal.append(delta(player, "Steve", null));
+        journal.close();
+
+        journal = open(4096);
+        long after = journal.append(delta(player, "Alex", null));
+        assertTrue(after > before);
+        assertFalse(journal.getUnsavedPlayers(0L).isEmpty());
+    }
+
+    private WriteAheadJournal open(int size) throws IOException {
+        WriteAheadJournal opened = new WriteAheadJournal(file, false, LOGGER);
+        opened.open(size);
+        return opened;
+    }
+
+    private static PlayerDelta delta(UUID player, String name, UUID addedFriend) {
+        Set<UUID> added = addedFriend != null ? Collections.singleton(addedFriend) : Collections.emptySet();
+        return new PlayerDelta(player, added, Collections.emptySet(), name, null, 0L);
+    }
+
+    private static final class CountingStore extends MemoryPlayerDataStore {
+        private int replayed;
+
+        @Override
+        public synchronized void replay(List<PlayerDelta> deltas) {
+            replayed += deltas.size();
+            super.replay(deltas);
+        }
+    }
+}